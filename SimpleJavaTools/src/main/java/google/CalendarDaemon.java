@@ -0,0 +1,193 @@
+package google;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.api.client.util.DateTime;
+import com.google.api.services.calendar.Calendar;
+import com.google.api.services.calendar.model.Event;
+
+/**
+ * Keeps the event files up to date from a long running process, so the JVM
+ * and the authorized service are set up once rather than on every run.
+ * <p>
+ * Each calendar is synced through its {@link EventCache} on its own
+ * schedule. Its upcoming events then replace its entries in a window of the
+ * events of all calendars ordered by starting time, and the files are
+ * rendered from the window by an {@link EventWriter}, which only rewrites a
+ * file when its content changed. A calendar that fails to sync keeps the
+ * events of its last sync until the next refresh.
+ */
+class CalendarDaemon {
+	private final Calendar service;
+	private final List<String> calendarIds;
+	private final long[] intervals;
+	private final File cacheDir;
+	private final int eventsPerCalendar;
+	private final EventWriter writer;
+
+	/** Each is only used by the refreshes of its calendar. */
+	private final EventCache[] caches;
+	/** The upcoming events of all calendars, by starting time. */
+	private final TreeMap<Slot, Event> window = new TreeMap<>();
+	/** The slots of the events of each calendar in the window. */
+	private final List<List<Slot>> slots = new ArrayList<>();
+	private final ScheduledExecutorService scheduler;
+
+	/**
+	 * @param service
+	 *            an obtained google calendar service.
+	 * @param calendarIds
+	 *            the calendars to read.
+	 * @param intervalMillis
+	 *            the time between the refreshes of each calendar, each
+	 *            positive.
+	 * @param cacheDir
+	 *            the directory of the caches.
+	 * @param eventsPerCalendar
+	 *            the most upcoming events of each calendar to write.
+	 * @param writer
+	 *            writes the files.
+	 */
+	CalendarDaemon(Calendar service, List<String> calendarIds,
+			long[] intervalMillis, File cacheDir, int eventsPerCalendar,
+			EventWriter writer) {
+		if (calendarIds.isEmpty()
+				|| intervalMillis.length != calendarIds.size())
+			throw new IllegalArgumentException(
+					"need an interval for each of at least one calendar");
+		for (long interval : intervalMillis)
+			if (interval <= 0) throw new IllegalArgumentException(
+					"refresh interval: " + interval + " ms");
+		this.service = service;
+		this.calendarIds = calendarIds;
+		this.intervals = intervalMillis.clone();
+		this.cacheDir = cacheDir;
+		this.eventsPerCalendar = eventsPerCalendar;
+		this.writer = writer;
+		caches = new EventCache[calendarIds.size()];
+		for (int i = 0; i < calendarIds.size(); i++)
+			slots.add(new ArrayList<Slot>());
+		scheduler = Executors.newScheduledThreadPool(
+				Math.min(calendarIds.size(), ReadGcal.MAX_PARALLEL_FETCHES));
+	}
+
+	/**
+	 * Load the caches, write the files from them, then refresh every
+	 * calendar now and after each of its intervals until {@link #stop}.
+	 *
+	 * @throws IOException
+	 *             if a cache cannot be read.
+	 */
+	void start() throws IOException {
+		DateTime now = new DateTime(System.currentTimeMillis());
+		synchronized (this) {
+			for (int i = 0; i < caches.length; i++) {
+				caches[i] = EventCache.load(cacheDir, calendarIds.get(i));
+				replace(i, caches[i].upcoming(now, eventsPerCalendar));
+			}
+			render();
+		}
+		for (int i = 0; i < caches.length; i++) {
+			final int calendar = i;
+			scheduler.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					refresh(calendar);
+				}
+			}, 0, intervals[i], TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/** Stop refreshing, waiting for refreshes in progress. */
+	void stop() throws InterruptedException {
+		scheduler.shutdown();
+		scheduler.awaitTermination(1, TimeUnit.MINUTES);
+	}
+
+	/** Sync a calendar and write the files if its events changed them. */
+	private void refresh(int calendar) {
+		String id = calendarIds.get(calendar);
+		try {
+			caches[calendar].sync(service);
+			caches[calendar].save();
+		} catch (IOException | RuntimeException e) {
+			System.err.println("using cached events of " + id + ": " + e);
+			// the failed sync may have applied some pages
+			try {
+				caches[calendar] = EventCache.load(cacheDir, id);
+			} catch (IOException e1) {
+				System.err.println("cannot read the cache of " + id + ": "
+						+ e1);
+				return;
+			}
+		}
+		DateTime now = new DateTime(System.currentTimeMillis());
+		try {
+			update(calendar,
+					caches[calendar].upcoming(now, eventsPerCalendar));
+		} catch (IOException | RuntimeException e) {
+			// keep refreshing, a later write may succeed
+			System.err.println("cannot write events: " + e);
+		}
+	}
+
+	/** Replace the events of a calendar and write the files. */
+	private synchronized void update(int calendar, List<Event> upcoming)
+			throws IOException {
+		replace(calendar, upcoming);
+		render();
+	}
+
+	private void replace(int calendar, List<Event> upcoming) {
+		List<Slot> old = slots.get(calendar);
+		for (Slot slot : old)
+			window.remove(slot);
+		old.clear();
+		for (int i = 0; i < upcoming.size(); i++) {
+			Event event = upcoming.get(i);
+			Slot slot = new Slot(ReadGcal.startMillis(event), calendar, i);
+			window.put(slot, event);
+			old.add(slot);
+		}
+	}
+
+	/** Write the files from the events in the window that have not ended. */
+	private void render() throws IOException {
+		long now = System.currentTimeMillis();
+		List<Event> events = new ArrayList<>(window.size());
+		for (Event event : window.values())
+			if (EventCache.endsAfter(event, now)) events.add(event);
+		if (!events.isEmpty() && writer.write(events) > 0)
+			System.out.println("wrote " + events.size() + " events");
+	}
+
+	/**
+	 * The position of an event in the window: by starting time, then in the
+	 * order of the calendars and of the events of a calendar, like
+	 * {@link ReadGcal#merge}.
+	 */
+	private static class Slot implements Comparable<Slot> {
+		final long start;
+		final int calendar, index;
+
+		Slot(long start, int calendar, int index) {
+			this.start = start;
+			this.calendar = calendar;
+			this.index = index;
+		}
+
+		@Override
+		public int compareTo(Slot other) {
+			int c = Long.compare(start, other.start);
+			if (c == 0) c = Integer.compare(calendar, other.calendar);
+			return c != 0 ? c : Integer.compare(index, other.index);
+		}
+	}
+}
@@ -0,0 +1,307 @@
+package google;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.google.api.client.http.HttpResponseException;
+import com.google.api.client.util.DateTime;
+import com.google.api.services.calendar.Calendar;
+import com.google.api.services.calendar.model.Event;
+import com.google.api.services.calendar.model.EventDateTime;
+import com.google.api.services.calendar.model.Events;
+
+/**
+ * The events of one google calendar kept in a local file and brought up to
+ * date with incremental sync.
+ * <p>
+ * The first sync lists every event and keeps the {@code nextSyncToken} of the
+ * last page. Later syncs send the token and only receive the events changed
+ * since, with deleted events marked as cancelled. They also send the ETag of
+ * the last response, so an unchanged calendar answers 304 with no body. When
+ * the server has expired the token it answers 410 and the cache starts over
+ * with a full sync.
+ * <p>
+ * Only the fields the event lists are written from are kept: id, summary,
+ * location, start and end. Events that ended more than {@link #TTL_MILLIS}
+ * ago are dropped when the cache is saved. The file is written with a
+ * {@link DataOutputStream}:
+ *
+ * <pre>
+ * int magic, int version
+ * UTF sync token, UTF etag, empty if none
+ * int events
+ * events x (UTF id, UTF summary, boolean has location, [UTF location],
+ *           start, end)
+ * start and end: boolean date only, long value, int time zone shift
+ * </pre>
+ */
+class EventCache {
+	private static final int MAGIC = 0x47434543;
+	private static final int VERSION = 1;
+
+	/** How long events are kept after they end. */
+	static final long TTL_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+	/** Events per page of a list request, the most the API allows. */
+	private static final int PAGE_SIZE = 2500;
+
+	private final String calendarId;
+	private final File file;
+	private String syncToken, etag;
+	private final Map<String, Event> events = new LinkedHashMap<>();
+
+	private EventCache(String calendarId, File file) {
+		this.calendarId = calendarId;
+		this.file = file;
+	}
+
+	/**
+	 * Load the cache of a calendar.
+	 *
+	 * @param dir
+	 *            the directory of the cache files.
+	 * @return the cache saved in {@code dir}, or an empty one.
+	 * @throws IOException
+	 */
+	static EventCache load(File dir, String calendarId) throws IOException {
+		EventCache cache = new EventCache(calendarId,
+				new File(dir, URLEncoder.encode(calendarId, "UTF-8")
+						+ ".events"));
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				Files.newInputStream(cache.file.toPath())))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				return new EventCache(calendarId, cache.file);
+			cache.syncToken = emptyToNull(in.readUTF());
+			cache.etag = emptyToNull(in.readUTF());
+			for (int i = in.readInt(); i > 0; i--) {
+				Event event = new Event().setId(in.readUTF())
+						.setSummary(in.readUTF());
+				if (in.readBoolean()) event.setLocation(in.readUTF());
+				event.setStart(readTime(in)).setEnd(readTime(in));
+				cache.events.put(event.getId(), event);
+			}
+		} catch (NoSuchFileException e) {
+			// not synced yet
+		}
+		return cache;
+	}
+
+	/**
+	 * Drop the events that ended more than {@link #TTL_MILLIS} ago and write
+	 * the cache to a temporary file, then move it over the old one.
+	 *
+	 * @throws IOException
+	 */
+	void save() throws IOException {
+		evict(System.currentTimeMillis() - TTL_MILLIS);
+		Path dir = file.getAbsoluteFile().getParentFile().toPath();
+		Files.createDirectories(dir);
+		Path tmp = Files.createTempFile(dir, file.getName(), ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeUTF(syncToken == null ? "" : syncToken);
+				out.writeUTF(etag == null ? "" : etag);
+				out.writeInt(events.size());
+				for (Event event : events.values()) {
+					out.writeUTF(event.getId());
+					out.writeUTF(event.getSummary());
+					out.writeBoolean(event.getLocation() != null);
+					if (event.getLocation() != null)
+						out.writeUTF(event.getLocation());
+					writeTime(out, event.getStart());
+					writeTime(out, event.getEnd());
+				}
+			}
+			Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/**
+	 * Bring the cache up to date with the calendar.
+	 *
+	 * @param service
+	 *            an obtained google calendar service.
+	 * @return the number of events added, changed or deleted.
+	 * @throws IOException
+	 */
+	int sync(Calendar service) throws IOException {
+		if (syncToken == null) return list(service, true);
+		try {
+			return list(service, false);
+		} catch (HttpResponseException e) {
+			// 410 Gone: the sync token expired, list everything again
+			if (e.getStatusCode() != 410) throw e;
+			return list(service, true);
+		}
+	}
+
+	/**
+	 * List all events, or the events changed since the sync token, page by
+	 * page.
+	 */
+	private int list(Calendar service, boolean full) throws IOException {
+		if (full) expire();
+		int changed = 0;
+		String pageToken = null;
+		do {
+			Calendar.Events.List request = request(service, pageToken);
+			if (pageToken == null && etag != null)
+				request.getRequestHeaders().setIfNoneMatch(etag);
+			Events page;
+			try {
+				page = request.execute();
+			} catch (HttpResponseException e) {
+				// 304 Not Modified: nothing changed since the last sync
+				if (e.getStatusCode() == 304) return 0;
+				throw e;
+			}
+			changed += apply(page);
+			pageToken = page.getNextPageToken();
+		} while (pageToken != null);
+		return changed;
+	}
+
+	/**
+	 * @param pageToken
+	 *            the page to read, or null for the first.
+	 * @return the request for a page of the next sync, for callers that
+	 *         batch the syncs of several calendars.
+	 * @throws IOException
+	 */
+	Calendar.Events.List request(Calendar service, String pageToken)
+			throws IOException {
+		return service.events().list(calendarId).setSingleEvents(true)
+				.setMaxResults(PAGE_SIZE).setSyncToken(syncToken)
+				.setPageToken(pageToken);
+	}
+
+	/**
+	 * Apply a page of a sync. After the last page, the cache keeps its sync
+	 * token for the next sync.
+	 * 
+	 * @return the number of events added, changed or deleted.
+	 */
+	int apply(Events page) {
+		int changed = 0;
+		if (page.getItems() != null) for (Event event : page.getItems()) {
+			if ("cancelled".equals(event.getStatus())) {
+				if (events.remove(event.getId()) != null) changed++;
+			} else if (event.getStart() != null) {
+				events.put(event.getId(), new Event().setId(event.getId())
+						.setSummary(event.getSummary() == null ? ""
+								: event.getSummary())
+						.setLocation(event.getLocation())
+						.setStart(event.getStart())
+						.setEnd(event.getEnd() == null ? event.getStart()
+								: event.getEnd()));
+				changed++;
+			}
+		}
+		if (page.getNextPageToken() == null) {
+			syncToken = page.getNextSyncToken();
+			etag = page.getEtag();
+		}
+		return changed;
+	}
+
+	/**
+	 * Forget all events and the sync token, so the next sync lists every
+	 * event.
+	 * 
+	 * @return false if there was no sync token, so the cache was already
+	 *         going to list every event.
+	 */
+	boolean expire() {
+		boolean had = syncToken != null;
+		events.clear();
+		syncToken = etag = null;
+		return had;
+	}
+
+	/** Remove the events that ended before {@code millis}. */
+	void evict(long millis) {
+		Iterator<Event> it = events.values().iterator();
+		while (it.hasNext())
+			if (value(it.next().getEnd()).getValue() < millis) it.remove();
+	}
+
+	/**
+	 * @param timeMin
+	 *            the earliest end time of the events.
+	 * @param maxResults
+	 *            the most events to return.
+	 * @return the first events that end after {@code timeMin}, by starting
+	 *         time like {@code orderBy("startTime")}.
+	 */
+	List<Event> upcoming(DateTime timeMin, int maxResults) {
+		List<Event> upcoming = new ArrayList<>();
+		for (Event event : events.values())
+			if (endsAfter(event, timeMin.getValue())) upcoming.add(event);
+		Collections.sort(upcoming, new Comparator<Event>() {
+			@Override
+			public int compare(Event e1, Event e2) {
+				return Long.compare(ReadGcal.startMillis(e1),
+						ReadGcal.startMillis(e2));
+			}
+		});
+		return upcoming.subList(0, Math.min(maxResults, upcoming.size()));
+	}
+
+	/** @return whether the event ends after {@code millis} from epoch */
+	static boolean endsAfter(Event event, long millis) {
+		return value(event.getEnd()).getValue() > millis;
+	}
+
+	/** @return the number of cached events */
+	int size() {
+		return events.size();
+	}
+
+	private static DateTime value(EventDateTime time) {
+		return time.getDateTime() != null ? time.getDateTime()
+				: time.getDate();
+	}
+
+	private static void writeTime(DataOutputStream out, EventDateTime time)
+			throws IOException {
+		DateTime value = value(time);
+		out.writeBoolean(value.isDateOnly());
+		out.writeLong(value.getValue());
+		out.writeInt(value.getTimeZoneShift());
+	}
+
+	private static EventDateTime readTime(DataInputStream in)
+			throws IOException {
+		boolean dateOnly = in.readBoolean();
+		DateTime value = new DateTime(dateOnly, in.readLong(), in.readInt());
+		return dateOnly ? new EventDateTime().setDate(value)
+				: new EventDateTime().setDateTime(value);
+	}
+
+	private static String emptyToNull(String s) {
+		return s.isEmpty() ? null : s;
+	}
+}
@@ -0,0 +1,229 @@
+package google;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.google.api.client.util.DateTime;
+import com.google.api.services.calendar.model.Event;
+
+/**
+ * Writes events sorted by starting time to a text file for google doc and an
+ * html file for mailchimp.
+ * <p>
+ * Both files are rendered into buffers that are kept for the next write, and
+ * each is encoded in one piece, written to a temporary file and moved over
+ * the old one, so a reader never sees a partly written file. The new file
+ * gets the permissions of the old one, or the default ones. A file whose
+ * bytes are the same as the ones this writer wrote last time is left alone.
+ */
+class EventWriter {
+	private static final DateTimeFormatter NO_MIN = DateTimeFormatter
+			.ofPattern("h a");
+	private static final DateTimeFormatter TIME = DateTimeFormatter
+			.ofPattern("h:mm a");
+	private static final DateTimeFormatter DAY_ONLY = DateTimeFormatter
+			.ofPattern("MMM dd EEE");
+
+	/** Initial size of the buffers, enough for a few dozen events. */
+	private static final int CAPACITY = 8 << 10;
+
+	private final Output text, html;
+	private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private ByteBuffer bytes = ByteBuffer.allocate(CAPACITY * 2);
+
+	/**
+	 * @param textFile
+	 *            the google doc text file.
+	 * @param htmlFile
+	 *            the html file for mailchimp(forMailChimpLeft.html).
+	 */
+	EventWriter(String textFile, String htmlFile) {
+		text = new Output(Paths.get(textFile));
+		html = new Output(Paths.get(htmlFile));
+	}
+
+	/**
+	 * Render the events and write the files whose content changed.
+	 *
+	 * @param events
+	 *            the events sorted by starting time.
+	 * @return the number of files written.
+	 * @throws IOException
+	 */
+	int write(Iterable<Event> events) throws IOException {
+		render(events);
+		int written = 0;
+		if (write(text)) written++;
+		if (write(html)) written++;
+		return written;
+	}
+
+	private void render(Iterable<Event> events) {
+		StringBuilder wr1 = text.chars, wr2 = html.chars;
+		wr1.setLength(0);
+		wr2.setLength(0);
+
+		wr2.append("<span class=\"content\">\n");
+
+		LocalDateTime lastStart = null;
+		boolean allDayEvent = false, moreThanOneDay = false;
+
+		for (Event event : events) {
+			DateTime start = event.getStart().getDateTime();
+			DateTime end = event.getEnd().getDateTime();
+			// all day events, start == null
+			if (start == null) {
+				start = event.getStart().getDate();
+				end = event.getEnd().getDate();
+				allDayEvent = true;
+			} else allDayEvent = false;
+
+			/*
+			 * google API datetime.getValue returns milliseconds from epoch in
+			 * the UTC time zone. Do not have to use ZonedDateTime
+			 * .now(ZoneId.of("America/Los_Angeles")))
+			 */
+			LocalDateTime start1 = LocalDateTime.ofEpochSecond(
+					start.getValue() / 1000, 0,
+					ZoneOffset.ofHours(start.getTimeZoneShift() / 60));
+			LocalDateTime end1 = LocalDateTime.ofEpochSecond(
+					end.getValue() / 1000, 0,
+					ZoneOffset.ofHours(start.getTimeZoneShift() / 60));
+
+			// whether the event lasts for more than one day
+			moreThanOneDay = end1.getDayOfMonth()
+					- start1.getDayOfMonth() > 1;
+
+			// write a date and day
+			if (lastStart == null
+					|| start1.getDayOfYear() > lastStart.getDayOfYear()) {
+
+				String day = start1.format(DAY_ONLY);
+
+				// whole day event's end date is actually the second day
+				if (moreThanOneDay)
+					day += " - " + end1.minusDays(1).format(DAY_ONLY);
+
+				wr1.append("\n\n").append(day).append('\n');
+				wr2.append("<br><span class=\"date\">").append(day)
+						.append("</span><br>\n");
+			}
+
+			// write an event entry and its time(optional)
+			String entry = event.getSummary();
+			if (!allDayEvent) {
+				if (start1.getMinute() != 0)
+					entry += " " + start1.format(TIME);
+				else entry += " " + start1.format(NO_MIN);
+			}
+			if (event.getLocation() != null)
+				entry += " at " + event.getLocation();
+			wr1.append(entry).append('\n');
+			wr2.append(entry).append("<br>\n");
+
+			// set lastStart to appropriate value
+			if (allDayEvent
+					&& end1.getDayOfMonth() - start1.getDayOfMonth() > 1)
+				lastStart = null;
+			else lastStart = start1;
+		}
+
+		wr1.append("\n\n");
+		wr2.append("</span><br>");
+	}
+
+	/**
+	 * Encode the rendered file and replace the file with it, unless it is
+	 * what was written last time.
+	 *
+	 * @return whether the file was written.
+	 */
+	private boolean write(Output out) throws IOException {
+		encode(out.chars);
+		if (out.written != null && ByteBuffer.wrap(out.written).equals(bytes))
+			return false;
+		Path dir = out.file.toAbsolutePath().getParent();
+		// not createTempFile, which makes the file readable by its owner only
+		Path tmp = dir.resolve(out.file.getFileName() + "."
+				+ Long.toHexString(ThreadLocalRandom.current().nextLong())
+				+ ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(tmp,
+					StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+				ByteBuffer all = bytes.duplicate();
+				while (all.hasRemaining())
+					channel.write(all);
+			}
+			keepPermissions(out.file, tmp);
+			Files.move(tmp, out.file, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+		out.written = Arrays.copyOf(bytes.array(), bytes.limit());
+		return true;
+	}
+
+	/**
+	 * Give {@code tmp} the POSIX permissions of {@code file}, if it exists,
+	 * rather than the default ones it was created with.
+	 */
+	private static void keepPermissions(Path file, Path tmp)
+			throws IOException {
+		if (!Files.getFileStore(tmp)
+				.supportsFileAttributeView(PosixFileAttributeView.class))
+			return;
+		try {
+			Files.setPosixFilePermissions(tmp,
+					Files.getPosixFilePermissions(file));
+		} catch (NoSuchFileException e) {
+			// the first write, keep the defaults
+		}
+	}
+
+	/** Encode the characters into {@link #bytes}, growing it if needed. */
+	private void encode(CharSequence chars) {
+		while (true) {
+			encoder.reset();
+			bytes.clear();
+			CoderResult result = encoder.encode(CharBuffer.wrap(chars), bytes,
+					true);
+			if (!result.isOverflow()) result = encoder.flush(bytes);
+			if (!result.isOverflow()) break;
+			bytes = ByteBuffer.allocate(bytes.capacity() * 2);
+		}
+		bytes.flip();
+	}
+
+	/** A file, its rendered content and the bytes last written to it. */
+	private static class Output {
+		final Path file;
+		final StringBuilder chars = new StringBuilder(CAPACITY);
+		/** Null until this writer first writes the file. */
+		byte[] written;
+
+		Output(Path file) {
+			this.file = file;
+		}
+	}
+}
@@ -1,23 +1,36 @@
 package google;
 
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.time.LocalDateTime;
-import java.time.ZoneOffset;
-import java.time.format.DateTimeFormatter;
+import java.io.InterruptedIOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import com.google.api.client.auth.oauth2.Credential;
 import com.google.api.client.extensions.java6.auth.oauth2.AuthorizationCodeInstalledApp;
 import com.google.api.client.extensions.jetty.auth.oauth2.LocalServerReceiver;
 import com.google.api.client.googleapis.auth.oauth2.GoogleAuthorizationCodeFlow;
 import com.google.api.client.googleapis.auth.oauth2.GoogleClientSecrets;
+import com.google.api.client.googleapis.batch.BatchRequest;
+import com.google.api.client.googleapis.batch.json.JsonBatchCallback;
+import com.google.api.client.googleapis.json.GoogleJsonError;
 import com.google.api.client.googleapis.javanet.GoogleNetHttpTransport;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpHeaders;
 import com.google.api.client.http.HttpTransport;
 import com.google.api.client.json.JsonFactory;
 import com.google.api.client.json.jackson2.JacksonFactory;
@@ -29,8 +42,9 @@ import com.google.api.services.calendar.model.Event;
 import com.google.api.services.calendar.model.Events;
 
 /**
- * Read google calendar events from two google calendars and sort by starting
- * time. Save the near future 15 events to text file and html file.
+ * Read google calendar events from several google calendars and sort by
+ * starting time. Save the near future 15 events of each calendar to text file
+ * and html file.
  */
 public class ReadGcal {
 	/** Application name. */
@@ -43,10 +57,6 @@ public class ReadGcal {
 	/** Global instance of the {@link FileDataStoreFactory}. */
 	private static FileDataStoreFactory DATA_STORE_FACTORY;
 
-	/** Global instance of the JSON factory. */
-	private static final JsonFactory JSON_FACTORY = JacksonFactory
-			.getDefaultInstance();
-
 	/** Global instance of the HTTP transport. */
 	private static HttpTransport HTTP_TRANSPORT;
 
@@ -54,14 +64,36 @@ public class ReadGcal {
 	private static final List<String> SCOPES = Arrays
 			.asList(CalendarScopes.CALENDAR_READONLY);
 
-	static {
-		try {
-			HTTP_TRANSPORT = GoogleNetHttpTransport.newTrustedTransport();
-			DATA_STORE_FACTORY = new FileDataStoreFactory(DATA_STORE_DIR);
-		} catch (Throwable t) {
-			t.printStackTrace();
-			System.exit(1);
+	/*
+	 * The transport, data store and JSON factory are only created when google
+	 * is contacted, so runs that only read the event cache do not load the
+	 * trust store, the data store or Jackson.
+	 */
+
+	/** Holds the global instance of the JSON factory. */
+	private static class Json {
+		static final JsonFactory FACTORY = JacksonFactory.getDefaultInstance();
+	}
+
+	/** @return the HTTP transport, trusting google's certificates */
+	private static synchronized HttpTransport httpTransport()
+			throws IOException {
+		if (HTTP_TRANSPORT == null) {
+			try {
+				HTTP_TRANSPORT = GoogleNetHttpTransport.newTrustedTransport();
+			} catch (GeneralSecurityException e) {
+				throw new IOException(e);
+			}
 		}
+		return HTTP_TRANSPORT;
+	}
+
+	/** @return the store of the credentials in {@link #DATA_STORE_DIR} */
+	private static synchronized FileDataStoreFactory dataStoreFactory()
+			throws IOException {
+		if (DATA_STORE_FACTORY == null)
+			DATA_STORE_FACTORY = new FileDataStoreFactory(DATA_STORE_DIR);
+		return DATA_STORE_FACTORY;
 	}
 
 	/**
@@ -84,12 +116,12 @@ public class ReadGcal {
 		InputStream in = ReadGcal.class.getResourceAsStream(
 				"/resources/client_secret.json");
 		GoogleClientSecrets clientSecrets = GoogleClientSecrets
-				.load(JSON_FACTORY, new InputStreamReader(in));
+				.load(Json.FACTORY, new InputStreamReader(in));
 
 		// Build flow and trigger user authorization request.
 		GoogleAuthorizationCodeFlow flow = new GoogleAuthorizationCodeFlow.Builder(
-				HTTP_TRANSPORT, JSON_FACTORY, clientSecrets, SCOPES)
-						.setDataStoreFactory(DATA_STORE_FACTORY)
+				httpTransport(), Json.FACTORY, clientSecrets, SCOPES)
+						.setDataStoreFactory(dataStoreFactory())
 						.setAccessType("offline").build();
 		Credential credential = new AuthorizationCodeInstalledApp(flow,
 				new LocalServerReceiver()).authorize("user");
@@ -108,149 +140,377 @@ public class ReadGcal {
 			throws IOException {
 		Credential credential = authorize();
 		return new com.google.api.services.calendar.Calendar.Builder(
-				HTTP_TRANSPORT, JSON_FACTORY, credential)
+				httpTransport(), Json.FACTORY, credential)
 						.setApplicationName(APPLICATION_NAME).build();
 	}
 
+	/** Calendars read by {@link #writeGcalEvents(String, String)}. */
+	private static final List<String> CALENDAR_IDS = Arrays.asList(
+			"your-google-calendarID", "a-second-google-calendarID");
+
+	/** Number of upcoming events to read from each calendar. */
+	private static final int EVENTS_PER_CALENDAR = 15;
+
+	/** Directory of the {@link EventCache} files of the calendars. */
+	private static final java.io.File CACHE_DIR = new java.io.File("io",
+			".cache/calendar");
+
+	/** Most calendars fetched at the same time. */
+	static final int MAX_PARALLEL_FETCHES = 8;
+
+	/** Minutes between the syncs of a calendar in {@link #startDaemon}. */
+	private static final long DEFAULT_REFRESH_MINUTES = 5;
+
+	/** Most requests the calendar API accepts in one batch request. */
+	private static final int MAX_BATCH_SIZE = 50;
+
 	/**
-	 * Read events from the two calendars and write them to files for google doc
+	 * Read events from the default calendars and write them to files for
+	 * google doc and mailchimp.
+	 * 
+	 * @see #writeGcalEvents(String, String, List)
+	 */
+	public static void writeGcalEvents(String textFile, String htmlFile)
+			throws IOException {
+		writeGcalEvents(textFile, htmlFile, CALENDAR_IDS);
+	}
+
+	/**
+	 * Read events from the calendars and write them to files for google doc
 	 * and mailchimp.
 	 * 
 	 * @param textFile
 	 *            the google doc text file.
 	 * @param htmlFile
 	 *            the html file for mailchimp(forMailChimpLeft.html).
+	 * @param calendarIds
+	 *            the calendars to read, see {@link #getCalList}.
 	 * @throws IOException
 	 */
-	public static void writeGcalEvents(String textFile, String htmlFile)
-			throws IOException {
+	public static void writeGcalEvents(String textFile, String htmlFile,
+			List<String> calendarIds) throws IOException {
 		// Build a new authorized API client service.
 		// Note: Do not confuse this class with the
 		// com.google.api.services.calendar.model.Calendar class.
 		com.google.api.services.calendar.Calendar service = getCalendarService();
 
-		// List the next 15 events from the primary calendar.
+		// List the next 15 events from each calendar.
 		DateTime now = new DateTime(System.currentTimeMillis());
-		Events events;
-		
-		// use getCalList() to check all calendar IDs
-		events = service.events().list("your-google-calendarID")
-				.setMaxResults(15).setTimeMin(now).setOrderBy("startTime")
-				.setSingleEvents(true).execute();
-		Events secondCalendarEvents = service.events()
-				.list("a-second-google-calendarID").setMaxResults(15)
-				.setTimeMin(now).setOrderBy("startTime").setSingleEvents(true)
-				.execute();
-		List<Event> items = events.getItems();
-		items.addAll(secondCalendarEvents.getItems());
-		items.sort(new Comparator<Event>() {
-			@Override
-			public int compare(Event e1, Event e2) {
-				DateTime start1 = e1.getStart().getDateTime();
-				DateTime start2 = e2.getStart().getDateTime();
-				if (start1 == null) {
-					start1 = e1.getStart().getDate();
-				}
-				if (start2 == null) {
-					start2 = e2.getStart().getDate();
-				}
-
-				LocalDateTime s1 = LocalDateTime.ofEpochSecond(
-						start1.getValue() / 1000, 0,
-						ZoneOffset.ofHours(start1.getTimeZoneShift() / 60));
-				LocalDateTime s2 = LocalDateTime.ofEpochSecond(
-						start2.getValue() / 1000, 0,
-						ZoneOffset.ofHours(start2.getTimeZoneShift() / 60));
-
-				return s1.compareTo(s2);
-			}
-		});
+		List<Event> items = fetchEventsBatched(service, calendarIds, now,
+				EVENTS_PER_CALENDAR, CACHE_DIR);
+		writeEvents(items, textFile, htmlFile);
+	}
 
-		DateTimeFormatter noMin = DateTimeFormatter.ofPattern("h a");
-		DateTimeFormatter time = DateTimeFormatter.ofPattern("h:mm a");
-		DateTimeFormatter dayOnly = DateTimeFormatter.ofPattern("MMM dd EEE");
+	/**
+	 * Write the files from the events cached by the last
+	 * {@link #writeGcalEvents} without connecting to google.
+	 * 
+	 * @see #writeGcalEvents(String, String, List)
+	 */
+	public static void writeCachedEvents(String textFile, String htmlFile,
+			List<String> calendarIds) throws IOException {
+		DateTime now = new DateTime(System.currentTimeMillis());
+		List<List<Event>> lists = new ArrayList<>();
+		for (String id : calendarIds)
+			lists.add(EventCache.load(CACHE_DIR, id).upcoming(now,
+					EVENTS_PER_CALENDAR));
+		writeEvents(merge(lists), textFile, htmlFile);
+	}
 
+	/** Write events sorted by starting time to the two files. */
+	private static void writeEvents(List<Event> items, String textFile,
+			String htmlFile) throws IOException {
 		if (items.size() == 0) {
 			System.out.println("No upcoming events found.");
 		} else {
+			new EventWriter(textFile, htmlFile).write(items);
+		}
+	}
 
-			OutputStreamWriter wr1 = new OutputStreamWriter(
-					new FileOutputStream(textFile), "UTF-8");
-			OutputStreamWriter wr2 = new OutputStreamWriter(
-					new FileOutputStream(htmlFile), "UTF-8");
-
-			wr2.write("<span class=\"content\">\n");
-
-			LocalDateTime lastStart = null;
-			boolean allDayEvent = false, moreThanOneDay = false;
-
-			for (Event event : items) {
-				DateTime start = event.getStart().getDateTime();
-				DateTime end = event.getEnd().getDateTime();
-				// all day events, start == null
-				if (start == null) {
-					start = event.getStart().getDate();
-					end = event.getEnd().getDate();
-					allDayEvent = true;
-				} else allDayEvent = false;
-
-				/*
-				 * google API datetime.getValue returns milliseconds from epoch
-				 * in the UTC time zone. Do not have to use ZonedDateTime
-				 * .now(ZoneId.of("America/Los_Angeles")))
-				 */
-				LocalDateTime start1 = LocalDateTime.ofEpochSecond(
-						start.getValue() / 1000, 0,
-						ZoneOffset.ofHours(start.getTimeZoneShift() / 60));
-				LocalDateTime end1 = LocalDateTime.ofEpochSecond(
-						end.getValue() / 1000, 0,
-						ZoneOffset.ofHours(start.getTimeZoneShift() / 60));
-
-				// whether the event lasts for more than one day
-				moreThanOneDay = end1.getDayOfMonth()
-						- start1.getDayOfMonth() > 1;
-
-				// write a date and day
-				if (lastStart == null
-						|| start1.getDayOfYear() > lastStart.getDayOfYear()) {
-
-					String day = start1.format(dayOnly);
-
-					// whole day event's end date is actually the second day
-					if (moreThanOneDay)
-						day += " - " + end1.minusDays(1).format(dayOnly);
-
-					wr1.write("\n\n" + day + "\n");
-					wr2.write("<br><span class=\"date\">" + day
-							+ "</span><br>\n");
-				}
+	/**
+	 * Keep the files up to date in this process: write them from the cached
+	 * events, then sync each calendar after every interval of its own and
+	 * rewrite the files whose content changed, until the process is stopped.
+	 * 
+	 * @param calendarIds
+	 *            the calendars to read.
+	 * @param refreshMinutes
+	 *            the minutes between the syncs of each calendar, each
+	 *            positive.
+	 * @throws IOException
+	 *             if the service cannot be authorized or a cache read.
+	 * @throws IllegalArgumentException
+	 *             if an interval is not positive.
+	 * @see CalendarDaemon
+	 */
+	public static void startDaemon(String textFile, String htmlFile,
+			List<String> calendarIds, long[] refreshMinutes)
+			throws IOException {
+		long[] intervals = new long[refreshMinutes.length];
+		for (int i = 0; i < intervals.length; i++) {
+			if (refreshMinutes[i] <= 0)
+				throw new IllegalArgumentException("refresh interval: "
+						+ refreshMinutes[i] + " minutes");
+			intervals[i] = TimeUnit.MINUTES.toMillis(refreshMinutes[i]);
+		}
+		new CalendarDaemon(getCalendarService(), calendarIds, intervals,
+				CACHE_DIR, EVENTS_PER_CALENDAR,
+				new EventWriter(textFile, htmlFile)).start();
+	}
 
-				// write an event entry and its time(optional)
-				String entry = event.getSummary();
-				if (!allDayEvent) {
-					if (start1.getMinute() != 0)
-						entry += " " + start1.format(time);
-					else entry += " " + start1.format(noMin);
+	/**
+	 * Read the upcoming events of several calendars, one request per calendar
+	 * on a bounded thread pool, and merge them by starting time.
+	 * 
+	 * @param service
+	 *            an obtained google calendar service.
+	 * @param calendarIds
+	 *            the calendars to read.
+	 * @param timeMin
+	 *            the earliest end time of the events.
+	 * @param maxResults
+	 *            the most events to read from each calendar.
+	 * @return the events of all calendars sorted by local starting time,
+	 *         events with the same start in the order of their calendars.
+	 * @throws IOException
+	 *             if any request fails.
+	 */
+	public static List<Event> fetchEvents(
+			com.google.api.services.calendar.Calendar service,
+			List<String> calendarIds, DateTime timeMin, int maxResults)
+			throws IOException {
+		return fetchEvents(service, calendarIds, timeMin, maxResults, null);
+	}
+
+	/**
+	 * Like {@link #fetchEvents(com.google.api.services.calendar.Calendar,
+	 * List, DateTime, int)}, but each calendar is read from its
+	 * {@link EventCache} in {@code cacheDir} after an incremental sync.
+	 * 
+	 * @param cacheDir
+	 *            the directory of the caches, or null to list the events.
+	 */
+	public static List<Event> fetchEvents(
+			final com.google.api.services.calendar.Calendar service,
+			List<String> calendarIds, final DateTime timeMin,
+			final int maxResults, final java.io.File cacheDir)
+			throws IOException {
+		if (calendarIds.isEmpty()) return new ArrayList<>();
+		ExecutorService executor = Executors.newFixedThreadPool(
+				Math.min(calendarIds.size(), MAX_PARALLEL_FETCHES));
+		try {
+			List<Future<List<Event>>> fetches = new ArrayList<>();
+			for (final String id : calendarIds)
+				fetches.add(executor.submit(new Callable<List<Event>>() {
+					@Override
+					public List<Event> call() throws IOException {
+						if (cacheDir != null) {
+							EventCache cache = EventCache.load(cacheDir, id);
+							cache.sync(service);
+							cache.save();
+							return cache.upcoming(timeMin, maxResults);
+						}
+						List<Event> items = service.events().list(id)
+								.setMaxResults(maxResults).setTimeMin(timeMin)
+								.setOrderBy("startTime").setSingleEvents(true)
+								.execute().getItems();
+						return items == null ? new ArrayList<Event>() : items;
+					}
+				}));
+			List<List<Event>> lists = new ArrayList<>();
+			for (Future<List<Event>> fetch : fetches)
+				lists.add(fetch.get());
+			return merge(lists);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted reading calendars");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Like {@link #fetchEvents(com.google.api.services.calendar.Calendar,
+	 * List, DateTime, int, java.io.File)}, but the requests of all calendars
+	 * are sent together in batch requests of up to {@link #MAX_BATCH_SIZE},
+	 * so reading many calendars costs one round trip, plus one for each
+	 * further page any of them needs.
+	 * <p>
+	 * Each request of a batch fails on its own. With a cache, a calendar
+	 * whose sync token expired is listed again in the next round trip, and a
+	 * calendar that fails keeps the events saved by its last sync, with a
+	 * warning. Without a cache, the other calendars are still read and then
+	 * the failures are thrown together.
+	 * 
+	 * @param cacheDir
+	 *            the directory of the caches, or null to list the events.
+	 * @throws IOException
+	 *             if a batch cannot be sent, or listing any calendar failed.
+	 */
+	public static List<Event> fetchEventsBatched(
+			final com.google.api.services.calendar.Calendar service,
+			final List<String> calendarIds, final DateTime timeMin,
+			final int maxResults, final java.io.File cacheDir)
+			throws IOException {
+		final List<List<Event>> lists = new ArrayList<>();
+		final List<EventCache> caches = new ArrayList<>();
+		final Map<Integer, String> failures = new TreeMap<>();
+		List<Page> pending = new ArrayList<>();
+		for (int i = 0; i < calendarIds.size(); i++) {
+			lists.add(new ArrayList<Event>());
+			if (cacheDir != null)
+				caches.add(EventCache.load(cacheDir, calendarIds.get(i)));
+			pending.add(new Page(i, null));
+		}
+		while (!pending.isEmpty()) {
+			final List<Page> next = new ArrayList<>();
+			for (int from = 0; from < pending.size(); from += MAX_BATCH_SIZE) {
+				BatchRequest batch = service.batch().setBatchUrl(new GenericUrl(
+						service.getRootUrl() + "batch/calendar/v3"));
+				for (final Page page : pending.subList(from,
+						Math.min(pending.size(), from + MAX_BATCH_SIZE))) {
+					final int i = page.calendar;
+					com.google.api.services.calendar.Calendar.Events.List request;
+					if (cacheDir != null)
+						request = caches.get(i).request(service, page.token);
+					else request = service.events().list(calendarIds.get(i))
+							.setMaxResults(maxResults - lists.get(i).size())
+							.setTimeMin(timeMin).setOrderBy("startTime")
+							.setSingleEvents(true).setPageToken(page.token);
+					request.queue(batch, new JsonBatchCallback<Events>() {
+						@Override
+						public void onSuccess(Events events,
+								HttpHeaders responseHeaders) {
+							String token = events.getNextPageToken();
+							if (cacheDir != null) caches.get(i).apply(events);
+							else if (events.getItems() != null) {
+								lists.get(i).addAll(events.getItems());
+								if (lists.get(i).size() >= maxResults)
+									token = null;
+							}
+							if (token != null) next.add(new Page(i, token));
+						}
+
+						@Override
+						public void onFailure(GoogleJsonError e,
+								HttpHeaders responseHeaders) {
+							// 410 Gone: the sync token expired, list everything
+							if (cacheDir != null && e.getCode() == 410
+									&& caches.get(i).expire())
+								next.add(new Page(i, null));
+							else failures.put(i,
+									e.getCode() + " " + e.getMessage());
+						}
+					});
 				}
-				if (event.getLocation() != null)
-					entry += " at " + event.getLocation();
-				wr1.write(entry + "\n");
-				wr2.write(entry + "<br>\n");
-
-				// set lastStart to appropriate value
-				if (allDayEvent
-						&& end1.getDayOfMonth() - start1.getDayOfMonth() > 1)
-					lastStart = null;
-				else lastStart = start1;
+				batch.execute();
 			}
+			pending = next;
+		}
 
-			wr1.write("\n\n");
-			wr1.close();
+		if (cacheDir == null) {
+			if (!failures.isEmpty())
+				throw new IOException("cannot list calendars " + failures);
+			return merge(lists);
+		}
+		for (int i = 0; i < calendarIds.size(); i++) {
+			EventCache cache = caches.get(i);
+			if (failures.containsKey(i)) {
+				System.err.println("using cached events of "
+						+ calendarIds.get(i) + ": " + failures.get(i));
+				cache = EventCache.load(cacheDir, calendarIds.get(i));
+			} else cache.save();
+			lists.set(i, cache.upcoming(timeMin, maxResults));
+		}
+		return merge(lists);
+	}
+
+	/** A page of the events of a calendar to request in a batch. */
+	private static class Page {
+		final int calendar;
+		final String token;
+
+		Page(int calendar, String token) {
+			this.calendar = calendar;
+			this.token = token;
+		}
+	}
+
+	/**
+	 * Merge lists that are each sorted by starting time, with a heap of the
+	 * next event of every list.
+	 */
+	static List<Event> merge(List<List<Event>> lists) {
+		PriorityQueue<Cursor> heap = new PriorityQueue<>(
+				Math.max(1, lists.size()));
+		int total = 0;
+		for (int i = 0; i < lists.size(); i++) {
+			Cursor cursor = new Cursor(i, lists.get(i));
+			total += cursor.keys.length;
+			if (cursor.keys.length > 0) heap.add(cursor);
+		}
+		List<Event> merged = new ArrayList<>(total);
+		while (!heap.isEmpty()) {
+			Cursor cursor = heap.poll();
+			merged.add(cursor.events.get(cursor.next++));
+			if (cursor.next < cursor.keys.length) heap.add(cursor);
+		}
+		return merged;
+	}
+
+	/**
+	 * The starting time of an event as milliseconds from epoch on the wall
+	 * clock of its time zone, like the {@code LocalDateTime} it is printed as.
+	 */
+	static long startMillis(Event event) {
+		DateTime start = event.getStart().getDateTime();
+		if (start == null) start = event.getStart().getDate();
+		return start.getValue() + start.getTimeZoneShift() * 60000L;
+	}
 
-			wr2.write("</span><br>");
-			wr2.close();
+	/** A list sorted by starting time and its next event in the merge. */
+	private static class Cursor implements Comparable<Cursor> {
+		final int list;
+		final List<Event> events;
+		final long[] keys;
+		int next;
+
+		Cursor(int list, List<Event> events) {
+			this.list = list;
+			long[] keys = new long[events.size()];
+			boolean sorted = true;
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = startMillis(events.get(i));
+				if (i > 0 && keys[i] < keys[i - 1]) sorted = false;
+			}
+			/*
+			 * The server orders by absolute time, which differs from the wall
+			 * clock when the list crosses a daylight saving change.
+			 */
+			if (!sorted) {
+				events = new ArrayList<>(events);
+				Collections.sort(events, new Comparator<Event>() {
+					@Override
+					public int compare(Event e1, Event e2) {
+						return Long.compare(startMillis(e1), startMillis(e2));
+					}
+				});
+				for (int i = 0; i < keys.length; i++)
+					keys[i] = startMillis(events.get(i));
+			}
+			this.events = events;
+			this.keys = keys;
 		}
 
+		@Override
+		public int compareTo(Cursor other) {
+			int c = Long.compare(keys[next], other.keys[other.next]);
+			return c != 0 ? c : Integer.compare(list, other.list);
+		}
 	}
 
 	/**
@@ -285,7 +545,37 @@ public class ReadGcal {
 
 		// System.out.println(Calendar.getInstance().getTime());
 
-		getCalList(getCalendarService());
+		if (args.length == 3 && args[0].equals("-offline"))
+			writeCachedEvents(args[1], args[2], CALENDAR_IDS);
+		else if (args.length >= 3 && args[0].equals("-daemon")) {
+			// -daemon textFile htmlFile [calendarId[=minutes] ...]
+			List<String> ids = new ArrayList<>();
+			List<String> specs = args.length > 3
+					? Arrays.asList(args).subList(3, args.length)
+					: CALENDAR_IDS;
+			long[] minutes = new long[specs.size()];
+			for (String spec : specs) {
+				int eq = spec.lastIndexOf('=');
+				long m = DEFAULT_REFRESH_MINUTES;
+				if (eq >= 0) try {
+					m = Long.parseLong(spec.substring(eq + 1));
+				} catch (NumberFormatException e) {
+					m = 0;
+				}
+				// checked before anything is loaded or written
+				if (m <= 0) {
+					System.out.println("usage: google.ReadGcal -daemon "
+							+ "textFile htmlFile [calendarId[=minutes] ...]\n"
+							+ "minutes must be a positive whole number");
+					return;
+				}
+				minutes[ids.size()] = m;
+				ids.add(eq < 0 ? spec : spec.substring(0, eq));
+			}
+			startDaemon(args[1], args[2], ids, minutes);
+		}
+		else if (args.length == 2) writeGcalEvents(args[0], args[1]);
+		else getCalList(getCalendarService());
 
 	}
 }
@@ -0,0 +1,185 @@
+package stdio;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Reads a binary file and writes it as lines of 0 and 1, the reverse of
+ * {@link BinaryStringOut}.
+ * <p>
+ * The input is memory-mapped in chunks of whole output lines. Since every
+ * line but the last has the same length, the output offset of each chunk is
+ * known up front, so chunks are decoded in parallel on a fork-join pool and
+ * written with positional writes. Each byte is expanded to its 8 ASCII digits
+ * with one lookup in a 256 entry table.
+ * <p>
+ * Lines that are not a multiple of 8 bits start inside a byte, the reverse of
+ * {@link BinaryStringOut} packing lines continuously. Those files are read
+ * sequentially through a {@link BitInputStream}, a line at a time in fields
+ * of up to 64 bits.
+ */
+public class BinaryStringIn {
+
+  /** Input bytes per chunk, rounded down to whole lines. */
+  private static final int CHUNK = 1 << 20;
+  /** The 8 ASCII digits of each byte value as a big-endian long. */
+  private static final long[] DIGITS = new long[256];
+
+  static {
+    for (int v = 0; v < 256; v++) {
+      long digits = 0;
+      for (int bit = 7; bit >= 0; bit--)
+        digits = digits << 8 | ('0' + (v >>> bit & 1));
+      DIGITS[v] = digits;
+    }
+  }
+
+  private static final ThreadLocal<ByteBuffer> BUFFER =
+      new ThreadLocal<ByteBuffer>();
+
+  /**
+   * Decode {@code in} to lines of {@code bitsPerLine} digits each, the last
+   * line may be shorter. Every line ends with '\n'.
+   *
+   * @param bitsPerLine digits per line, positive
+   * @param parallelism number of threads decoding chunks, if
+   *          {@code bitsPerLine} is a multiple of 8
+   * @return number of bytes written
+   */
+  public static long decode(Path in, Path out, int bitsPerLine,
+      int parallelism) throws IOException {
+    if (bitsPerLine <= 0)
+      throw new IllegalArgumentException(
+          "bits per line is not positive: " + bitsPerLine);
+    try (FileChannel src = FileChannel.open(in, StandardOpenOption.READ);
+        FileChannel dst = FileChannel.open(out, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      long size = src.size();
+      if (bitsPerLine % 8 != 0) return decodeBits(src, dst, size, bitsPerLine);
+      int lineBytes = bitsPerLine / 8;
+      long lines = (size + lineBytes - 1) / lineBytes;
+      int chunkLines = Math.max(1, CHUNK / lineBytes);
+      long chunks = (lines + chunkLines - 1) / chunkLines;
+      if (chunks == 0) return 0;
+      if (chunks > Integer.MAX_VALUE)
+        throw new IOException("input too large: " + size);
+      Decoder root = new Decoder(src, dst, size, lineBytes, chunkLines, 0,
+          (int) chunks);
+      ForkJoinPool pool = new ForkJoinPool(parallelism);
+      try {
+        pool.invoke(root);
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      } finally {
+        pool.shutdown();
+      }
+      return size * 8 + lines;
+    }
+  }
+
+  /** Decode lines that start inside bytes, on the calling thread. */
+  private static long decodeBits(FileChannel src, FileChannel dst, long size,
+      int bitsPerLine) throws IOException {
+    BitInputStream bits = new BitInputStream(src);
+    ByteBuffer out = ByteBuffer.allocateDirect(CHUNK);
+    long left = size * 8;
+    for (int col = 0; left > 0;) {
+      int n = (int) Math.min(left, Math.min(64, bitsPerLine - col));
+      long v = bits.readBits(n);
+      if (out.remaining() < 65) {
+        out.flip();
+        while (out.hasRemaining()) dst.write(out);
+        out.clear();
+      }
+      int k = n;
+      for (; k >= 8; k -= 8) out.putLong(DIGITS[(int) (v >>> k - 8) & 0xff]);
+      for (; k > 0; k--) out.put((byte) ('0' + (v >>> k - 1 & 1)));
+      col += n;
+      left -= n;
+      if (col == bitsPerLine || left == 0) {
+        out.put((byte) '\n');
+        col = 0;
+      }
+    }
+    out.flip();
+    while (out.hasRemaining()) dst.write(out);
+    return size * 8 + (size * 8 + bitsPerLine - 1) / bitsPerLine;
+  }
+
+  private static class Decoder extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final FileChannel src, dst;
+    private final long size;
+    private final int lineBytes, chunkLines, lo, hi;
+
+    Decoder(FileChannel src, FileChannel dst, long size, int lineBytes,
+        int chunkLines, int lo, int hi) {
+      this.src = src;
+      this.dst = dst;
+      this.size = size;
+      this.lineBytes = lineBytes;
+      this.chunkLines = chunkLines;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override
+    protected void compute() {
+      if (hi - lo > 1) {
+        int mid = (lo + hi) >>> 1;
+        invokeAll(new Decoder(src, dst, size, lineBytes, chunkLines, lo, mid),
+            new Decoder(src, dst, size, lineBytes, chunkLines, mid, hi));
+        return;
+      }
+      try {
+        decodeChunk(lo);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    private void decodeChunk(int chunk) throws IOException {
+      long start = (long) chunk * chunkLines * lineBytes;
+      int n = (int) Math.min((long) chunkLines * lineBytes, size - start);
+      MappedByteBuffer in = src.map(FileChannel.MapMode.READ_ONLY, start, n);
+      int outSize = n * 8 + (n + lineBytes - 1) / lineBytes;
+      ByteBuffer out = BUFFER.get();
+      if (out == null || out.capacity() < outSize) {
+        out = ByteBuffer.allocateDirect(outSize);
+        BUFFER.set(out);
+      }
+      out.clear();
+      for (int i = 0, col = 0; i < n; i++) {
+        out.putLong(DIGITS[in.get(i) & 0xff]);
+        if (++col == lineBytes || i == n - 1) {
+          out.put((byte) '\n');
+          col = 0;
+        }
+      }
+      out.flip();
+      long pos = start * 8 + start / lineBytes;
+      while (out.hasRemaining()) pos += dst.write(out, pos);
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    final String USAGE =
+        "Usage:\n  java stdio.BinaryStringIn binaryFile textFile [bitsPerLine]";
+    if (args.length < 2 || args.length > 3) {
+      System.out.println(USAGE);
+      return;
+    }
+    int bitsPerLine = args.length == 3 ? Integer.parseInt(args[2]) : 64;
+    decode(Paths.get(args[0]), Paths.get(args[1]), bitsPerLine,
+        Runtime.getRuntime().availableProcessors());
+  }
+}
@@ -1,49 +1,299 @@
 package stdio;
 
-import java.io.BufferedReader;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Reads 0 and 1 from command line and write to file as binary data.
+ * <p>
+ * Given a text file instead, the file is memory-mapped and split into chunks
+ * at line boundaries. Every valid line is a multiple of 8 bits, so the output
+ * size of a chunk is its length without line breaks divided by 8. A parallel
+ * pass counts the line breaks of each chunk, which gives every chunk's output
+ * offset, then the chunks are encoded in parallel, each through the direct
+ * buffer of its thread, and written with positional writes.
+ * <p>
+ * Lines that are not a multiple of 8 bits abort by default, or can be padded
+ * to whole bytes or packed continuously with the next line.
  */
 public class BinaryStringOut {
 
-  private static void writeBits(String filename) {
-    try {
-      DataOutputStream out = new DataOutputStream(Files
-          .newOutputStream(Paths.get(filename), StandardOpenOption.CREATE));
-      BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
-      String sbuf;
-
-      while ((sbuf = in.readLine()) != null) {
-        if (sbuf.length() % 8 != 0) {
-          System.out.println("this line is not a multiple of 8 bits: " + sbuf);
-          System.exit(-1);
+  /** Target input bytes per chunk, extended to the end of a line. */
+  private static final int CHUNK = 8 << 20;
+
+  private static void writeBits(String filename,
+      BitStringEncoder.LinePolicy policy) {
+    try (FileChannel out = FileChannel.open(Paths.get(filename),
+        StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      new BitStringEncoder(policy, 1).encode(Channels.newChannel(System.in),
+          out);
+    } catch (BitStringEncoder.FormatException e) {
+      System.out.println(e.getMessage());
+      System.exit(-1);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Encode the lines of text file {@code in} to {@code out}, in parallel with
+   * {@link BitStringEncoder.LinePolicy#STRICT}. Other policies change the
+   * output size of a line, so they encode the file sequentially. If a line is
+   * not a multiple of 8 bits, the chunks after it are skipped and the output
+   * is truncated to the lines before it, as the sequential encoder leaves it.
+   *
+   * @param policy what to do with lines that are not a multiple of 8 bits
+   * @param parallelism number of threads encoding chunks
+   * @return number of bytes written
+   * @throws BitStringEncoder.FormatException for a line that is not a
+   *           multiple of 8 bits
+   */
+  static long encodeFile(Path in, Path out,
+      BitStringEncoder.LinePolicy policy, int parallelism) throws IOException {
+    try (FileChannel src = FileChannel.open(in, StandardOpenOption.READ);
+        FileChannel dst = FileChannel.open(out, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      if (policy != BitStringEncoder.LinePolicy.STRICT)
+        return new BitStringEncoder(policy, 1).encode(src, dst);
+      Chunks chunks = Chunks.split(src);
+      ForkJoinPool pool = new ForkJoinPool(parallelism);
+      try {
+        pool.invoke(new Encoder(chunks, src, dst, true, 0, chunks.size()));
+        int failed = chunks.failed.get();
+        if (failed < chunks.size()) throw chunks.errors[failed];
+        chunks.prefixSums();
+        pool.invoke(new Encoder(chunks, src, dst, false, 0, chunks.size()));
+        failed = chunks.failed.get();
+        if (failed < chunks.size()) {
+          dst.truncate(chunks.outStart[failed] + chunks.written[failed]);
+          throw chunks.errors[failed];
         }
-        char[] cbuf = sbuf.toCharArray();
-        byte[] bbuf = new byte[cbuf.length / 8];
-        for (int i = 0; i < cbuf.length; i++) {
-          bbuf[i / 8] <<= 1;
-          if (cbuf[i] == '1') bbuf[i / 8] += 1;
+      } finally {
+        pool.shutdown();
+      }
+      return chunks.outStart[chunks.size()];
+    }
+  }
+
+  /** Chunk boundaries and the per chunk counts of the prefix pass. */
+  private static class Chunks {
+    final long[] start;
+    /** Line break bytes, then output offset after {@link #prefixSums()}. */
+    final long[] outStart;
+    /** Line feeds, then first line number after {@link #prefixSums()}. */
+    final long[] firstLine;
+    /** Bytes each chunk wrote, up to the bad line if it failed. */
+    final long[] written;
+    final IOException[] errors;
+    /** The first chunk that failed, {@link #size()} if none. */
+    final AtomicInteger failed;
+
+    private Chunks(long[] start) {
+      this.start = start;
+      outStart = new long[start.length];
+      firstLine = new long[start.length];
+      written = new long[start.length];
+      errors = new IOException[start.length];
+      failed = new AtomicInteger(size());
+    }
+
+    int size() {
+      return start.length - 1;
+    }
+
+    static Chunks split(FileChannel src) throws IOException {
+      long size = src.size();
+      int n = (int) Math.max(1, (size + CHUNK - 1) / CHUNK);
+      long[] start = new long[n + 1];
+      int k = 1;
+      for (int i = 1; i < n; i++) {
+        long next = nextLine(src, Math.max(start[k - 1], (long) i * CHUNK));
+        if (next > start[k - 1] && next < size) start[k++] = next;
+      }
+      start[k] = size;
+      long[] trimmed = new long[k + 1];
+      System.arraycopy(start, 0, trimmed, 0, k + 1);
+      return new Chunks(trimmed);
+    }
+
+    /** @return the position after the first '\n' at or after pos */
+    private static long nextLine(FileChannel src, long pos)
+        throws IOException {
+      ByteBuffer buf = ByteBuffer.allocate(8192);
+      while (true) {
+        buf.clear();
+        int n = src.read(buf, pos);
+        if (n < 0) return src.size();
+        for (int i = 0; i < n; i++)
+          if (buf.get(i) == '\n') return pos + i + 1;
+        pos += n;
+      }
+    }
+
+    /** Record the error of chunk {@code i}, the chunks after it stop. */
+    void fail(int i, IOException e) {
+      errors[i] = e;
+      while (true) {
+        int f = failed.get();
+        if (i >= f || failed.compareAndSet(f, i)) return;
+      }
+    }
+
+    void prefixSums() {
+      long out = 0, line = 1;
+      for (int i = 0; i <= size(); i++) {
+        long breaks = outStart[i], lines = firstLine[i];
+        outStart[i] = out;
+        firstLine[i] = line;
+        if (i < size()) {
+          out += (start[i + 1] - start[i] - breaks) / 8;
+          line += lines;
         }
-        out.write(bbuf);
       }
-    } catch (IOException e) {
-      e.printStackTrace();
+    }
+  }
+
+  private static class Encoder extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    /** Output buffer of each thread, the output of a chunk of CHUNK bytes. */
+    private static final ThreadLocal<ByteBuffer> BUFFER =
+        new ThreadLocal<ByteBuffer>() {
+          @Override
+          protected ByteBuffer initialValue() {
+            return ByteBuffer.allocateDirect(CHUNK / 8);
+          }
+        };
+
+    private final Chunks chunks;
+    private final FileChannel src, dst;
+    private final boolean count;
+    private final int lo, hi;
+
+    /** @param count whether to run the counting pass or the encoding pass */
+    Encoder(Chunks chunks, FileChannel src, FileChannel dst, boolean count,
+        int lo, int hi) {
+      this.chunks = chunks;
+      this.src = src;
+      this.dst = dst;
+      this.count = count;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override
+    protected void compute() {
+      if (hi - lo > 1) {
+        int mid = (lo + hi) >>> 1;
+        invokeAll(new Encoder(chunks, src, dst, count, lo, mid),
+            new Encoder(chunks, src, dst, count, mid, hi));
+        return;
+      }
+      // skip the chunks after one that failed, their output is cut off
+      if (lo == hi || lo > chunks.failed.get()) return;
+      try {
+        MappedByteBuffer in = src.map(FileChannel.MapMode.READ_ONLY,
+            chunks.start[lo], chunks.start[lo + 1] - chunks.start[lo]);
+        if (count) countBreaks(in);
+        else encode(in);
+      } catch (IOException e) {
+        chunks.fail(lo, e);
+      }
+    }
+
+    private void countBreaks(MappedByteBuffer in) {
+      long breaks = 0, lines = 0;
+      for (int i = 0, n = in.limit(); i < n; i++) {
+        byte c = in.get(i);
+        if (c == '\n') {
+          breaks++;
+          lines++;
+        } else if (c == '\r') breaks++;
+      }
+      chunks.outStart[lo] = breaks;
+      chunks.firstLine[lo] = lines;
+    }
+
+    private void encode(MappedByteBuffer in) throws IOException {
+      BitOutputStream out = new BitOutputStream(
+          new PositionalChannel(dst, chunks.outStart[lo]), BUFFER.get());
+      try {
+        new BitStringEncoder(BitStringEncoder.LinePolicy.STRICT,
+            chunks.firstLine[lo]).pack(in, out, true);
+      } finally {
+        out.flush();
+        chunks.written[lo] = out.bytesWritten();
+      }
+    }
+  }
+
+  /** Writes to a file channel from a given position on. */
+  private static class PositionalChannel implements WritableByteChannel {
+    private final FileChannel file;
+    private long pos;
+
+    PositionalChannel(FileChannel file, long pos) {
+      this.file = file;
+      this.pos = pos;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+      int n = file.write(src, pos);
+      pos += n;
+      return n;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return file.isOpen();
+    }
+
+    @Override
+    public void close() {
     }
   }
 
   public static void main(String[] args) {
-    final String USAGE = "Usage:\n  java BinaryOut filename";
+    final String USAGE = "Usage:\n"
+        + "  java BinaryOut [-pad|-continuous] filename\n"
+        + "  java BinaryOut [-pad|-continuous] textFile filename\n"
+        + "lines that are not a multiple of 8 bits are rejected, unless -pad\n"
+        + "pads each with 0 bits or -continuous packs them together";
 
-    if (args.length != 1) System.out.println(USAGE);
+    BitStringEncoder.LinePolicy policy = BitStringEncoder.LinePolicy.STRICT;
+    if (args.length > 0 && args[0].equals("-pad")) {
+      policy = BitStringEncoder.LinePolicy.PAD;
+      args = Arrays.copyOfRange(args, 1, args.length);
+    } else if (args.length > 0 && args[0].equals("-continuous")) {
+      policy = BitStringEncoder.LinePolicy.CONTINUOUS;
+      args = Arrays.copyOfRange(args, 1, args.length);
+    }
 
-    writeBits(args[0]);
+    if (args.length == 1) writeBits(args[0], policy);
+    else if (args.length == 2) {
+      try {
+        encodeFile(Paths.get(args[0]), Paths.get(args[1]), policy,
+            Runtime.getRuntime().availableProcessors());
+      } catch (BitStringEncoder.FormatException e) {
+        System.out.println(e.getMessage());
+        System.exit(-1);
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    } else System.out.println(USAGE);
 
   }
 }
@@ -0,0 +1,92 @@
+package stdio;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads fields of 1 to 64 bits, most significant bit first, the counterpart
+ * of {@link BitOutputStream}. The channel is read in large blocks into a byte
+ * array and bits are taken from a 64-bit accumulator.
+ */
+public class BitInputStream implements Closeable {
+
+  private static final int BUFFER = 1 << 16;
+
+  private final ReadableByteChannel in;
+  private final byte[] buf;
+  private final ByteBuffer wrapped;
+  private int pos, limit;
+  private boolean eof;
+  /** Unread bits, right aligned. */
+  private long acc;
+  private int nacc;
+
+  public BitInputStream(ReadableByteChannel in) {
+    this.in = in;
+    buf = new byte[BUFFER];
+    wrapped = ByteBuffer.wrap(buf);
+  }
+
+  public BitInputStream(InputStream in) {
+    this(Channels.newChannel(in));
+  }
+
+  /**
+   * Read a field of {@code n} bits.
+   *
+   * @param n number of bits, 1 to 64
+   * @return the bits, right aligned
+   * @throws EOFException if fewer than {@code n} bits are left
+   */
+  public long readBits(int n) throws IOException {
+    if (n < 1 || n > 64)
+      throw new IllegalArgumentException("bits not in [1, 64]: " + n);
+    if (n > 56) {
+      long high = readBits(n - 32);
+      return high << 32 | readBits(32);
+    }
+    while (nacc < n) {
+      if (pos == limit && !fill())
+        throw new EOFException("need " + n + " bits, " + nacc + " left");
+      acc = acc << 8 | buf[pos++] & 0xff;
+      nacc += 8;
+    }
+    nacc -= n;
+    return acc >>> nacc & -1L >>> 64 - n;
+  }
+
+  /** @return the next bit, or -1 at the end of the input */
+  public int readBit() throws IOException {
+    if (nacc == 0 && pos == limit && !fill()) return -1;
+    return (int) readBits(1);
+  }
+
+  /** Skip the unread bits of the current byte. */
+  public void align() {
+    nacc -= nacc % 8;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+  private boolean fill() throws IOException {
+    while (!eof) {
+      wrapped.clear();
+      int n = in.read(wrapped);
+      if (n < 0) eof = true;
+      else if (n > 0) {
+        pos = 0;
+        limit = n;
+        return true;
+      }
+    }
+    return false;
+  }
+}
@@ -0,0 +1,201 @@
+package stdio;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes fields of 1 to 64 bits, most significant bit first. Bits are
+ * collected in a 64-bit accumulator, whole bytes go to a large direct buffer
+ * and the buffer is written to the underlying channel in one bulk write when
+ * full or flushed.
+ * <p>
+ * After {@link #mark()}, the bytes written since the mark stay in the buffer,
+ * which grows if needed, until the next mark or a flush, so that
+ * {@link #reset()} can discard them.
+ */
+public class BitOutputStream implements Closeable, Flushable {
+
+  /** What to do with the last byte if it is only partly written. */
+  public enum Padding {
+    /** Fill the remaining low bits with 0. */
+    ZEROS,
+    /** Fill the remaining low bits with 1. */
+    ONES,
+    /** Throw an {@link IOException}. */
+    REJECT
+  }
+
+  private static final int BUFFER = 1 << 16;
+
+  private final WritableByteChannel out;
+  private ByteBuffer buf;
+  private int pos;
+  /** Start of the bytes {@link #reset()} discards, -1 if not marked. */
+  private int mark = -1;
+  /** Pending bits, right aligned, fewer than 8 between calls. */
+  private long acc;
+  private int nacc;
+  private long flushed;
+
+  public BitOutputStream(WritableByteChannel out) {
+    this(out, BUFFER);
+  }
+
+  public BitOutputStream(WritableByteChannel out, int bufferSize) {
+    this(out, ByteBuffer.allocateDirect(bufferSize));
+  }
+
+  /**
+   * Collect the bytes in {@code buffer}, for example one kept per thread.
+   * Its contents, position and limit are overwritten.
+   */
+  public BitOutputStream(WritableByteChannel out, ByteBuffer buffer) {
+    this.out = out;
+    buf = buffer;
+    buf.clear();
+  }
+
+  public BitOutputStream(OutputStream out) {
+    this(Channels.newChannel(out));
+  }
+
+  /**
+   * Write the low {@code n} bits of {@code value}, most significant first.
+   *
+   * @param n number of bits, 1 to 64
+   */
+  public void writeBits(long value, int n) throws IOException {
+    if (n < 1 || n > 64) throw badLength(n);
+    if (n > 56) {
+      writeBits(value >>> 32, n - 32);
+      n = 32;
+    }
+    acc = acc << n | value & -1L >>> 64 - n;
+    nacc += n;
+    while (nacc >= 8) {
+      if (pos == buf.capacity()) drain();
+      nacc -= 8;
+      buf.put(pos++, (byte) (acc >>> nacc));
+    }
+  }
+
+  /** Write the low 8 bits of {@code b}, without shifting if aligned. */
+  public void writeByte(int b) throws IOException {
+    if (nacc != 0 || pos == buf.capacity()) writeBits(b, 8);
+    else buf.put(pos++, (byte) b);
+  }
+
+  /** Write the 32 bits of {@code v}, without shifting if aligned. */
+  public void writeInt(int v) throws IOException {
+    if (nacc != 0 || buf.capacity() - pos < 4) writeBits(v, 32);
+    else {
+      buf.putInt(pos, v);
+      pos += 4;
+    }
+  }
+
+  public void writeBit(boolean bit) throws IOException {
+    writeBits(bit ? 1 : 0, 1);
+  }
+
+  /** @return whether the bits written so far fill whole bytes */
+  public boolean isAligned() {
+    return nacc == 0;
+  }
+
+  /** Pad the bits written so far to a whole byte. */
+  public void align(Padding padding) throws IOException {
+    if (nacc == 0) return;
+    if (padding == Padding.REJECT)
+      throw new IOException("last byte has only " + nacc + " bits");
+    int n = 8 - nacc;
+    writeBits(padding == Padding.ONES ? (1 << n) - 1 : 0, n);
+  }
+
+  /**
+   * Mark the current position, so the bytes written after it can be
+   * discarded with {@link #reset()}.
+   *
+   * @throws IllegalStateException if the bits written so far do not fill
+   *           whole bytes
+   */
+  public void mark() {
+    if (nacc != 0)
+      throw new IllegalStateException("mark inside a byte, " + nacc + " bits");
+    mark = pos;
+  }
+
+  /**
+   * Discard the bits written since the last mark, and the mark.
+   *
+   * @throws IllegalStateException if there is no mark, or it was flushed
+   */
+  public void reset() {
+    if (mark < 0) throw new IllegalStateException("no mark");
+    pos = mark;
+    acc = 0;
+    nacc = 0;
+    mark = -1;
+  }
+
+  /** @return number of whole bytes written, including buffered ones */
+  public long bytesWritten() {
+    return flushed + pos;
+  }
+
+  /**
+   * Write the buffered whole bytes and drop the mark, a partial byte stays
+   * pending.
+   */
+  @Override
+  public void flush() throws IOException {
+    mark = -1;
+    drain();
+  }
+
+  /** Pad with {@link Padding#ZEROS}, flush and close the channel. */
+  @Override
+  public void close() throws IOException {
+    close(Padding.ZEROS);
+  }
+
+  public void close(Padding padding) throws IOException {
+    try {
+      align(padding);
+      flush();
+    } finally {
+      out.close();
+    }
+  }
+
+  private static IllegalArgumentException badLength(int n) {
+    return new IllegalArgumentException("bits not in [1, 64]: " + n);
+  }
+
+  /** Make room in the buffer, keeping the bytes after the mark. */
+  private void drain() throws IOException {
+    int n = mark < 0 ? pos : mark;
+    buf.clear().limit(n);
+    while (buf.hasRemaining()) out.write(buf);
+    flushed += n;
+    if (mark < 0) {
+      buf.clear();
+      pos = 0;
+      return;
+    }
+    buf.limit(pos).position(mark);
+    if (mark == 0 && pos == buf.capacity()) {
+      // nothing before the mark to write, keep all of it
+      ByteBuffer larger = ByteBuffer.allocateDirect(buf.capacity() * 2);
+      larger.put(buf);
+      buf = larger;
+    } else buf.compact();
+    pos -= mark;
+    mark = 0;
+  }
+}
@@ -0,0 +1,161 @@
+package stdio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Encodes lines of ASCII '0' and '1' into binary data, 8 characters per byte
+ * with the first character as the most significant bit, written through a
+ * {@link BitOutputStream}. Line breaks are dropped. What happens to a line
+ * that is not a multiple of 8 bits is set by a {@link LinePolicy}.
+ * <p>
+ * Input is read in large blocks into a reusable direct buffer. Eight digits
+ * are read as one big-endian {@code long}, checked with a single mask and
+ * packed into a byte with one multiplication. Runs of 32 digits are checked
+ * together from four longs and stored as one {@code int}, which is the
+ * common case for long lines. Groups that are not all '0' and '1' take a byte
+ * by byte path, which like the original {@code readLine()} loop counts any
+ * character other than '1' as a 0 bit.
+ * <p>
+ * With {@link LinePolicy#STRICT}, the output is marked at the start of every
+ * line, and a line found to be short is discarded back to its mark, so none
+ * of its bytes are written.
+ */
+class BitStringEncoder {
+
+  /** What to do with a line that is not a multiple of 8 bits. */
+  enum LinePolicy {
+    /** Reject it with a {@link FormatException}. */
+    STRICT,
+    /** Pad the line's last byte with 0 bits. */
+    PAD,
+    /** Continue packing with the bits of the next line. */
+    CONTINUOUS
+  }
+
+  /** Thrown when a line is not a multiple of 8 bits. */
+  static class FormatException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    FormatException(String message) {
+      super(message);
+    }
+  }
+
+  private static final int BUFFER = 1 << 20;
+  /** The high 7 bits of each byte of 8 ASCII digits. */
+  private static final long DIGIT_MASK = 0xfefefefefefefefeL;
+  private static final long ZEROS = 0x3030303030303030L;
+  private static final long LOW_BITS = 0x0101010101010101L;
+  /** Moves bit 0 of byte i to bit 63 - i. */
+  private static final long GATHER = 0x0102040810204080L;
+
+  private final LinePolicy policy;
+  private long line;
+  /** Whether digits of the current line were packed. */
+  private boolean inLine;
+
+  BitStringEncoder() {
+    this(LinePolicy.STRICT, 1);
+  }
+
+  /** @param firstLine number of the first input line in error messages */
+  BitStringEncoder(LinePolicy policy, long firstLine) {
+    this.policy = policy;
+    line = firstLine;
+  }
+
+  /**
+   * Encode everything from {@code in} to {@code out}. With
+   * {@link LinePolicy#CONTINUOUS}, the last byte is padded with 0 bits.
+   *
+   * @return number of bytes written
+   * @throws FormatException if a line is not a multiple of 8 bits with
+   *           {@link LinePolicy#STRICT}, after writing the bytes of the lines
+   *           before it
+   */
+  long encode(ReadableByteChannel in, WritableByteChannel out)
+      throws IOException {
+    ByteBuffer src = ByteBuffer.allocateDirect(BUFFER);
+    BitOutputStream bits = new BitOutputStream(out, BUFFER / 8);
+    boolean eof = false;
+    try {
+      while (!eof) {
+        if (in.read(src) < 0) eof = true;
+        src.flip();
+        pack(src, bits, eof);
+        src.compact();
+      }
+      bits.align(BitOutputStream.Padding.ZEROS);
+    } finally {
+      bits.flush();
+    }
+    return bits.bytesWritten();
+  }
+
+  /** @return the byte of 8 ASCII digits read as a big-endian long */
+  private static long gather(long w) {
+    return ((w & LOW_BITS) * GATHER) >>> 56;
+  }
+
+  /**
+   * Pack the digits of {@code src} into {@code out}. Stops before a trailing
+   * group that may continue in the next block unless {@code eof}.
+   */
+  void pack(ByteBuffer src, BitOutputStream out, boolean eof)
+      throws IOException {
+    int p = src.position(), lim = src.limit();
+    boolean strict = policy == LinePolicy.STRICT;
+    if (strict && !inLine) out.mark();
+    while (true) {
+      // 32 digits per step: one combined check, four gathers, one write
+      while (lim - p >= 32) {
+        long w0 = src.getLong(p), w1 = src.getLong(p + 8);
+        long w2 = src.getLong(p + 16), w3 = src.getLong(p + 24);
+        if ((((w0 ^ ZEROS) | (w1 ^ ZEROS) | (w2 ^ ZEROS) | (w3 ^ ZEROS))
+            & DIGIT_MASK) != 0)
+          break;
+        out.writeInt((int) (gather(w0) << 24 | gather(w1) << 16
+            | gather(w2) << 8 | gather(w3)));
+        p += 32;
+      }
+      if (lim - p >= 8) {
+        long w = src.getLong(p);
+        if ((w & DIGIT_MASK) == ZEROS) {
+          out.writeByte((int) gather(w));
+          p += 8;
+          continue;
+        }
+      }
+      if (p == lim) break;
+      byte c = src.get(p);
+      if (c == '\n' || c == '\r') {
+        if (c == '\n') line++;
+        if (policy == LinePolicy.PAD) out.align(BitOutputStream.Padding.ZEROS);
+        else if (strict) out.mark();
+        p++;
+        continue;
+      }
+      int q = p, bits = 0, n = 0;
+      for (; q < lim && n < 8; q++, n++) {
+        c = src.get(q);
+        if (c == '\n' || c == '\r') break;
+        bits = bits << 1 | (c == '1' ? 1 : 0);
+      }
+      if (n < 8 && q == lim && !eof) break;
+      if (n < 8 && strict) {
+        out.reset();
+        src.position(p);
+        throw new FormatException(
+            "line " + line + " is not a multiple of 8 bits");
+      }
+      out.writeBits(bits, n);
+      p = q;
+    }
+    if (p > src.position()) inLine = src.get(p - 1) != '\n'
+        && src.get(p - 1) != '\r';
+    src.position(p);
+  }
+}
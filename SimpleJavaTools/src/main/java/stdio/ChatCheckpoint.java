@@ -0,0 +1,327 @@
+package stdio;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The state of processing an append-only chat history up to a byte offset:
+ * the scanner state at the offset (the date of the last date line, whether
+ * the next line is a user line and the last sender), every message before
+ * it as a (user, offset, length) slice of the history, and how much of the
+ * output the messages before the offset fill. Since the history only grows,
+ * the slices stay valid and the next run only scans the new bytes.
+ * <p>
+ * The file starts with a header of fixed size, followed by records that are
+ * only ever appended: a new username, or a message. Saving appends the
+ * records added since loading and then rewrites the header, so a run that
+ * stops half way leaves the records of the header intact.
+ * <p>
+ * To notice a history that was replaced rather than appended to, the
+ * checkpoint also keeps a hash of the bytes just before the offset, and to
+ * notice an output that was changed by someone else, its size.
+ */
+class ChatCheckpoint implements ChatScanner.Handler {
+
+  private static final int MAGIC = 0x57434350;
+  private static final int VERSION = 2;
+  /** Bytes of the header, see {@link #header}. */
+  private static final int HEADER = 69;
+  /** Bytes before the offset that must be unchanged. */
+  private static final int TAIL = 256;
+  private static final int BUFFER = 1 << 16;
+
+  private long offset;
+  private int tailHash;
+  private int date;
+  private boolean isUserLine;
+  private String user;
+  /** The history size when the output was last written. */
+  private long historySize;
+  /** The output bytes up to the last message before the offset. */
+  private long flatEnd;
+  /** The output size when it was last written, -1 while it is written. */
+  private long outputSize = -1;
+
+  private final List<String> users = new ArrayList<>();
+  private final Map<String, Integer> ids = new HashMap<>();
+  private int[] msgUsers = new int[1024];
+  private long[] slices = new long[1024];
+  private int size;
+  /** Also receives the messages found by {@link #update}, may be null. */
+  private ChatScanner.Handler listener;
+
+  /** Whether this was read from a file, which then ends at recordsEnd. */
+  private boolean loaded;
+  private long recordsEnd = HEADER;
+  private int savedUsers;
+  private int savedSize;
+
+  private ChatCheckpoint() {
+  }
+
+  /** @return a checkpoint at the start of the history */
+  static ChatCheckpoint empty(ByteBuffer history) {
+    ChatCheckpoint checkpoint = new ChatCheckpoint();
+    ChatScanner start = new ChatScanner(history);
+    checkpoint.isUserLine = start.isUserLine();
+    checkpoint.user = start.user();
+    return checkpoint;
+  }
+
+  /**
+   * @return the checkpoint saved in {@code file}, or an empty one if there is
+   *         none, it does not belong to the start of {@code history} or
+   *         {@code output} is not the one it was saved with
+   */
+  static ChatCheckpoint load(Path file, ByteBuffer history, Path output)
+      throws IOException {
+    try (DataInputStream in = new DataInputStream(
+        new BufferedInputStream(Files.newInputStream(file), BUFFER))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION)
+        return empty(history);
+      ChatCheckpoint c = new ChatCheckpoint();
+      c.offset = in.readLong();
+      c.tailHash = in.readInt();
+      c.date = in.readInt();
+      c.isUserLine = in.readBoolean();
+      int user = in.readInt();
+      c.historySize = in.readLong();
+      c.flatEnd = in.readLong();
+      c.outputSize = in.readLong();
+      int users = in.readInt();
+      int size = in.readInt();
+      c.recordsEnd = in.readLong();
+      if (c.offset > history.limit()
+          || tailHash(history, c.offset) != c.tailHash
+          || c.outputSize < 0 || !Files.exists(output)
+          || Files.size(output) != c.outputSize)
+        return empty(history);
+      c.msgUsers = new int[Math.max(1024, size)];
+      c.slices = new long[c.msgUsers.length];
+      while (c.users.size() < users || c.size < size) {
+        int id = in.readInt();
+        if (id < 0) c.addUser(in.readUTF());
+        else {
+          c.msgUsers[c.size] = id;
+          c.slices[c.size++] = in.readLong();
+        }
+      }
+      c.user = c.users.get(user);
+      c.loaded = true;
+      c.savedUsers = users;
+      c.savedSize = size;
+      return c;
+    } catch (NoSuchFileException e) {
+      return empty(history);
+    }
+  }
+
+  /**
+   * Mark the output as being written, so that the checkpoint in
+   * {@code file} is not used with an output left half written.
+   */
+  void invalidate(Path file) throws IOException {
+    outputSize = -1;
+    if (!loaded) {
+      Files.deleteIfExists(file);
+      return;
+    }
+    try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+      writeHeader(ch);
+    }
+  }
+
+  /**
+   * Save the checkpoint to {@code file}: append to the one it was loaded
+   * from, or write a new one to a temporary file and move it there.
+   */
+  void save(Path file) throws IOException {
+    Integer id = ids.get(user);
+    if (id == null) addUser(user);
+    if (loaded) {
+      try (FileChannel ch = FileChannel.open(file,
+          StandardOpenOption.WRITE)) {
+        append(ch);
+      }
+      return;
+    }
+    Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(),
+        file.getFileName().toString(), ".tmp");
+    try {
+      try (FileChannel ch = FileChannel.open(tmp,
+          StandardOpenOption.WRITE)) {
+        append(ch);
+      }
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      loaded = true;
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  /** Append the records added since the last save, then the header. */
+  private void append(FileChannel ch) throws IOException {
+    ch.position(recordsEnd);
+    DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(Channels.newOutputStream(ch), BUFFER));
+    for (int i = savedUsers; i < users.size(); i++) {
+      out.writeInt(-1);
+      out.writeUTF(users.get(i));
+    }
+    for (int i = savedSize; i < size; i++) {
+      out.writeInt(msgUsers[i]);
+      out.writeLong(slices[i]);
+    }
+    out.flush();
+    recordsEnd += out.size();
+    savedUsers = users.size();
+    savedSize = size;
+    writeHeader(ch);
+  }
+
+  private void writeHeader(FileChannel ch) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(HEADER);
+    header.putInt(MAGIC).putInt(VERSION).putLong(offset).putInt(tailHash)
+        .putInt(date).put((byte) (isUserLine ? 1 : 0))
+        .putInt(ids.get(user)).putLong(historySize).putLong(flatEnd)
+        .putLong(outputSize).putInt(savedUsers).putInt(savedSize)
+        .putLong(recordsEnd);
+    header.flip();
+    for (long p = 0; header.hasRemaining();)
+      p += ch.write(header, p);
+  }
+
+  /** @return the number of history bytes processed */
+  long offset() {
+    return offset;
+  }
+
+  private static int tailHash(ByteBuffer history, long offset) {
+    int h = 0;
+    for (int p = (int) Math.max(0, offset - TAIL); p < offset; p++)
+      h = 31 * h + history.get(p);
+    return h;
+  }
+
+  /**
+   * @return whether {@code history} has not changed since the output was
+   *         last written with this checkpoint
+   */
+  boolean isCurrent(ByteBuffer history) {
+    return loaded && historySize == history.limit();
+  }
+
+  /** @return the number of messages before the checkpoint */
+  int size() {
+    return size;
+  }
+
+  /** @return the output bytes up to the last message before the offset */
+  long flatEnd() {
+    return flatEnd;
+  }
+
+  /**
+   * Record the output written for {@code history}.
+   *
+   * @param flatEnd the output bytes up to the last message before the offset
+   * @param outputSize the size of the whole output
+   */
+  void written(ByteBuffer history, long flatEnd, long outputSize) {
+    historySize = history.limit();
+    this.flatEnd = flatEnd;
+    this.outputSize = outputSize;
+  }
+
+  /**
+   * Scan the complete lines after the checkpoint. A last line without a line
+   * break may still be being written, it is left for {@link #scanTail} and
+   * scanned again by the next update.
+   *
+   * @param listener also receives the new messages, or null
+   * @return number of new messages
+   */
+  int update(ByteBuffer history, ChatScanner.Handler listener)
+      throws IOException {
+    int end = history.limit();
+    while (end > offset && history.get(end - 1) != '\n'
+        && history.get(end - 1) != '\r')
+      end--;
+    if (end <= offset) return 0;
+    int before = size;
+    this.listener = listener;
+    try {
+      ChatScanner scanner = new ChatScanner(history, isUserLine, user);
+      scanner.scan((int) offset, end, this);
+      isUserLine = scanner.isUserLine();
+      user = scanner.user();
+    } finally {
+      this.listener = null;
+    }
+    offset = end;
+    tailHash = tailHash(history, offset);
+    return size - before;
+  }
+
+  /**
+   * Report the message on the last line of {@code history} if it has no line
+   * break, as a scan to the end would, without adding it to the checkpoint.
+   */
+  void scanTail(ByteBuffer history, ChatScanner.Handler handler)
+      throws IOException {
+    if (offset < history.limit())
+      new ChatScanner(history, isUserLine, user).scan((int) offset,
+          history.limit(), handler);
+  }
+
+  /** Report the messages before the checkpoint from index {@code from}. */
+  void replay(int from, ChatScanner.Handler handler) throws IOException {
+    for (int i = from; i < size; i++)
+      handler.message(users.get(msgUsers[i]), (int) (slices[i] >>> 32),
+          (int) slices[i]);
+  }
+
+  @Override
+  public void date(int date) throws IOException {
+    this.date = date;
+    if (listener != null) listener.date(date);
+  }
+
+  @Override
+  public void message(String user, int offset, int length)
+      throws IOException {
+    Integer id = ids.get(user);
+    if (id == null) id = addUser(user);
+    if (size == slices.length) {
+      msgUsers = Arrays.copyOf(msgUsers, size * 2);
+      slices = Arrays.copyOf(slices, size * 2);
+    }
+    msgUsers[size] = id;
+    slices[size++] = (long) offset << 32 | length;
+    if (listener != null) listener.message(user, offset, length);
+  }
+
+  private int addUser(String name) {
+    int id = users.size();
+    users.add(name);
+    ids.put(name, id);
+    return id;
+  }
+}
@@ -0,0 +1,395 @@
+package stdio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A parsed chat history stored by column, so that a job which only needs the
+ * senders or the times reads a few bytes per message and never touches the
+ * text.
+ * <p>
+ * Rows are messages in history order. The user column holds varint ids into
+ * a dictionary of names. The time column holds the minutes since 1970-01-01
+ * of each message, from the last date line and the time on its user line, or
+ * -1 if either is missing, as zigzag varint differences to the previous row.
+ * The message column holds each UTF-8 message after its varint length. Every
+ * column is cut into blocks of {@link #BLOCK_ROWS} rows and differences start
+ * over from 0 at each block, so a scan can start at any block through the
+ * block index.
+ * <p>
+ * The file is big-endian:
+ *
+ * <pre>
+ * int magic, int version
+ * int users, int rows, int rows per block
+ * users x UTF
+ * blocks x int user block offset
+ * blocks x int time block offset
+ * blocks x int message block offset
+ * user column, time column, message column
+ * </pre>
+ */
+public class ChatColumns {
+
+  private static final int MAGIC = 0x57434343;
+  private static final int VERSION = 1;
+  static final int BLOCK_ROWS = 4096;
+  private static final int USER = 0, TIME = 1, MESSAGE = 2;
+
+  /** Receives the rows of a user or time column. */
+  public interface Visitor {
+    void visit(int row, long value);
+  }
+
+  /** Receives the rows of the message column as slices of the file. */
+  public interface MessageVisitor {
+    void visit(int row, ByteBuffer file, int offset, int length);
+  }
+
+  private final ByteBuffer file;
+  private final String[] users;
+  private final int rows;
+  private final int indexStart;
+
+  private ChatColumns(ByteBuffer file, String[] users, int rows,
+      int indexStart) {
+    this.file = file;
+    this.users = users;
+    this.rows = rows;
+    this.indexStart = indexStart;
+  }
+
+  /**
+   * Write the messages of {@code history} to {@code columnsFile}.
+   *
+   * @param parallelism number of threads scanning the history
+   */
+  static void write(ByteBuffer history, Path columnsFile, int parallelism)
+      throws IOException {
+    Builder builder = new Builder();
+    if (parallelism > 1)
+      ParallelChatScanner.scan(history, parallelism, builder);
+    else new ChatScanner(history).scan(0, history.limit(), builder);
+    builder.write(history, columnsFile);
+  }
+
+  /** Map a file written by {@link #write}. */
+  public static ChatColumns open(Path columnsFile) throws IOException {
+    ByteBuffer file;
+    try (FileChannel in = FileChannel.open(columnsFile,
+        StandardOpenOption.READ)) {
+      if (in.size() > Integer.MAX_VALUE)
+        throw new IOException("file too large to map: " + in.size());
+      file = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+    }
+    if (file.getInt() != MAGIC || file.getInt() != VERSION)
+      throw new IOException("not a chat columns file: " + columnsFile);
+    String[] users = new String[file.getInt()];
+    int rows = file.getInt();
+    if (file.getInt() != BLOCK_ROWS)
+      throw new IOException("unsupported block size: " + columnsFile);
+    for (int i = 0; i < users.length; i++) {
+      byte[] bytes = new byte[file.getShort() & 0xffff];
+      file.get(bytes);
+      users[i] = new String(bytes, StandardCharsets.UTF_8);
+    }
+    return new ChatColumns(file, users, rows, file.position());
+  }
+
+  /** @return number of messages */
+  public int size() {
+    return rows;
+  }
+
+  /** @return number of distinct senders */
+  public int userCount() {
+    return users.length;
+  }
+
+  /** @return the name of a sender id from the user column */
+  public String user(int id) {
+    return users[id];
+  }
+
+  /** Visit the sender ids of the rows in [from, to). */
+  public void scanUsers(int from, int to, Visitor visitor) {
+    int p = seek(USER, from, to);
+    for (int row = from - from % BLOCK_ROWS; row < to; row++) {
+      long id = readVarint(p);
+      p += varintLength(id);
+      if (row >= from) visitor.visit(row, id);
+    }
+  }
+
+  /**
+   * Visit the times of the rows in [from, to) as minutes since 1970-01-01,
+   * or -1 for rows without a date or a time.
+   */
+  public void scanTimes(int from, int to, Visitor visitor) {
+    int p = seek(TIME, from, to);
+    long time = 0;
+    for (int row = from - from % BLOCK_ROWS; row < to; row++) {
+      long zigzag = readVarint(p);
+      p += varintLength(zigzag);
+      if (row % BLOCK_ROWS == 0) time = 0;
+      time += zigzag >>> 1 ^ -(zigzag & 1);
+      if (row >= from) visitor.visit(row, time);
+    }
+  }
+
+  /** Visit the UTF-8 bytes of the messages in [from, to). */
+  public void scanMessages(int from, int to, MessageVisitor visitor) {
+    int p = seek(MESSAGE, from, to);
+    for (int row = from - from % BLOCK_ROWS; row < to; row++) {
+      int length = (int) readVarint(p);
+      p += varintLength(length);
+      if (row >= from) visitor.visit(row, file, p, length);
+      p += length;
+    }
+  }
+
+  /** @return the text of one message */
+  public String message(int row) {
+    final String[] text = new String[1];
+    scanMessages(row, row + 1, new MessageVisitor() {
+      @Override
+      public void visit(int row, ByteBuffer file, int offset, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) bytes[i] = file.get(offset + i);
+        text[0] = new String(bytes, StandardCharsets.UTF_8);
+      }
+    });
+    return text[0];
+  }
+
+  /** @return the offset in a column of the block with row {@code from} */
+  private int seek(int column, int from, int to) {
+    if (from < 0 || from > to || to > rows)
+      throw new IndexOutOfBoundsException(
+          "rows " + from + " to " + to + " of " + rows);
+    int blocks = (rows + BLOCK_ROWS - 1) / BLOCK_ROWS;
+    int block = from / BLOCK_ROWS;
+    if (block == blocks) return file.limit();
+    return file.getInt(indexStart + (column * blocks + block) * 4);
+  }
+
+  private long readVarint(int p) {
+    long value = 0;
+    for (int shift = 0; ; shift += 7) {
+      int b = file.get(p++);
+      value |= (long) (b & 0x7f) << shift;
+      if (b >= 0) return value;
+    }
+  }
+
+  private static int varintLength(long value) {
+    int n = 1;
+    while ((value >>>= 7) != 0) n++;
+    return n;
+  }
+
+  /** A growable array of varints. */
+  private static class Varints {
+    byte[] bytes = new byte[1 << 12];
+    int size;
+
+    void add(long value) {
+      if (bytes.length - size < 10) bytes = Arrays.copyOf(bytes, size * 2);
+      while ((value & ~0x7fL) != 0) {
+        bytes[size++] = (byte) (value | 0x80);
+        value >>>= 7;
+      }
+      bytes[size++] = (byte) value;
+    }
+  }
+
+  /**
+   * Encodes the user and time columns during a scan. Messages are kept as
+   * slices of the history and copied when the file is written.
+   */
+  private static class Builder implements ChatScanner.Handler {
+    private final Map<String, Integer> userIds = new HashMap<>();
+    private final List<String> users = new ArrayList<>();
+    private final Varints userColumn = new Varints();
+    private final Varints timeColumn = new Varints();
+    private long[] slices = new long[1024];
+    private int[] userBlocks = new int[16], timeBlocks = new int[16];
+    private long[] messageBlocks = new long[16];
+    private int size;
+    private long messageBytes;
+    private long day = -1;
+    private int minute = -1;
+    private long lastTime;
+
+    @Override
+    public void date(int date) {
+      day = -1;
+      if (date == 0) return;
+      try {
+        day = LocalDate.of(date / 10000, date / 100 % 100, date % 100)
+            .toEpochDay();
+      } catch (DateTimeException e) {
+        // digits that are no date, like 2016-13-45, as if it were unread
+      }
+    }
+
+    @Override
+    public void time(int minute) {
+      this.minute = minute;
+    }
+
+    @Override
+    public void message(String user, int offset, int length) {
+      Integer id = userIds.get(user);
+      if (id == null) {
+        id = users.size();
+        userIds.put(user, id);
+        users.add(user);
+      }
+      if (size % BLOCK_ROWS == 0) {
+        int block = size / BLOCK_ROWS;
+        if (block == userBlocks.length) {
+          userBlocks = Arrays.copyOf(userBlocks, block * 2);
+          timeBlocks = Arrays.copyOf(timeBlocks, block * 2);
+          messageBlocks = Arrays.copyOf(messageBlocks, block * 2);
+        }
+        userBlocks[block] = userColumn.size;
+        timeBlocks[block] = timeColumn.size;
+        messageBlocks[block] = messageBytes;
+        lastTime = 0;
+      }
+      if (size == slices.length) slices = Arrays.copyOf(slices, size * 2);
+      slices[size++] = (long) offset << 32 | length;
+      messageBytes += varintLength(length) + length;
+      userColumn.add(id);
+      long time = day < 0 || minute < 0 ? -1 : day * 1440 + minute;
+      long delta = time - lastTime;
+      timeColumn.add(delta << 1 ^ delta >> 63);
+      lastTime = time;
+    }
+
+    void write(ByteBuffer history, Path columnsFile) throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream header = new DataOutputStream(bytes);
+      header.writeInt(MAGIC);
+      header.writeInt(VERSION);
+      header.writeInt(users.size());
+      header.writeInt(size);
+      header.writeInt(BLOCK_ROWS);
+      for (String user : users) header.writeUTF(user);
+      int blocks = (size + BLOCK_ROWS - 1) / BLOCK_ROWS;
+      long userStart = header.size() + 3L * blocks * 4;
+      long timeStart = userStart + userColumn.size;
+      long messageStart = timeStart + timeColumn.size;
+      if (messageStart + messageBytes > Integer.MAX_VALUE)
+        throw new IOException("columns too large: "
+            + (messageStart + messageBytes));
+      for (int b = 0; b < blocks; b++)
+        header.writeInt((int) userStart + userBlocks[b]);
+      for (int b = 0; b < blocks; b++)
+        header.writeInt((int) timeStart + timeBlocks[b]);
+      for (int b = 0; b < blocks; b++)
+        header.writeInt((int) (messageStart + messageBlocks[b]));
+
+      try (FileChannel out = FileChannel.open(columnsFile,
+          StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+          StandardOpenOption.TRUNCATE_EXISTING)) {
+        WechatMsgProcess.Sink sink = new WechatMsgProcess.Sink(history, out);
+        sink.write(bytes.toByteArray());
+        sink.write(userColumn.bytes, 0, userColumn.size);
+        sink.write(timeColumn.bytes, 0, timeColumn.size);
+        Varints length = new Varints();
+        for (int i = 0; i < size; i++) {
+          length.size = 0;
+          length.add((int) slices[i]);
+          sink.write(length.bytes, 0, length.size);
+          sink.write((int) (slices[i] >>> 32), (int) slices[i]);
+        }
+        sink.flush();
+      }
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    final String USAGE = "Usage:\n"
+        + "  java stdio.ChatColumns users columnsFile\n"
+        + "  java stdio.ChatColumns days columnsFile\n"
+        + "  java stdio.ChatColumns grep columnsFile text\n"
+        + "users and days print message counts from one column each,\n"
+        + "grep prints the rows whose message contains the text";
+    if (args.length < 2 || args.length != (args[0].equals("grep") ? 3 : 2)) {
+      System.out.println(USAGE);
+      return;
+    }
+    final ChatColumns columns = open(Paths.get(args[1]));
+    switch (args[0]) {
+    case "users":
+      final long[] counts = new long[columns.userCount()];
+      columns.scanUsers(0, columns.size(), new Visitor() {
+        @Override
+        public void visit(int row, long user) {
+          counts[(int) user]++;
+        }
+      });
+      for (int i = 0; i < counts.length; i++)
+        System.out.println(columns.user(i) + "\t" + counts[i]);
+      break;
+    case "days":
+      final Map<Long, long[]> days = new TreeMap<>();
+      columns.scanTimes(0, columns.size(), new Visitor() {
+        long day = Long.MIN_VALUE;
+        long[] count;
+
+        @Override
+        public void visit(int row, long time) {
+          long d = time < 0 ? -1 : time / 1440;
+          if (d != day) {
+            day = d;
+            count = days.get(d);
+            if (count == null) days.put(d, count = new long[1]);
+          }
+          count[0]++;
+        }
+      });
+      for (Map.Entry<Long, long[]> e : days.entrySet())
+        System.out.println((e.getKey() < 0 ? "unknown"
+            : LocalDate.ofEpochDay(e.getKey()).toString()) + "\t"
+            + e.getValue()[0]);
+      break;
+    case "grep":
+      final byte[] text = args[2].getBytes(StandardCharsets.UTF_8);
+      columns.scanMessages(0, columns.size(), new MessageVisitor() {
+        @Override
+        public void visit(int row, ByteBuffer file, int offset, int length) {
+          for (int p = offset, end = offset + length - text.length; p <= end;
+              p++) {
+            int i = 0;
+            while (i < text.length && file.get(p + i) == text[i]) i++;
+            if (i == text.length) {
+              System.out.println(row + "\t" + columns.message(row));
+              return;
+            }
+          }
+        }
+      });
+      break;
+    default:
+      System.out.println(USAGE);
+    }
+  }
+}
@@ -0,0 +1,250 @@
+package stdio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Scans a UTF-8 chat history in a byte buffer, usually a memory-mapped file,
+ * with the same rules as {@link WechatMsgProcess#skipLines}: empty lines and
+ * date lines starting with "—————" are skipped, the remaining lines alternate
+ * between a "username time" line and a message line.
+ * <p>
+ * Nothing is decoded while scanning. Lines are found by testing 8 bytes at a
+ * time for '\n' and '\r', usernames are looked up by their bytes in a hash
+ * table so each distinct name is decoded to a {@code String} once, and
+ * messages are reported as (offset, length) slices of the buffer.
+ */
+class ChatScanner {
+
+  /** Receives the messages in the order of the history. */
+  interface Handler {
+    /**
+     * @param user the interned name of the sender
+     * @param offset index of the message's first byte in the buffer
+     * @param length message length in bytes, without the line break
+     */
+    void message(String user, int offset, int length) throws IOException;
+
+    /**
+     * Called for each date line, before the messages that follow it.
+     *
+     * @param date the date as yyyyMMdd, or 0 if it cannot be read
+     */
+    default void date(int date) throws IOException {
+    }
+
+    /**
+     * Called for each user line, before the message that follows it.
+     *
+     * @param minute the time after the username as minutes since midnight,
+     *          or -1 if it cannot be read
+     */
+    default void time(int minute) throws IOException {
+    }
+  }
+
+  /** "—————" in UTF-8. */
+  private static final byte[] DATE_PREFIX =
+      "—————".getBytes(StandardCharsets.UTF_8);
+  private static final long LOW_BITS = 0x0101010101010101L;
+  private static final long HIGH_BITS = 0x8080808080808080L;
+  private static final long LF = '\n' * LOW_BITS;
+  private static final long CR = '\r' * LOW_BITS;
+
+  private final ByteBuffer buf;
+  private boolean isUserLine = true;
+  private String user = "default blank user";
+
+  /** Open addressing table of the names seen so far, keyed by their bytes. */
+  private int[] hashes = new int[64];
+  private int[] offsets = new int[64];
+  private int[] lengths = new int[64];
+  private String[] names = new String[64];
+  private int size;
+
+  ChatScanner(ByteBuffer buf) {
+    this.buf = buf;
+  }
+
+  /**
+   * @param isUserLine whether the next line to scan is a user line
+   * @param user the sender of the next message if it is not
+   */
+  ChatScanner(ByteBuffer buf, boolean isUserLine, String user) {
+    this.buf = buf;
+    this.isUserLine = isUserLine;
+    this.user = user;
+  }
+
+  /** @return whether the next line to scan is a user line */
+  boolean isUserLine() {
+    return isUserLine;
+  }
+
+  /** @return the sender of the last user line */
+  String user() {
+    return user;
+  }
+
+  /**
+   * @return the index of the first line in {@code [from, to)} that starts
+   *         with "—————" and is not at {@code from}, or {@code to}
+   */
+  int nextDateLine(int from, int to) {
+    int p = from;
+    while (p < to) {
+      p = lineEnd(p, to) + 1;
+      if (p < to && buf.get(p - 1) == '\r' && buf.get(p) == '\n') p++;
+      if (p < to && startsWithDate(p, to - p)) return p;
+    }
+    return to;
+  }
+
+  /**
+   * Scan the lines in {@code [from, to)} of the buffer. A line ends with
+   * '\n', '\r' or "\r\n", or at {@code to}.
+   */
+  void scan(int from, int to, Handler handler) throws IOException {
+    int p = from;
+    while (p < to) {
+      int end = lineEnd(p, to);
+      int length = end - p;
+      if (length > 0 && startsWithDate(p, length))
+        handler.date(parseDate(p + DATE_PREFIX.length, end));
+      else if (length > 0) {
+        if (isUserLine) {
+          user = intern(p, userLength(p, end));
+          handler.time(parseTime(p, end));
+        }
+        else handler.message(user, p, length);
+        isUserLine = !isUserLine;
+      }
+      p = end + 1;
+      if (end < to && buf.get(end) == '\r' && p < to && buf.get(p) == '\n')
+        p++;
+    }
+  }
+
+  /** @return the index of the first '\n' or '\r' at or after p, or to */
+  private int lineEnd(int p, int to) {
+    while (to - p >= 8) {
+      long w = buf.getLong(p);
+      if ((hasZero(w ^ LF) | hasZero(w ^ CR)) != 0) break;
+      p += 8;
+    }
+    for (; p < to; p++) {
+      byte c = buf.get(p);
+      if (c == '\n' || c == '\r') break;
+    }
+    return p;
+  }
+
+  /** @return a long with the high bit set in each byte of w that is 0 */
+  private static long hasZero(long w) {
+    return (w - LOW_BITS) & ~w & HIGH_BITS;
+  }
+
+  private boolean startsWithDate(int p, int length) {
+    if (length < DATE_PREFIX.length) return false;
+    for (int i = 0; i < DATE_PREFIX.length; i++)
+      if (buf.get(p + i) != DATE_PREFIX[i]) return false;
+    return true;
+  }
+
+  /**
+   * @return the "yyyy-MM-dd" date in {@code [p, end)} after leading spaces
+   *         as yyyyMMdd, or 0
+   */
+  private int parseDate(int p, int end) {
+    while (p < end && buf.get(p) == ' ') p++;
+    int date = 0;
+    for (int i = 0; i < 10; i++, p++) {
+      if (p == end) return 0;
+      byte c = buf.get(p);
+      if (i == 4 || i == 7) {
+        if (c != '-') return 0;
+      } else if (c >= '0' && c <= '9') date = date * 10 + c - '0';
+      else return 0;
+    }
+    return date;
+  }
+
+  /**
+   * @return the "H:mm" or "HH:mm" time after the last space of the line in
+   *         {@code [p, end)} as minutes since midnight, or -1
+   */
+  private int parseTime(int p, int end) {
+    int space = end - 1;
+    while (space >= p && buf.get(space) != ' ') space--;
+    if (space < p) return -1;
+    p = space + 1;
+    int hour = 0, minute = 0, digits = 0;
+    for (; p < end && buf.get(p) != ':'; p++, digits++) {
+      byte c = buf.get(p);
+      if (c < '0' || c > '9' || digits == 2) return -1;
+      hour = hour * 10 + c - '0';
+    }
+    if (digits == 0 || p + 3 > end) return -1;
+    for (int i = 1; i <= 2; i++) {
+      byte c = buf.get(p + i);
+      if (c < '0' || c > '9') return -1;
+      minute = minute * 10 + c - '0';
+    }
+    return hour < 24 && minute < 60 ? hour * 60 + minute : -1;
+  }
+
+  /** @return the length of the name before the first space of a line */
+  private int userLength(int p, int end) {
+    for (int i = p; i < end; i++)
+      if (buf.get(i) == ' ') return i - p;
+    return end - p;
+  }
+
+  /** @return the name with the bytes at [p, p + length), decoded once */
+  private String intern(int p, int length) {
+    int h = 0;
+    for (int i = p; i < p + length; i++) h = 31 * h + buf.get(i);
+    int mask = names.length - 1;
+    int slot = h & mask;
+    for (; names[slot] != null; slot = (slot + 1) & mask)
+      if (hashes[slot] == h && sameBytes(offsets[slot], lengths[slot], p,
+          length))
+        return names[slot];
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) bytes[i] = buf.get(p + i);
+    String name = new String(bytes, StandardCharsets.UTF_8);
+    hashes[slot] = h;
+    offsets[slot] = p;
+    lengths[slot] = length;
+    names[slot] = name;
+    if (++size * 2 > names.length) rehash();
+    return name;
+  }
+
+  private boolean sameBytes(int p1, int length1, int p2, int length2) {
+    if (length1 != length2) return false;
+    for (int i = 0; i < length1; i++)
+      if (buf.get(p1 + i) != buf.get(p2 + i)) return false;
+    return true;
+  }
+
+  private void rehash() {
+    int[] oldHashes = hashes, oldOffsets = offsets, oldLengths = lengths;
+    String[] oldNames = names;
+    int capacity = oldNames.length * 2, mask = capacity - 1;
+    hashes = new int[capacity];
+    offsets = new int[capacity];
+    lengths = new int[capacity];
+    names = new String[capacity];
+    for (int i = 0; i < oldNames.length; i++) {
+      if (oldNames[i] == null) continue;
+      int slot = oldHashes[i] & mask;
+      while (names[slot] != null) slot = (slot + 1) & mask;
+      hashes[slot] = oldHashes[i];
+      offsets[slot] = oldOffsets[i];
+      lengths[slot] = oldLengths[i];
+      names[slot] = oldNames[i];
+    }
+  }
+}
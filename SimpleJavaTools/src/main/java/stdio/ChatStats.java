@@ -0,0 +1,350 @@
+package stdio;
+
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Statistics of a chat history collected in one scan: messages per user, per
+ * day and per hour, and the approximate most frequent terms and emoji tags.
+ * <p>
+ * Counters are arrays or open addressing tables with primitive keys, so they
+ * grow with the number of users and days but not with the number of
+ * messages. Terms are pairs of adjacent CJK characters and ASCII words, tags
+ * are bracketed names like "[ThumbsUp]". Their occurrences are counted in a
+ * Count-Min sketch of fixed size, and a small heap per kind keeps the k terms
+ * with the highest estimates seen so far. A term is decoded to a
+ * {@code String} only when it enters a heap.
+ */
+class ChatStats implements ChatScanner.Handler {
+
+  /** Count-Min sketch rows and the log2 of their width. */
+  private static final int DEPTH = 4, WIDTH_BITS = 20;
+  /** Marks the keys of words and tags, which are hashes of their bytes. */
+  private static final long WORD = 1L << 62, TAG = 1L << 63;
+
+  private final ByteBuffer history;
+
+  private long messages;
+  private final Map<String, Integer> userIds = new HashMap<>();
+  private final List<String> users = new ArrayList<>();
+  private long[] perUser = new long[64];
+  private final IntCounter perDay = new IntCounter();
+  private final long[] perHour = new long[24];
+  private int date;
+  private int minute = -1;
+
+  private final int[][] sketch = new int[DEPTH][1 << WIDTH_BITS];
+  private final TopK terms, tags;
+
+  /**
+   * @param history the buffer that messages are slices of
+   * @param k number of terms and tags to keep
+   */
+  ChatStats(ByteBuffer history, int k) {
+    this.history = history;
+    terms = new TopK(k);
+    tags = new TopK(k);
+  }
+
+  @Override
+  public void date(int date) {
+    this.date = date;
+  }
+
+  @Override
+  public void time(int minute) {
+    this.minute = minute;
+  }
+
+  @Override
+  public void message(String user, int offset, int length) {
+    messages++;
+    Integer id = userIds.get(user);
+    if (id == null) {
+      id = users.size();
+      userIds.put(user, id);
+      users.add(user);
+      if (id == perUser.length) perUser = Arrays.copyOf(perUser, id * 2);
+    }
+    perUser[id]++;
+    perDay.increment(date);
+    if (minute >= 0) perHour[minute / 60]++;
+    countTerms(offset, offset + length);
+  }
+
+  private void countTerms(int p, int end) {
+    int prev = -1;
+    while (p < end) {
+      int b = history.get(p) & 0xff;
+      if (b == '[') {
+        int close = tagEnd(p + 1, end);
+        if (close > 0) {
+          add(tags, TAG | hash(p, close + 1), p, close + 1);
+          p = close + 1;
+          prev = -1;
+          continue;
+        }
+      }
+      if (isWordByte(b)) {
+        int q = p;
+        while (q < end && isWordByte(history.get(q) & 0xff)) q++;
+        if (q - p >= 2) add(terms, WORD | hash(p, q), p, q);
+        p = q;
+        prev = -1;
+        continue;
+      }
+      int n = b < 0x80 ? 1 : b < 0xe0 ? 2 : b < 0xf0 ? 3 : 4;
+      int c = -1;
+      if (n == 3 && p + 3 <= end)
+        c = (b & 0x0f) << 12 | (history.get(p + 1) & 0x3f) << 6
+            | history.get(p + 2) & 0x3f;
+      if (c >= 0x4e00 && c <= 0x9fff) {
+        if (prev >= 0) add(terms, (long) prev << 16 | c, p - 3, p + 3);
+        prev = c;
+      } else prev = -1;
+      p += Math.min(n, end - p);
+    }
+  }
+
+  /** @return the index of the ']' closing a tag name starting at p, or -1 */
+  private int tagEnd(int p, int end) {
+    int q = p;
+    while (q < end && q - p <= 32) {
+      int c = history.get(q) & 0xff;
+      if (c == ']') return q > p ? q : -1;
+      if (c != ' ' && !isWordByte(c) && c < 0x80) return -1;
+      q++;
+    }
+    return -1;
+  }
+
+  private static boolean isWordByte(int c) {
+    return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z'
+        || c >= '0' && c <= '9';
+  }
+
+  /** @return a 62-bit hash of the bytes in [p, end), ASCII case folded */
+  private long hash(int p, int end) {
+    long h = 0x9e3779b97f4a7c15L;
+    for (; p < end; p++) {
+      int c = history.get(p) & 0xff;
+      if (c >= 'A' && c <= 'Z') c += 'a' - 'A';
+      h = (h ^ c) * 0x100000001b3L;
+    }
+    return (h ^ h >>> 29) & (WORD - 1);
+  }
+
+  /** Count an occurrence of the term at [p, end) with the given key. */
+  private void add(TopK top, long key, int p, int end) {
+    int estimate = Integer.MAX_VALUE;
+    long h = key * 0x9e3779b97f4a7c15L;
+    for (int row = 0; row < DEPTH; row++) {
+      int i = (int) (h >>> 64 - WIDTH_BITS);
+      int count = ++sketch[row][i];
+      if (count < estimate) estimate = count;
+      h = h * 0xbf58476d1ce4e5b9L + row + 1;
+    }
+    top.offer(key, estimate, this, p, end);
+  }
+
+  private String text(int p, int end) {
+    byte[] bytes = new byte[end - p];
+    for (int i = 0; i < bytes.length; i++) bytes[i] = history.get(p + i);
+    String s = new String(bytes, StandardCharsets.UTF_8);
+    return bytes[0] == '[' ? s : s.toLowerCase();
+  }
+
+  /** Print comma separated rows of metric, key and count. */
+  void writeCsv(PrintStream out) {
+    out.println("metric,key,count");
+    out.println("messages,," + messages);
+    for (int i = 0; i < users.size(); i++)
+      out.println("user," + csv(users.get(i)) + "," + perUser[i]);
+    for (int day : perDay.keys())
+      out.println("day," + formatDate(day) + "," + perDay.get(day));
+    for (int hour = 0; hour < 24; hour++)
+      out.println("hour," + hour + "," + perHour[hour]);
+    for (TopK.Entry e : terms.sorted())
+      out.println("term," + csv(e.text) + "," + e.count);
+    for (TopK.Entry e : tags.sorted())
+      out.println("tag," + csv(e.text) + "," + e.count);
+  }
+
+  /** Print one JSON object. */
+  void writeJson(PrintStream out) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("{\"messages\":").append(messages).append(",\"users\":{");
+    for (int i = 0; i < users.size(); i++) {
+      if (i > 0) sb.append(',');
+      json(sb, users.get(i)).append(':').append(perUser[i]);
+    }
+    sb.append("},\"days\":{");
+    boolean first = true;
+    for (int day : perDay.keys()) {
+      if (!first) sb.append(',');
+      first = false;
+      json(sb, formatDate(day)).append(':').append(perDay.get(day));
+    }
+    sb.append("},\"hours\":[");
+    for (int hour = 0; hour < 24; hour++)
+      sb.append(hour > 0 ? "," : "").append(perHour[hour]);
+    sb.append("],\"terms\":");
+    json(sb, terms.sorted()).append(",\"tags\":");
+    json(sb, tags.sorted()).append('}');
+    out.println(sb);
+  }
+
+  private static StringBuilder json(StringBuilder sb, List<TopK.Entry> top) {
+    sb.append('[');
+    for (int i = 0; i < top.size(); i++) {
+      if (i > 0) sb.append(',');
+      sb.append("{\"term\":");
+      json(sb, top.get(i).text).append(",\"count\":")
+          .append(top.get(i).count).append('}');
+    }
+    return sb.append(']');
+  }
+
+  private static StringBuilder json(StringBuilder sb, String s) {
+    sb.append('"');
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\') sb.append('\\').append(c);
+      else if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+      else sb.append(c);
+    }
+    return sb.append('"');
+  }
+
+  private static String csv(String s) {
+    if (s.indexOf(',') < 0 && s.indexOf('"') < 0) return s;
+    return '"' + s.replace("\"", "\"\"") + '"';
+  }
+
+  private static String formatDate(int date) {
+    return date == 0 ? "unknown" : String.format("%04d-%02d-%02d",
+        date / 10000, date / 100 % 100, date % 100);
+  }
+
+  /** Counts per int key in an open addressing table. */
+  private static class IntCounter {
+    private int[] keys = new int[64];
+    private long[] counts = new long[64];
+    private boolean[] used = new boolean[64];
+    private int size;
+
+    void increment(int key) {
+      int slot = find(key);
+      if (!used[slot]) {
+        used[slot] = true;
+        keys[slot] = key;
+        if (++size * 2 > keys.length) {
+          rehash();
+          slot = find(key);
+        }
+      }
+      counts[slot]++;
+    }
+
+    long get(int key) {
+      int slot = find(key);
+      return used[slot] ? counts[slot] : 0;
+    }
+
+    /** @return the keys in ascending order */
+    int[] keys() {
+      int[] result = new int[size];
+      for (int i = 0, n = 0; i < keys.length; i++)
+        if (used[i]) result[n++] = keys[i];
+      Arrays.sort(result);
+      return result;
+    }
+
+    private int find(int key) {
+      int mask = keys.length - 1;
+      int h = key * 0x9e3779b9;
+      int slot = (h ^ h >>> 16) & mask;
+      while (used[slot] && keys[slot] != key) slot = (slot + 1) & mask;
+      return slot;
+    }
+
+    private void rehash() {
+      int[] oldKeys = keys;
+      long[] oldCounts = counts;
+      boolean[] oldUsed = used;
+      keys = new int[oldKeys.length * 2];
+      counts = new long[keys.length];
+      used = new boolean[keys.length];
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (!oldUsed[i]) continue;
+        int slot = find(oldKeys[i]);
+        used[slot] = true;
+        keys[slot] = oldKeys[i];
+        counts[slot] = oldCounts[i];
+      }
+    }
+  }
+
+  /** The k keys with the highest estimates, in a min-heap. */
+  private static class TopK {
+    static class Entry {
+      final long key;
+      final String text;
+      int count;
+
+      Entry(long key, String text, int count) {
+        this.key = key;
+        this.text = text;
+        this.count = count;
+      }
+    }
+
+    private static final Comparator<Entry> BY_COUNT = new Comparator<Entry>() {
+      @Override
+      public int compare(Entry a, Entry b) {
+        return Integer.compare(a.count, b.count);
+      }
+    };
+
+    private final int k;
+    private final PriorityQueue<Entry> heap;
+    private final Map<Long, Entry> members = new HashMap<>();
+
+    TopK(int k) {
+      this.k = k;
+      heap = new PriorityQueue<>(Math.max(1, k), BY_COUNT);
+    }
+
+    void offer(long key, int estimate, ChatStats stats, int p, int end) {
+      if (k == 0) return;
+      if (heap.size() == k && estimate <= heap.peek().count) return;
+      Entry e = members.get(key);
+      if (e != null) {
+        heap.remove(e);
+        e.count = estimate;
+        heap.add(e);
+        return;
+      }
+      if (heap.size() == k) members.remove(heap.poll().key);
+      e = new Entry(key, stats.text(p, end), estimate);
+      members.put(key, e);
+      heap.add(e);
+    }
+
+    /** @return the entries, highest count first */
+    List<Entry> sorted() {
+      List<Entry> result = new ArrayList<>(heap);
+      Collections.sort(result, Collections.reverseOrder(BY_COUNT));
+      return result;
+    }
+  }
+}
@@ -0,0 +1,180 @@
+package stdio;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Scans a chat history in blocks on a fork-join pool and reports the messages
+ * to a {@link ChatScanner.Handler} in history order, exactly as one
+ * {@link ChatScanner} over the whole history would.
+ * <p>
+ * Blocks are about {@link #BLOCK} bytes, each extended to the next
+ * "—————" date line, where the alternation of user lines and message lines
+ * normally starts over. Every block is scanned as if its first content line
+ * were a user line and its messages are collected as slices. They are then
+ * replayed in order. A block whose real starting state differs, because the
+ * previous block ended in the middle of a user/message pair, is scanned again
+ * with the state carried over before it is replayed.
+ * <p>
+ * At most one block more than the parallelism is scanned ahead of the
+ * replay, and a block's slices are dropped once replayed, so the heap used
+ * depends on the block size and the parallelism, not on the history.
+ */
+class ParallelChatScanner {
+
+  /** Target bytes per block, extended to the next date line. */
+  private static final int BLOCK = 4 << 20;
+
+  private ParallelChatScanner() {
+  }
+
+  /** @param parallelism number of threads scanning blocks */
+  static void scan(final ByteBuffer history, int parallelism,
+      ChatScanner.Handler handler) throws IOException {
+    List<Block> blocks = split(history);
+    // scanned blocks wait for replay, so only a window of them is kept
+    int window = parallelism + 1;
+    ArrayDeque<Future<?>> scans = new ArrayDeque<>(window);
+    ForkJoinPool pool = new ForkJoinPool(parallelism);
+    try {
+      ChatScanner start = new ChatScanner(history);
+      boolean isUserLine = start.isUserLine();
+      String user = start.user();
+      int submitted = 0;
+      for (Block block : blocks) {
+        while (submitted < blocks.size() && scans.size() < window) {
+          final Block next = blocks.get(submitted++);
+          scans.add(pool.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+              next.scan(history, true, null);
+              return null;
+            }
+          }));
+        }
+        await(scans.remove());
+        if (!isUserLine) block.scan(history, false, user);
+        block.replay(handler);
+        block.release();
+        if (block.hasContent) {
+          isUserLine = block.isUserLine;
+          user = block.user;
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  private static void await(Future<?> scan) throws IOException {
+    try {
+      scan.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted scanning blocks");
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      throw new IOException(e.getCause());
+    }
+  }
+
+  private static List<Block> split(ByteBuffer history) {
+    ChatScanner finder = new ChatScanner(history);
+    int size = history.limit();
+    List<Block> blocks = new ArrayList<>();
+    for (int start = 0, end; start < size; start = end) {
+      end = size - start <= BLOCK ? size
+          : finder.nextDateLine(start + BLOCK, size);
+      blocks.add(new Block(start, end));
+    }
+    return blocks;
+  }
+
+  /** The messages, dates and times of one block, in order. */
+  private static class Block implements ChatScanner.Handler {
+    private static final int DATE = 0, TIME = 1;
+
+    final int from, to;
+    /** The sender of each message, or null for a date or a time. */
+    String[] users = new String[64];
+    /** The slice of each message, or a date or a time after its kind. */
+    long[] slices = new long[64];
+    int size;
+    /** Whether the block has lines other than empty and date lines. */
+    boolean hasContent;
+    /** Scanner state at the end of the block. */
+    boolean isUserLine;
+    String user;
+
+    Block(int from, int to) {
+      this.from = from;
+      this.to = to;
+    }
+
+    void scan(ByteBuffer history, boolean isUserLine, String user)
+        throws IOException {
+      size = 0;
+      ChatScanner scanner = new ChatScanner(history, isUserLine, user);
+      scanner.scan(from, to, this);
+      this.isUserLine = scanner.isUserLine();
+      this.user = scanner.user();
+      hasContent = hasMessage() || isUserLine != this.isUserLine;
+    }
+
+    private boolean hasMessage() {
+      for (int i = 0; i < size; i++)
+        if (users[i] != null) return true;
+      return false;
+    }
+
+    @Override
+    public void message(String user, int offset, int length) {
+      add(user, (long) offset << 32 | length);
+    }
+
+    @Override
+    public void date(int date) {
+      add(null, (long) DATE << 32 | date & 0xffffffffL);
+    }
+
+    @Override
+    public void time(int minute) {
+      add(null, (long) TIME << 32 | minute & 0xffffffffL);
+    }
+
+    private void add(String user, long slice) {
+      if (size == users.length) {
+        users = Arrays.copyOf(users, size * 2);
+        slices = Arrays.copyOf(slices, size * 2);
+      }
+      users[size] = user;
+      slices[size++] = slice;
+    }
+
+    /** Drop the collected slices, the block is not replayed again. */
+    void release() {
+      users = null;
+      slices = null;
+    }
+
+    void replay(ChatScanner.Handler handler) throws IOException {
+      for (int i = 0; i < size; i++) {
+        int high = (int) (slices[i] >>> 32), low = (int) slices[i];
+        if (users[i] != null) handler.message(users[i], high, low);
+        else if (high == DATE) handler.date(low);
+        else handler.time(low);
+      }
+    }
+  }
+}
@@ -0,0 +1,277 @@
+package stdio;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Groups messages by username with a bounded heap. Messages are buffered as
+ * slices of the history until the memory budget is used up, then sorted by
+ * (username, sequence number) and spilled as a run of (username, sequence,
+ * message) records to a temporary file. At the end the runs are merged with
+ * a heap of run readers, so the groups come out sorted by username and each
+ * group in history order. If nothing was spilled, the buffer is sorted and
+ * written directly, so the output does not depend on the budget.
+ * <p>
+ * A run holds at least {@link #MIN_RUN} messages, even if that exceeds a very
+ * small budget, and at most {@link #MAX_FAN_IN} runs are open at once: with
+ * more, the oldest are first merged into one longer run, as often as needed.
+ */
+class SpillGrouping implements WechatMsgProcess.Grouping {
+
+  /** Heap bytes per buffered message: user id, slice, sort key and order. */
+  private static final int RECORD_BYTES = 4 + 8 + 8 + 4;
+  private static final int BUFFER = 1 << 16;
+  /** Fewest messages per run, so a tiny budget cannot spill every message. */
+  private static final int MIN_RUN = 1 << 12;
+  /** Most runs merged at once, each read through a {@link #BUFFER}. */
+  private static final int MAX_FAN_IN = 64;
+
+  private final ByteBuffer view;
+  private final int capacity;
+  private final Map<String, Integer> ids = new HashMap<>();
+  private final List<String> names = new ArrayList<>();
+  private int[] users = new int[1024];
+  private long[] slices = new long[1024];
+  private int size;
+  /** Sequence number of the first buffered message. */
+  private long first;
+  private final List<Path> runs = new ArrayList<>();
+  private byte[] scratch = new byte[256];
+
+  /** @param history the buffer that messages are slices of */
+  SpillGrouping(ByteBuffer history, long memoryBudget) {
+    view = history.duplicate();
+    capacity = (int) Math.max(MIN_RUN,
+        Math.min(memoryBudget / RECORD_BYTES, Integer.MAX_VALUE - 8));
+  }
+
+  @Override
+  public void add(String user, int offset, int length) throws IOException {
+    Integer id = ids.get(user);
+    if (id == null) {
+      id = names.size();
+      ids.put(user, id);
+      names.add(user);
+    }
+    if (size == capacity) spill();
+    if (size == users.length) {
+      int n = (int) Math.min(capacity, 2L * size);
+      users = Arrays.copyOf(users, n);
+      slices = Arrays.copyOf(slices, n);
+    }
+    users[size] = id;
+    slices[size++] = (long) offset << 32 | length;
+  }
+
+  /**
+   * @return indices of the buffered messages sorted by username, and by
+   *         sequence number within a username
+   */
+  private int[] sortBuffer() {
+    Integer[] present = distinctUsers();
+    Arrays.sort(present, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return names.get(a).compareTo(names.get(b));
+      }
+    });
+    int[] rank = new int[names.size()];
+    for (int i = 0; i < present.length; i++) rank[present[i]] = i;
+    long[] keys = new long[size];
+    for (int i = 0; i < size; i++) keys[i] = (long) rank[users[i]] << 32 | i;
+    Arrays.sort(keys);
+    int[] order = new int[size];
+    for (int i = 0; i < size; i++) order[i] = (int) keys[i];
+    return order;
+  }
+
+  private Integer[] distinctUsers() {
+    boolean[] seen = new boolean[names.size()];
+    List<Integer> present = new ArrayList<>();
+    for (int i = 0; i < size; i++)
+      if (!seen[users[i]]) {
+        seen[users[i]] = true;
+        present.add(users[i]);
+      }
+    return present.toArray(new Integer[present.size()]);
+  }
+
+  private void spill() throws IOException {
+    Path run = Files.createTempFile("wechat-", ".run");
+    runs.add(run);
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(run), BUFFER))) {
+      out.writeInt(size);
+      for (int i : sortBuffer()) {
+        int length = (int) slices[i];
+        out.writeUTF(names.get(users[i]));
+        out.writeLong(first + i);
+        out.writeInt(length);
+        out.write(read((int) (slices[i] >>> 32), length), 0, length);
+      }
+    }
+    first += size;
+    size = 0;
+  }
+
+  /** @return a reused array that starts with the bytes of a slice */
+  private byte[] read(int offset, int length) {
+    if (scratch.length < length) scratch = new byte[length];
+    view.clear();
+    view.position(offset);
+    view.get(scratch, 0, length);
+    return scratch;
+  }
+
+  @Override
+  public void writeTo(WechatMsgProcess.Sink sink) throws IOException {
+    if (runs.isEmpty()) {
+      int last = -1;
+      for (int i : sortBuffer()) {
+        if (users[i] != last) {
+          last = users[i];
+          sink.write(WechatMsgProcess.bytes(names.get(last)));
+          sink.write(WechatMsgProcess.NEW_LINE);
+        }
+        sink.write(WechatMsgProcess.INDENT);
+        sink.write((int) (slices[i] >>> 32), (int) slices[i]);
+        sink.write(WechatMsgProcess.NEW_LINE);
+      }
+      return;
+    }
+    if (size > 0) spill();
+    while (runs.size() > MAX_FAN_IN) mergeOldest();
+    merge(runs, new Target() {
+      private String last;
+
+      @Override
+      public void begin(int records) {
+      }
+
+      @Override
+      public void add(Run run) throws IOException {
+        if (!run.user.equals(last)) {
+          last = run.user;
+          sink.write(WechatMsgProcess.bytes(last));
+          sink.write(WechatMsgProcess.NEW_LINE);
+        }
+        sink.write(WechatMsgProcess.INDENT);
+        sink.write(run.message, 0, run.length);
+        sink.write(WechatMsgProcess.NEW_LINE);
+      }
+    });
+  }
+
+  /** Replace the {@link #MAX_FAN_IN} oldest runs by their merge. */
+  private void mergeOldest() throws IOException {
+    List<Path> oldest = new ArrayList<>(runs.subList(0, MAX_FAN_IN));
+    Path merged = Files.createTempFile("wechat-", ".run");
+    // listed before writing, so close() deletes it if the merge fails
+    runs.add(merged);
+    try (DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(merged), BUFFER))) {
+      merge(oldest, new Target() {
+        @Override
+        public void begin(int records) throws IOException {
+          out.writeInt(records);
+        }
+
+        @Override
+        public void add(Run run) throws IOException {
+          out.writeUTF(run.user);
+          out.writeLong(run.seq);
+          out.writeInt(run.length);
+          out.write(run.message, 0, run.length);
+        }
+      });
+    }
+    runs.subList(0, MAX_FAN_IN).clear();
+    for (Path run : oldest) Files.delete(run);
+  }
+
+  /** Receives the records of a merge in order. */
+  private interface Target {
+    /** Called once before the records, with their number. */
+    void begin(int records) throws IOException;
+
+    void add(Run run) throws IOException;
+  }
+
+  private static void merge(List<Path> paths, Target target)
+      throws IOException {
+    PriorityQueue<Run> heap = new PriorityQueue<>(paths.size(),
+        new Comparator<Run>() {
+          @Override
+          public int compare(Run a, Run b) {
+            int c = a.user.compareTo(b.user);
+            return c != 0 ? c : Long.compare(a.seq, b.seq);
+          }
+        });
+    List<Run> open = new ArrayList<>();
+    try {
+      int records = 0;
+      for (Path path : paths) {
+        Run run = new Run(path);
+        open.add(run);
+        records += run.left;
+        if (run.next()) heap.add(run);
+      }
+      target.begin(records);
+      while (!heap.isEmpty()) {
+        Run run = heap.poll();
+        target.add(run);
+        if (run.next()) heap.add(run);
+      }
+    } finally {
+      for (Run run : open) run.in.close();
+    }
+  }
+
+  /** Deletes the spilled runs. */
+  @Override
+  public void close() throws IOException {
+    for (Path run : runs) Files.deleteIfExists(run);
+    runs.clear();
+  }
+
+  /** Reads the records of one spilled run in order. */
+  private static class Run {
+    final DataInputStream in;
+    int left;
+    String user;
+    long seq;
+    byte[] message = new byte[256];
+    int length;
+
+    Run(Path path) throws IOException {
+      in = new DataInputStream(
+          new BufferedInputStream(Files.newInputStream(path), BUFFER));
+      left = in.readInt();
+    }
+
+    /** @return whether a record was read */
+    boolean next() throws IOException {
+      if (left == 0) return false;
+      left--;
+      user = in.readUTF();
+      seq = in.readLong();
+      length = in.readInt();
+      if (message.length < length) message = new byte[length];
+      in.readFully(message, 0, length);
+      return true;
+    }
+  }
+}
@@ -0,0 +1,503 @@
+package stdio;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An on-disk inverted index over a WeChat history, to find who said what
+ * without processing the whole export again.
+ * <p>
+ * The content is mostly Chinese without spaces between words, so messages are
+ * indexed by character n-grams: every code point and every pair of adjacent
+ * code points, with ASCII letters lowercased and whitespace splitting pairs.
+ * A term query intersects the posting lists of the term's pairs, or reads the
+ * list of its only character, then checks each candidate message for the
+ * term. Postings are ids into a table of the user, date, offset and length of
+ * every message, and the message text is read from the memory-mapped export.
+ * <p>
+ * The index file is big-endian:
+ *
+ * <pre>
+ * int magic, int version
+ * long export size, long export last modified, UTF export path
+ * int users, int messages, int grams
+ * users x UTF name
+ * messages x (int user, int date yyyyMMdd, long offset, int length)
+ * grams x (long gram, int postings offset, int postings count), by gram
+ * postings, each list as varint gaps between ascending message ids
+ * </pre>
+ */
+public class WechatIndex {
+
+  private static final int MAGIC = 0x57434958;
+  private static final int VERSION = 1;
+  private static final int MESSAGE_BYTES = 4 + 4 + 8 + 4;
+  private static final int GRAM_BYTES = 8 + 4 + 4;
+
+  private final ByteBuffer index, export;
+  private final String[] users;
+  private final int messages, grams;
+  private final int messagesStart, gramsStart, postingsStart;
+
+  private WechatIndex(ByteBuffer index, ByteBuffer export, String[] users,
+      int messages, int grams, int messagesStart) {
+    this.index = index;
+    this.export = export;
+    this.users = users;
+    this.messages = messages;
+    this.grams = grams;
+    this.messagesStart = messagesStart;
+    gramsStart = messagesStart + messages * MESSAGE_BYTES;
+    postingsStart = gramsStart + grams * GRAM_BYTES;
+  }
+
+  /**
+   * Index the history {@code export} into {@code indexFile}.
+   *
+   * @param parallelism number of threads scanning the history
+   */
+  public static void build(Path export, Path indexFile, int parallelism)
+      throws IOException {
+    try (FileChannel in = FileChannel.open(export, StandardOpenOption.READ)) {
+      if (in.size() > Integer.MAX_VALUE)
+        throw new IOException("file too large to map: " + in.size());
+      MappedByteBuffer history =
+          in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+      Builder builder = new Builder(history);
+      if (parallelism > 1)
+        ParallelChatScanner.scan(history, parallelism, builder);
+      else new ChatScanner(history).scan(0, history.limit(), builder);
+      builder.write(export, indexFile);
+    }
+  }
+
+  /**
+   * Map an index built by {@link #build} and the export it was built from.
+   *
+   * @throws IOException if the export changed since the index was built
+   */
+  public static WechatIndex open(Path indexFile) throws IOException {
+    ByteBuffer index = map(indexFile);
+    if (index.getInt() != MAGIC || index.getInt() != VERSION)
+      throw new IOException("not a WeChat index: " + indexFile);
+    long size = index.getLong(), modified = index.getLong();
+    Path export = Paths.get(readUTF(index));
+    if (Files.size(export) != size
+        || Files.getLastModifiedTime(export).toMillis() != modified)
+      throw new IOException("index is older than " + export);
+    String[] users = new String[index.getInt()];
+    int messages = index.getInt(), grams = index.getInt();
+    for (int i = 0; i < users.length; i++) users[i] = readUTF(index);
+    return new WechatIndex(index, map(export), users, messages, grams,
+        index.position());
+  }
+
+  private static ByteBuffer map(Path file) throws IOException {
+    try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+      if (in.size() > Integer.MAX_VALUE)
+        throw new IOException("file too large to map: " + in.size());
+      return in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+    }
+  }
+
+  /** Read a string written by {@code DataOutput.writeUTF}. */
+  private static String readUTF(ByteBuffer buf) {
+    byte[] bytes = new byte[buf.getShort() & 0xffff];
+    buf.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Find messages by content, sender and date.
+   *
+   * @param term text the message contains, ignoring ASCII case, or null
+   * @param user the exact sender, or null for any
+   * @param from first date as yyyyMMdd, 0 for no limit
+   * @param to last date as yyyyMMdd, inclusive, 0 for no limit
+   * @return ids of the matching messages in history order
+   */
+  public int[] search(String term, String user, int from, int to) {
+    int userId = -1;
+    if (user != null) {
+      userId = Arrays.asList(users).indexOf(user);
+      if (userId < 0) return new int[0];
+    }
+    if (to == 0) to = Integer.MAX_VALUE;
+    String folded = term == null ? "" : fold(term);
+    long[] keys = grams(folded);
+    int[] candidates = candidates(keys);
+    // the postings of a single gram are exact, longer terms are checked
+    boolean check = keys.length > 1 || !folded.trim().equals(folded);
+    int n = candidates == null ? messages : candidates.length, hits = 0;
+    int[] result = new int[n];
+    for (int i = 0; i < n; i++) {
+      int id = candidates == null ? i : candidates[i];
+      int p = messagesStart + id * MESSAGE_BYTES;
+      int date = index.getInt(p + 4);
+      if (userId >= 0 && index.getInt(p) != userId || date < from
+          || date > to)
+        continue;
+      if (check && !fold(message(id)).contains(folded)) continue;
+      result[hits++] = id;
+    }
+    return Arrays.copyOf(result, hits);
+  }
+
+  /**
+   * @return ids of the messages that contain every gram, or null if there
+   *         are no grams to limit the messages
+   */
+  private int[] candidates(long[] keys) {
+    if (keys.length == 0) return null;
+    int[] entries = new int[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      entries[i] = findGram(keys[i]);
+      if (entries[i] < 0) return new int[0];
+    }
+    Integer[] order = new Integer[keys.length];
+    for (int i = 0; i < order.length; i++) order[i] = entries[i];
+    // the shortest list first keeps the intersections small
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer a, Integer b) {
+        return Integer.compare(postingsCount(a), postingsCount(b));
+      }
+    });
+    int[] result = postings(order[0]);
+    for (int i = 1; i < order.length && result.length > 0; i++)
+      result = intersect(result, postings(order[i]));
+    return result;
+  }
+
+  /**
+   * @return the pairs of adjacent code points of a folded term, or its code
+   *         points if it has no pair
+   */
+  private static long[] grams(String term) {
+    List<Long> pairs = new ArrayList<>(), singles = new ArrayList<>();
+    int prev = -1;
+    for (int i = 0; i < term.length();) {
+      int c = term.codePointAt(i);
+      i += Character.charCount(c);
+      if (Character.isWhitespace(c)) {
+        prev = -1;
+        continue;
+      }
+      if (prev >= 0) pairs.add(pair(prev, c));
+      singles.add((long) c);
+      prev = c;
+    }
+    List<Long> keys = pairs.isEmpty() ? singles : pairs;
+    long[] result = new long[keys.size()];
+    for (int i = 0; i < result.length; i++) result[i] = keys.get(i);
+    return result;
+  }
+
+  private static long pair(int first, int second) {
+    return ((long) first + 1) << 21 | second;
+  }
+
+  /** @return the term with ASCII letters in lower case */
+  private static String fold(String term) {
+    char[] chars = term.toCharArray();
+    for (int i = 0; i < chars.length; i++) chars[i] = (char) fold(chars[i]);
+    return new String(chars);
+  }
+
+  private static int fold(int c) {
+    return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+  }
+
+  /** @return the entry of a gram, or -1 */
+  private int findGram(long key) {
+    int lo = 0, hi = grams - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      long k = index.getLong(gramsStart + mid * GRAM_BYTES);
+      if (k < key) lo = mid + 1;
+      else if (k > key) hi = mid - 1;
+      else return mid;
+    }
+    return -1;
+  }
+
+  private int postingsCount(int entry) {
+    return index.getInt(gramsStart + entry * GRAM_BYTES + 12);
+  }
+
+  private int[] postings(int entry) {
+    int p = postingsStart + index.getInt(gramsStart + entry * GRAM_BYTES + 8);
+    int[] ids = new int[postingsCount(entry)];
+    for (int i = 0, id = -1; i < ids.length; i++) {
+      int gap = 0;
+      for (int shift = 0;; shift += 7) {
+        byte b = index.get(p++);
+        gap |= (b & 0x7f) << shift;
+        if (b >= 0) break;
+      }
+      ids[i] = id += gap;
+    }
+    return ids;
+  }
+
+  private static int[] intersect(int[] a, int[] b) {
+    int[] result = new int[Math.min(a.length, b.length)];
+    int n = 0;
+    for (int i = 0, j = 0; i < a.length && j < b.length;) {
+      if (a[i] < b[j]) i++;
+      else if (a[i] > b[j]) j++;
+      else {
+        result[n++] = a[i];
+        i++;
+        j++;
+      }
+    }
+    return Arrays.copyOf(result, n);
+  }
+
+  public String user(int id) {
+    return users[index.getInt(messagesStart + id * MESSAGE_BYTES)];
+  }
+
+  /** @return the date of a message as yyyyMMdd, or 0 if unknown */
+  public int date(int id) {
+    return index.getInt(messagesStart + id * MESSAGE_BYTES + 4);
+  }
+
+  public String message(int id) {
+    int p = messagesStart + id * MESSAGE_BYTES;
+    byte[] bytes = new byte[index.getInt(p + 16)];
+    ByteBuffer view = export.duplicate();
+    view.position((int) index.getLong(p + 8));
+    view.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /** Collects messages and their n-gram postings from a scan. */
+  private static class Builder implements ChatScanner.Handler {
+    private final ByteBuffer history;
+    private final Map<String, Integer> userIds = new HashMap<>();
+    private final List<String> users = new ArrayList<>();
+    private int date;
+
+    private int[] msgUsers = new int[1024], msgDates = new int[1024];
+    private int[] msgLengths = new int[1024];
+    private long[] msgOffsets = new long[1024];
+    private int size;
+
+    /** Open addressing table from gram to gram index + 1. */
+    private int[] table = new int[1 << 16];
+    private long[] gramKeys = new long[1024];
+    private byte[][] postings = new byte[1024][];
+    private int[] postingBytes = new int[1024], counts = new int[1024];
+    private int[] lastIds = new int[1024];
+    private int gramCount;
+
+    Builder(ByteBuffer history) {
+      this.history = history;
+    }
+
+    @Override
+    public void date(int date) {
+      this.date = date;
+    }
+
+    @Override
+    public void message(String user, int offset, int length) {
+      Integer userId = userIds.get(user);
+      if (userId == null) {
+        userId = users.size();
+        userIds.put(user, userId);
+        users.add(user);
+      }
+      if (size == msgUsers.length) {
+        int n = size * 2;
+        msgUsers = Arrays.copyOf(msgUsers, n);
+        msgDates = Arrays.copyOf(msgDates, n);
+        msgLengths = Arrays.copyOf(msgLengths, n);
+        msgOffsets = Arrays.copyOf(msgOffsets, n);
+      }
+      int id = size++;
+      msgUsers[id] = userId;
+      msgDates[id] = date;
+      msgOffsets[id] = offset;
+      msgLengths[id] = length;
+
+      int prev = -1;
+      for (int p = offset, end = offset + length; p < end;) {
+        int b = history.get(p) & 0xff;
+        int n = b < 0x80 ? 1 : b < 0xe0 ? 2 : b < 0xf0 ? 3 : 4;
+        int c = b;
+        if (n > 1 && p + n <= end) {
+          c = b & (0xff >>> n + 1);
+          for (int i = 1; i < n; i++) c = c << 6 | history.get(p + i) & 0x3f;
+        } else n = 1;
+        p += n;
+        c = fold(c);
+        if (Character.isWhitespace(c)) {
+          prev = -1;
+          continue;
+        }
+        post(c, id);
+        if (prev >= 0) post(pair(prev, c), id);
+        prev = c;
+      }
+    }
+
+    /** Add a message id to the postings of a gram, once per message. */
+    private void post(long key, int id) {
+      int mask = table.length - 1;
+      int slot = (int) (key * 0x9e3779b97f4a7c15L >>> 32) & mask;
+      int g;
+      while ((g = table[slot] - 1) >= 0 && gramKeys[g] != key)
+        slot = (slot + 1) & mask;
+      if (g < 0) {
+        g = newGram(key);
+        table[slot] = g + 1;
+        if (gramCount * 2 > table.length) rehash();
+      }
+      if (lastIds[g] == id) return;
+      byte[] list = postings[g];
+      if (list.length - postingBytes[g] < 5)
+        postings[g] = list = Arrays.copyOf(list, list.length * 2);
+      int n = postingBytes[g];
+      for (int gap = id - lastIds[g]; ; gap >>>= 7) {
+        if (gap < 0x80) {
+          list[n++] = (byte) gap;
+          break;
+        }
+        list[n++] = (byte) (gap | 0x80);
+      }
+      postingBytes[g] = n;
+      lastIds[g] = id;
+      counts[g]++;
+    }
+
+    private int newGram(long key) {
+      if (gramCount == gramKeys.length) {
+        int n = gramCount * 2;
+        gramKeys = Arrays.copyOf(gramKeys, n);
+        postings = Arrays.copyOf(postings, n);
+        postingBytes = Arrays.copyOf(postingBytes, n);
+        counts = Arrays.copyOf(counts, n);
+        lastIds = Arrays.copyOf(lastIds, n);
+      }
+      int g = gramCount++;
+      gramKeys[g] = key;
+      postings[g] = new byte[8];
+      lastIds[g] = -1;
+      return g;
+    }
+
+    private void rehash() {
+      table = new int[table.length * 2];
+      int mask = table.length - 1;
+      for (int g = 0; g < gramCount; g++) {
+        int slot = (int) (gramKeys[g] * 0x9e3779b97f4a7c15L >>> 32) & mask;
+        while (table[slot] != 0) slot = (slot + 1) & mask;
+        table[slot] = g + 1;
+      }
+    }
+
+    void write(Path export, Path indexFile) throws IOException {
+      Integer[] order = new Integer[gramCount];
+      for (int g = 0; g < gramCount; g++) order[g] = g;
+      Arrays.sort(order, new Comparator<Integer>() {
+        @Override
+        public int compare(Integer a, Integer b) {
+          return Long.compare(gramKeys[a], gramKeys[b]);
+        }
+      });
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+          Files.newOutputStream(indexFile), 1 << 16))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(Files.size(export));
+        out.writeLong(Files.getLastModifiedTime(export).toMillis());
+        out.writeUTF(export.toAbsolutePath().toString());
+        out.writeInt(users.size());
+        out.writeInt(size);
+        out.writeInt(gramCount);
+        for (String user : users) out.writeUTF(user);
+        for (int i = 0; i < size; i++) {
+          out.writeInt(msgUsers[i]);
+          out.writeInt(msgDates[i]);
+          out.writeLong(msgOffsets[i]);
+          out.writeInt(msgLengths[i]);
+        }
+        long offset = 0;
+        for (int g : order) {
+          out.writeLong(gramKeys[g]);
+          out.writeInt((int) offset);
+          out.writeInt(counts[g]);
+          offset += postingBytes[g];
+        }
+        if (out.size() + offset > Integer.MAX_VALUE)
+          throw new IOException("index too large: " + (out.size() + offset));
+        for (int g : order) out.write(postings[g], 0, postingBytes[g]);
+      }
+    }
+  }
+
+  private static int parseDate(String date) {
+    return Integer.parseInt(date.replace("-", ""));
+  }
+
+  private static String formatDate(int date) {
+    return date == 0 ? "????-??-??" : String.format("%04d-%02d-%02d",
+        date / 10000, date / 100 % 100, date % 100);
+  }
+
+  public static void main(String[] args) throws IOException {
+    final String USAGE = "Usage:\n"
+        + "  java stdio.WechatIndex build historyFile indexFile\n"
+        + "  java stdio.WechatIndex query indexFile [-user name]"
+        + " [-from yyyy-MM-dd] [-to yyyy-MM-dd] [term]";
+    if (args.length == 3 && args[0].equals("build")) {
+      build(Paths.get(args[1]), Paths.get(args[2]),
+          Runtime.getRuntime().availableProcessors());
+      return;
+    }
+    if (args.length < 2 || !args[0].equals("query")) {
+      System.out.println(USAGE);
+      return;
+    }
+    String term = null, user = null;
+    int from = 0, to = 0;
+    for (int i = 2; i < args.length; i++) {
+      if (args[i].equals("-user") && i + 1 < args.length) user = args[++i];
+      else if (args[i].equals("-from") && i + 1 < args.length)
+        from = parseDate(args[++i]);
+      else if (args[i].equals("-to") && i + 1 < args.length)
+        to = parseDate(args[++i]);
+      else if (term == null) term = args[i];
+      else {
+        System.out.println(USAGE);
+        return;
+      }
+    }
+    long start = System.nanoTime();
+    WechatIndex index = open(Paths.get(args[1]));
+    int[] ids = index.search(term, user, from, to);
+    long millis = (System.nanoTime() - start) / 1000000;
+    for (int id : ids)
+      System.out.println(formatDate(index.date(id)) + " " + index.user(id)
+          + ": " + index.message(id));
+    System.out.println(ids.length + " messages in " + millis + " ms");
+  }
+}
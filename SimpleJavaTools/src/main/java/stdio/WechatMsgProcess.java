@@ -2,17 +2,31 @@ package stdio;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 /**
  * A utility class for processing wechat message histories.
+ * <p>
+ * {@link #process} writes the same output as {@link #skipLines} without
+ * decoding the history: the file is memory-mapped and scanned by a
+ * {@link ChatScanner}, messages are kept as (offset, length) slices of the
+ * mapping and their bytes are copied to the output as they are.
  */
 public class WechatMsgProcess {
 
@@ -60,9 +74,403 @@ public class WechatMsgProcess {
     }
   }
 
-  public static void main(String[] args) {
-    final String USAGE = "usage: stdio.WechatMSgProcess inputFilename";
-    if (args.length != 1) System.out.println(USAGE);
-    skipLines(args[0]);
+  /**
+   * Write all messages of {@code inFile} in order, then the messages grouped
+   * by username, to {@code outFile}. Groups are in the order of
+   * {@link #skipLines}, which depends on {@code HashMap} iteration.
+   *
+   * @param inFile a UTF-8 history smaller than 2 GB
+   */
+  public static void process(Path inFile, Path outFile) throws IOException {
+    process(inFile, outFile, -1, 1);
+  }
+
+  /**
+   * Like {@link #process(Path, Path)}, with the history scanned in blocks by
+   * {@code parallelism} threads, see {@link ParallelChatScanner}. The output
+   * is the same.
+   */
+  public static void process(Path inFile, Path outFile, int parallelism)
+      throws IOException {
+    process(inFile, outFile, -1, parallelism);
+  }
+
+  /**
+   * Like {@link #process(Path, Path)}, but the groups are sorted by username
+   * and the messages buffered for grouping take at most about
+   * {@code memoryBudget} bytes of heap. Beyond that, sorted runs are spilled
+   * to temporary files and merged at the end, see {@link SpillGrouping}.
+   */
+  public static void processSorted(Path inFile, Path outFile,
+      long memoryBudget) throws IOException {
+    processSorted(inFile, outFile, memoryBudget, 1);
+  }
+
+  /**
+   * Like {@link #processSorted(Path, Path, long)}, with the history scanned
+   * by {@code parallelism} threads.
+   */
+  public static void processSorted(Path inFile, Path outFile,
+      long memoryBudget, int parallelism) throws IOException {
+    if (memoryBudget <= 0)
+      throw new IllegalArgumentException("memory budget: " + memoryBudget);
+    process(inFile, outFile, memoryBudget, parallelism);
+  }
+
+  /** @param memoryBudget negative to group in a {@code HashMap} */
+  private static void process(Path inFile, Path outFile, long memoryBudget,
+      final int parallelism) throws IOException {
+    try (FileChannel in = FileChannel.open(inFile, StandardOpenOption.READ)) {
+      final MappedByteBuffer history = map(in);
+      write(history, outFile, memoryBudget, new Source() {
+        @Override
+        public void scan(ChatScanner.Handler handler) throws IOException {
+          if (parallelism > 1)
+            ParallelChatScanner.scan(history, parallelism, handler);
+          else new ChatScanner(history).scan(0, history.limit(), handler);
+        }
+      });
+    }
+  }
+
+  /**
+   * Bring the output up to date with the lines appended to {@code inFile}
+   * since the last call. Only the new bytes are scanned, the messages before
+   * them come from the {@link ChatCheckpoint} in {@code checkpoint}, which is
+   * then updated. If the history does not continue the one in the checkpoint,
+   * or the output is not the one written last time, everything is processed
+   * from the start. The output is the same as that of
+   * {@link #process(Path, Path)}.
+   * <p>
+   * The output is updated in place: the new messages are appended to the
+   * section in history order and the section grouped by username after it
+   * is written again, as appending to a group moves the groups after it. A
+   * last line without a line break is in the output, but is scanned again by
+   * the next call, as it may still be being written.
+   *
+   * @param newMessages where to print the new messages, or null
+   * @return number of new messages
+   */
+  public static int processIncremental(Path inFile, Path outFile,
+      Path checkpoint, final PrintStream newMessages) throws IOException {
+    try (FileChannel in = FileChannel.open(inFile, StandardOpenOption.READ)) {
+      final MappedByteBuffer history = map(in);
+      final ChatCheckpoint state = ChatCheckpoint.load(checkpoint, history,
+          outFile);
+      if (state.isCurrent(history)) return 0;
+      state.invalidate(checkpoint);
+      int from = state.size();
+      int added = state.update(history, newMessages == null ? null
+          : new ChatScanner.Handler() {
+            @Override
+            public void message(String user, int offset, int length) {
+              byte[] bytes = new byte[length];
+              ByteBuffer view = history.duplicate();
+              view.position(offset);
+              view.get(bytes);
+              newMessages.println(user + ": "
+                  + new String(bytes, StandardCharsets.UTF_8));
+            }
+          });
+      try (FileChannel out = FileChannel.open(outFile,
+          StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+        out.truncate(state.flatEnd());
+        out.position(state.flatEnd());
+        final Sink sink = new Sink(history, out);
+        if (state.flatEnd() == 0) {
+          sink.write(bytes("All watering contents:"));
+          sink.write(NEW_LINE);
+        }
+        ChatScanner.Handler flat = new ChatScanner.Handler() {
+          @Override
+          public void message(String user, int offset, int length)
+              throws IOException {
+            sink.write(offset, length);
+            sink.write(NEW_LINE);
+          }
+        };
+        state.replay(from, flat);
+        sink.flush();
+        long flatEnd = out.position();
+        final HashGrouping groups = new HashGrouping();
+        state.replay(0, new ChatScanner.Handler() {
+          @Override
+          public void message(String user, int offset, int length) {
+            groups.add(user, offset, length);
+          }
+        });
+        state.scanTail(history, new ChatScanner.Handler() {
+          @Override
+          public void message(String user, int offset, int length)
+              throws IOException {
+            groups.add(user, offset, length);
+            sink.write(offset, length);
+            sink.write(NEW_LINE);
+          }
+        });
+        writeGroups(sink, groups);
+        sink.flush();
+        state.written(history, flatEnd, out.position());
+      }
+      state.save(checkpoint);
+      return added;
+    }
+  }
+
+  /**
+   * Follow a growing history like {@code tail -f}: run
+   * {@link #processIncremental} whenever the file size changes and print the
+   * messages that arrive meanwhile to {@code System.out}. Runs until
+   * interrupted.
+   *
+   * @param pollMillis time between checks of the file size
+   */
+  public static void follow(Path inFile, Path outFile, Path checkpoint,
+      long pollMillis) throws IOException, InterruptedException {
+    long size = Files.size(inFile);
+    processIncremental(inFile, outFile, checkpoint, null);
+    while (true) {
+      long now = Files.size(inFile);
+      if (now != size) {
+        size = now;
+        processIncremental(inFile, outFile, checkpoint, System.out);
+      }
+      Thread.sleep(pollMillis);
+    }
+  }
+
+  /**
+   * Collect statistics of {@code inFile} in one scan and print them.
+   *
+   * @param json whether to print JSON instead of CSV
+   * @param k number of most frequent terms and tags to print
+   */
+  public static void analyze(Path inFile, PrintStream out, boolean json,
+      int k, int parallelism) throws IOException {
+    try (FileChannel in = FileChannel.open(inFile, StandardOpenOption.READ)) {
+      MappedByteBuffer history = map(in);
+      ChatStats stats = new ChatStats(history, k);
+      if (parallelism > 1)
+        ParallelChatScanner.scan(history, parallelism, stats);
+      else new ChatScanner(history).scan(0, history.limit(), stats);
+      if (json) stats.writeJson(out);
+      else stats.writeCsv(out);
+    }
+  }
+
+  /**
+   * Write the messages of {@code inFile} in the column format of
+   * {@link ChatColumns}, for jobs that would otherwise parse the text again.
+   */
+  public static void writeColumns(Path inFile, Path columnsFile,
+      int parallelism) throws IOException {
+    try (FileChannel in = FileChannel.open(inFile, StandardOpenOption.READ)) {
+      ChatColumns.write(map(in), columnsFile, parallelism);
+    }
+  }
+
+  private static MappedByteBuffer map(FileChannel in) throws IOException {
+    if (in.size() > Integer.MAX_VALUE)
+      throw new IOException("file too large to map: " + in.size());
+    return in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+  }
+
+  /** Reports the messages of a history in order. */
+  private interface Source {
+    void scan(ChatScanner.Handler handler) throws IOException;
+  }
+
+  /** @param memoryBudget negative to group in a {@code HashMap} */
+  private static void write(ByteBuffer history, Path outFile,
+      long memoryBudget, Source source) throws IOException {
+    try (FileChannel out = FileChannel.open(outFile, StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      final Sink sink = new Sink(history, out);
+      try (final Grouping groups = memoryBudget < 0 ? new HashGrouping()
+          : new SpillGrouping(history, memoryBudget)) {
+        sink.write(bytes("All watering contents:"));
+        sink.write(NEW_LINE);
+        source.scan(new ChatScanner.Handler() {
+          @Override
+          public void message(String user, int offset, int length)
+              throws IOException {
+            groups.add(user, offset, length);
+            sink.write(offset, length);
+            sink.write(NEW_LINE);
+          }
+        });
+        writeGroups(sink, groups);
+      }
+      sink.flush();
+    }
+  }
+
+  /** Write the section grouped by username, after the one in order. */
+  private static void writeGroups(Sink sink, Grouping groups)
+      throws IOException {
+    sink.write(bytes("\n\n\n"));
+    sink.write(bytes("All watering contents by username:"));
+    sink.write(NEW_LINE);
+    groups.writeTo(sink);
+  }
+
+  static final byte[] NEW_LINE = bytes(System.lineSeparator());
+  static final byte[] INDENT = bytes("  ");
+
+  static byte[] bytes(String s) {
+    return s.getBytes(StandardCharsets.UTF_8);
+  }
+
+  /** Collects messages for the section grouped by username. */
+  interface Grouping extends Closeable {
+    /** Add a message, given as a slice of the history, in history order. */
+    void add(String user, int offset, int length) throws IOException;
+
+    /**
+     * Write every username followed by its messages in history order, each
+     * indented and on its own line.
+     */
+    void writeTo(Sink sink) throws IOException;
+  }
+
+  /** Groups in a {@code HashMap} keyed by username, like skipLines. */
+  private static class HashGrouping implements Grouping {
+    private final Map<String, Slices> byName = new HashMap<>();
+
+    @Override
+    public void add(String user, int offset, int length) {
+      Slices messages = byName.get(user);
+      if (messages == null) byName.put(user, messages = new Slices());
+      messages.add(offset, length);
+    }
+
+    @Override
+    public void writeTo(Sink sink) throws IOException {
+      for (Map.Entry<String, Slices> e : byName.entrySet()) {
+        sink.write(bytes(e.getKey()));
+        sink.write(NEW_LINE);
+        Slices messages = e.getValue();
+        for (int i = 0; i < messages.size; i++) {
+          sink.write(INDENT);
+          sink.write(messages.offset(i), messages.length(i));
+          sink.write(NEW_LINE);
+        }
+      }
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  /** Growable list of (offset, length) pairs packed in longs. */
+  private static class Slices {
+    long[] slices = new long[4];
+    int size;
+
+    void add(int offset, int length) {
+      if (size == slices.length) slices = Arrays.copyOf(slices, size * 2);
+      slices[size++] = (long) offset << 32 | length;
+    }
+
+    int offset(int i) {
+      return (int) (slices[i] >>> 32);
+    }
+
+    int length(int i) {
+      return (int) slices[i];
+    }
+  }
+
+  /** Copies byte arrays and slices of the history to a channel. */
+  static class Sink {
+    private final ByteBuffer view;
+    private final FileChannel out;
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(1 << 16);
+
+    Sink(ByteBuffer history, FileChannel out) {
+      view = history.duplicate();
+      this.out = out;
+    }
+
+    void write(byte[] bytes) throws IOException {
+      if (buf.remaining() < bytes.length) flush();
+      if (buf.remaining() < bytes.length) drain(ByteBuffer.wrap(bytes));
+      else buf.put(bytes);
+    }
+
+    void write(byte[] bytes, int offset, int length) throws IOException {
+      if (buf.remaining() < length) flush();
+      if (buf.remaining() < length)
+        drain(ByteBuffer.wrap(bytes, offset, length));
+      else buf.put(bytes, offset, length);
+    }
+
+    /** Write the slice [offset, offset + length) of the history. */
+    void write(int offset, int length) throws IOException {
+      view.clear();
+      view.position(offset);
+      view.limit(offset + length);
+      if (buf.remaining() < length) flush();
+      if (buf.remaining() < length) drain(view);
+      else buf.put(view);
+    }
+
+    void flush() throws IOException {
+      buf.flip();
+      drain(buf);
+      buf.clear();
+    }
+
+    private void drain(ByteBuffer b) throws IOException {
+      while (b.hasRemaining()) out.write(b);
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    final String USAGE = "usage:\n"
+        + "  stdio.WechatMSgProcess inputFilename [memoryBudgetMB]\n"
+        + "  stdio.WechatMSgProcess -incremental|-follow inputFilename\n"
+        + "  stdio.WechatMSgProcess -stats csv|json inputFilename [topK=20]\n"
+        + "  stdio.WechatMSgProcess -columns inputFilename columnsFile\n"
+        + "with a budget, usernames are sorted and grouping spills to disk;\n"
+        + "-incremental only scans the lines appended since the last run,\n"
+        + "-follow also keeps watching the file and prints new messages;\n"
+        + "-stats prints counts per user, day and hour and the top terms;\n"
+        + "-columns writes the messages by column for stdio.ChatColumns";
+    Path out = Paths.get("wechat-out.txt");
+    Path checkpoint = Paths.get("wechat-out.txt.ckpt");
+    if (args.length == 2 && args[0].equals("-incremental")) {
+      processIncremental(Paths.get(args[1]), out, checkpoint, null);
+      return;
+    }
+    if (args.length == 2 && args[0].equals("-follow")) {
+      try {
+        follow(Paths.get(args[1]), out, checkpoint, 1000);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return;
+    }
+    if ((args.length == 3 || args.length == 4) && args[0].equals("-stats")
+        && (args[1].equals("csv") || args[1].equals("json"))) {
+      analyze(Paths.get(args[2]), System.out, args[1].equals("json"),
+          args.length == 4 ? Integer.parseInt(args[3]) : 20,
+          Runtime.getRuntime().availableProcessors());
+      return;
+    }
+    if (args.length == 3 && args[0].equals("-columns")) {
+      writeColumns(Paths.get(args[1]), Paths.get(args[2]),
+          Runtime.getRuntime().availableProcessors());
+      return;
+    }
+    if (args.length != 1 && args.length != 2 || args[0].startsWith("-")) {
+      System.out.println(USAGE);
+      return;
+    }
+    int parallelism = Runtime.getRuntime().availableProcessors();
+    if (args.length == 1) process(Paths.get(args[0]), out, parallelism);
+    else processSorted(Paths.get(args[0]), out,
+        Long.parseLong(args[1]) << 20, parallelism);
   }
 }
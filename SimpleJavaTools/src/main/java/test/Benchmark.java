@@ -0,0 +1,143 @@
+package test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Measures a tested method case by case. Each case is first run for the
+ * warmup iterations, then timed for the measured iterations. A sample times a
+ * batch of calls long enough to hide the cost of {@link System#nanoTime()},
+ * so the latencies reported are the means of batches, divided by the batch
+ * size, not of single calls.
+ * <p>
+ * Cases that fail the correctness check with an error, or that throw or time
+ * out while measured, are skipped. With time budgets, each sample runs on a
+ * thread of {@link Timeouts} and is held to the case budget as a whole, so
+ * samples are made at most a quarter of it long. Otherwise samples run on the
+ * calling thread.
+ */
+final class Benchmark {
+
+	/** Target duration of one sample. */
+	private static final long SAMPLE_NANOS = 1_000_000;
+	private static final int MAX_BATCH = 1 << 20;
+
+	private Benchmark() {
+	}
+
+	static BenchmarkReport run(MethodInvoker invoker, Object[] inputs,
+			Object[] expected, boolean spread, ResultComparator comparator,
+			RunOptions options) {
+		TestReport correctness = CaseRunner.run(invoker, inputs, expected,
+				spread, comparator, options);
+		Set<Integer> failed = new HashSet<>();
+		for (TestReport.Failure f : correctness.getFailures())
+			if (f.getError() != null) failed.add(f.getIndex());
+		Blackhole bh = new Blackhole();
+		List<BenchmarkReport.CaseStats> stats = new ArrayList<>();
+		List<Integer> skipped = new ArrayList<>();
+		long[] samples = new long[options.getIterations()];
+		Timeouts timeouts = Timeouts.start(options);
+		try {
+			for (int i = 0; i < inputs.length; i++) {
+				if (failed.contains(i)) {
+					skipped.add(i);
+					continue;
+				}
+				try {
+					stats.add(measure(timeouts, invoker, i, inputs[i], spread,
+							samples, options.getWarmupIterations(), bh));
+				} catch (InvocationTargetException | TimeoutException e) {
+					skipped.add(i);
+				}
+			}
+		} finally {
+			if (timeouts != null) timeouts.close();
+		}
+		return new BenchmarkReport(correctness, stats, skipped);
+	}
+
+	private static BenchmarkReport.CaseStats measure(Timeouts timeouts,
+			MethodInvoker invoker, int index, Object input, boolean spread,
+			long[] samples, int warmup, Blackhole bh)
+			throws InvocationTargetException, TimeoutException {
+		long target = timeouts == null ? SAMPLE_NANOS
+				: Math.min(SAMPLE_NANOS, timeouts.caseNanos / 4);
+		int batch = 1;
+		for (int w = 0; w < warmup; w++) {
+			long t = time(timeouts, invoker, input, spread, batch, bh);
+			batch = calibrate(batch, t, target);
+		}
+		// early warmup samples may have run interpreted, size the batch once
+		// more with the compiled code
+		batch = calibrate(batch,
+				time(timeouts, invoker, input, spread, batch, bh), target);
+		long total = 0;
+		for (int s = 0; s < samples.length; s++) {
+			samples[s] = time(timeouts, invoker, input, spread, batch, bh);
+			total += samples[s];
+		}
+		Arrays.sort(samples);
+		return new BenchmarkReport.CaseStats(index, input, batch,
+				percentile(samples, 0.5) / batch,
+				percentile(samples, 0.99) / batch,
+				(double) samples[samples.length - 1] / batch,
+				1e9 * batch * samples.length / Math.max(1, total));
+	}
+
+	/** @return the batch size for a sample of about {@code target} ns */
+	private static int calibrate(int batch, long sampleNanos, long target) {
+		return (int) Math.max(1, Math.min(MAX_BATCH,
+				batch * target / Math.max(1, sampleNanos)));
+	}
+
+	/**
+	 * @param timeouts
+	 *            the time budgets, {@code null} to time on the calling thread
+	 */
+	private static long time(Timeouts timeouts, final MethodInvoker invoker,
+			final Object input, final boolean spread, final int batch,
+			final Blackhole bh)
+			throws InvocationTargetException, TimeoutException {
+		if (timeouts == null) return time(invoker, input, spread, batch, bh);
+		return timeouts.call(new Callable<Long>() {
+			@Override
+			public Long call() throws InvocationTargetException {
+				return time(invoker, input, spread, batch, bh);
+			}
+		});
+	}
+
+	private static long time(MethodInvoker invoker, Object input,
+			boolean spread, int batch, Blackhole bh)
+			throws InvocationTargetException {
+		long start = System.nanoTime();
+		if (spread) {
+			Object[] args = (Object[]) input;
+			for (int k = 0; k < batch; k++)
+				bh.consume(invoker.invokeAll(args));
+		} else {
+			for (int k = 0; k < batch; k++)
+				bh.consume(invoker.invoke(input));
+		}
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * Percentile of sorted samples, interpolated linearly between the two
+	 * nearest ranks. With fewer than 100 samples a nearest rank p99 would
+	 * always be the maximum.
+	 */
+	private static double percentile(long[] sorted, double p) {
+		double h = p * (sorted.length - 1);
+		int lo = (int) h;
+		if (lo + 1 >= sorted.length) return sorted[sorted.length - 1];
+		return sorted[lo] + (h - lo) * (sorted[lo + 1] - sorted[lo]);
+	}
+}
@@ -0,0 +1,117 @@
+package test;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Latency and throughput of a tested method measured per test case, plus the
+ * correctness report of the same cases and the cases that were not measured.
+ */
+public class BenchmarkReport {
+
+	/**
+	 * Latency statistics of one test case, in nanoseconds per call. Each
+	 * sample is the mean of a batch of calls, so the percentiles and the
+	 * maximum are those of batch means: a single slow call only shows as a
+	 * share of its batch.
+	 */
+	public static class CaseStats {
+		private final int index;
+		private final Object input;
+		private final int batch;
+		private final double p50, p99, max;
+		private final double opsPerSec;
+
+		CaseStats(int index, Object input, int batch, double p50, double p99,
+				double max, double opsPerSec) {
+			this.index = index;
+			this.input = input;
+			this.batch = batch;
+			this.p50 = p50;
+			this.p99 = p99;
+			this.max = max;
+			this.opsPerSec = opsPerSec;
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		public Object getInput() {
+			return input;
+		}
+
+		/** @return the number of calls of each sample */
+		public int getBatch() {
+			return batch;
+		}
+
+		/** @return the median of the batch means */
+		public double getP50() {
+			return p50;
+		}
+
+		/** @return the 99th percentile of the batch means */
+		public double getP99() {
+			return p99;
+		}
+
+		/** @return the largest batch mean */
+		public double getMax() {
+			return max;
+		}
+
+		public double getOpsPerSec() {
+			return opsPerSec;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%6d %8d %12.1f %12.1f %12.1f %14.0f  %s",
+					index, batch, p50, p99, max, opsPerSec,
+					TestReport.format(input));
+		}
+	}
+
+	private final TestReport correctness;
+	private final List<CaseStats> cases;
+	private final List<Integer> skipped;
+
+	BenchmarkReport(TestReport correctness, List<CaseStats> cases,
+			List<Integer> skipped) {
+		this.correctness = correctness;
+		this.cases = Collections.unmodifiableList(cases);
+		this.skipped = Collections.unmodifiableList(skipped);
+	}
+
+	/** @return the result of checking every case once before measuring */
+	public TestReport getCorrectness() {
+		return correctness;
+	}
+
+	/** @return the statistics of the measured cases, by index */
+	public List<CaseStats> getCases() {
+		return cases;
+	}
+
+	/**
+	 * @return the indexes of the cases that failed the correctness check with
+	 *         an error, or threw or timed out while measured
+	 */
+	public List<Integer> getSkipped() {
+		return skipped;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(correctness.toString());
+		sb.append(String.format("%nns per call, of the means of batches"));
+		sb.append(String.format("%n%6s %8s %12s %12s %12s %14s  %s", "case",
+				"batch", "p50 ns", "p99 ns", "max ns", "ops/s", "input"));
+		for (CaseStats c : cases)
+			sb.append(System.lineSeparator()).append(c);
+		if (!skipped.isEmpty())
+			sb.append(String.format("%nnot measured: %s", skipped));
+		return sb.toString();
+	}
+}
@@ -0,0 +1,16 @@
+package test;
+
+/**
+ * Consumes benchmark results so the JIT cannot treat the computation that
+ * produced them as dead code.
+ */
+final class Blackhole {
+
+	private volatile Object guard = new Object();
+	private Object escaped;
+
+	void consume(Object o) {
+		// never true, but the JIT cannot prove it because guard is volatile
+		if (o == guard) escaped = o;
+	}
+}
@@ -0,0 +1,19 @@
+package test;
+
+import java.util.SplittableRandom;
+
+/**
+ * Generates inputs for differential testing, see
+ * {@link ReflectionTest#diff(String, String, String, String, CaseGenerator, int, long, RunOptions)}.
+ * Implementations must only draw their randomness from the given generator,
+ * so a run is reproducible from its seed.
+ */
+public interface CaseGenerator {
+
+	/**
+	 * @param random
+	 *            the source of randomness for this case
+	 * @return all arguments of one test case
+	 */
+	Object[] next(SplittableRandom random);
+}
@@ -0,0 +1,141 @@
+package test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Runs test cases through a {@link MethodInvoker}, splitting the index range
+ * across a {@link ForkJoinPool} and collecting every failure. With time
+ * budgets, each case is handed to {@link Timeouts} and the pool threads only
+ * wait for the results.
+ */
+final class CaseRunner extends RecursiveAction {
+
+	private static final long serialVersionUID = 1L;
+
+	/** State shared by all subtasks of one run. */
+	private static final class Suite {
+		final MethodInvoker invoker;
+		final Timeouts timeouts;
+		final Object[] inputs;
+		final Object[] expected;
+		final int base;
+		final boolean spread;
+		final ResultComparator comparator;
+		final Collection<TestReport.Failure> failures = new ConcurrentLinkedQueue<>();
+
+		Suite(MethodInvoker invoker, Timeouts timeouts, Object[] inputs,
+				Object[] expected, int base, boolean spread,
+				ResultComparator comparator) {
+			this.invoker = invoker;
+			this.timeouts = timeouts;
+			this.inputs = inputs;
+			this.expected = expected;
+			this.base = base;
+			this.spread = spread;
+			this.comparator = comparator;
+		}
+	}
+
+	private final Suite suite;
+	private final int lo, hi, threshold;
+
+	private CaseRunner(Suite suite, int lo, int hi, int threshold) {
+		this.suite = suite;
+		this.lo = lo;
+		this.hi = hi;
+		this.threshold = threshold;
+	}
+
+	/**
+	 * @param spread
+	 *            whether each input is an {@code Object[]} holding all
+	 *            arguments rather than the only argument
+	 */
+	static TestReport run(MethodInvoker invoker, Object[] inputs,
+			Object[] expected, boolean spread, ResultComparator comparator,
+			RunOptions options) {
+		int n = inputs.length, p = options.getParallelism();
+		ForkJoinPool pool = p == 1 ? null : new ForkJoinPool(p);
+		Timeouts timeouts = Timeouts.start(options);
+		List<TestReport.Failure> failures;
+		try {
+			failures = new ArrayList<>(runBatch(pool, p, timeouts, invoker,
+					inputs, expected, n, 0, spread, comparator));
+		} finally {
+			if (pool != null) pool.shutdown();
+			if (timeouts != null) timeouts.close();
+		}
+		if (options.isOrdered()) failures.sort(
+				Comparator.comparingInt(TestReport.Failure::getIndex));
+		return new TestReport(n, failures.size(), failures);
+	}
+
+	/**
+	 * Run the first {@code n} cases of the given arrays.
+	 * 
+	 * @param pool
+	 *            the pool to run on, {@code null} to run on the calling thread
+	 * @param timeouts
+	 *            the time budgets, {@code null} to invoke the cases directly
+	 * @param base
+	 *            the index of the first case in the whole suite, added to the
+	 *            index of every failure
+	 * @return the failures in completion order
+	 */
+	static Collection<TestReport.Failure> runBatch(ForkJoinPool pool,
+			int parallelism, Timeouts timeouts, MethodInvoker invoker,
+			Object[] inputs, Object[] expected, int n, int base,
+			boolean spread, ResultComparator comparator) {
+		Suite suite = new Suite(invoker, timeouts, inputs, expected, base,
+				spread, comparator);
+		if (pool == null) {
+			// one range that never splits, so nothing is forked to the
+			// common pool and every case runs on the calling thread
+			new CaseRunner(suite, 0, n, Math.max(1, n)).compute();
+		} else pool.invoke(new CaseRunner(suite, 0, n,
+				Math.max(1, n / (parallelism * 8))));
+		return suite.failures;
+	}
+
+	@Override
+	protected void compute() {
+		if (hi - lo > threshold) {
+			int mid = (lo + hi) >>> 1;
+			invokeAll(new CaseRunner(suite, lo, mid, threshold),
+					new CaseRunner(suite, mid, hi, threshold));
+			return;
+		}
+		Object[] inputs = suite.inputs, expected = suite.expected;
+		for (int i = lo; i < hi; i++) {
+			Object output = null;
+			Throwable error = null;
+			try {
+				if (suite.timeouts != null) output = suite.timeouts
+						.call(suite.invoker, inputs[i], suite.spread);
+				else output = suite.spread
+						? suite.invoker.invokeAll((Object[]) inputs[i])
+						: suite.invoker.invoke(inputs[i]);
+			} catch (InvocationTargetException e) {
+				error = e.getCause();
+			} catch (TimeoutException e) {
+				error = e;
+			} catch (RuntimeException e) {
+				error = e;
+			}
+			int mismatch = error != null ? ResultComparator.EQUAL
+					: suite.comparator.mismatch(expected[i], output);
+			if (error != null || mismatch != ResultComparator.EQUAL)
+				suite.failures.add(new TestReport.Failure(suite.base + i,
+						inputs[i],
+						expected[i], output, error, mismatch));
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Pulls test cases lazily from an {@link Iterator} and runs them in fixed
+ * size batches through {@link CaseRunner}, so memory stays constant no
+ * matter how many cases there are. Only the first
+ * {@link RunOptions#getMaxFailures()} failures are kept in the report.
+ */
+final class CaseStream {
+
+	/** Cases per batch and thread. */
+	private static final int BATCH = 4096;
+
+	private CaseStream() {
+	}
+
+	static TestReport run(String className, String methodName,
+			Iterator<TestCase> cases, RunOptions options) {
+		if (!cases.hasNext())
+			throw new IllegalArgumentException("no test cases.");
+		TestCase first = cases.next();
+		MethodInvoker invoker = resolve(className, methodName, first);
+		ResultComparator comparator = ResultComparator.of(
+				first.getExpected() == null ? null
+						: first.getExpected().getClass(),
+				options.getTolerance());
+
+		int p = options.getParallelism(), max = options.getMaxFailures();
+		int size = p == 1 ? BATCH : BATCH * p;
+		Object[] inputs = new Object[size], expected = new Object[size];
+		List<TestReport.Failure> kept = new ArrayList<>();
+		int total = 0, failed = 0;
+		ForkJoinPool pool = p == 1 ? null : new ForkJoinPool(p);
+		Timeouts timeouts = Timeouts.start(options);
+		try {
+			TestCase c = first;
+			while (c != null) {
+				int n = 0;
+				for (; c != null && n < size; n++) {
+					if (c.isSpread() != first.isSpread())
+						throw new IllegalArgumentException("test case "
+								+ (total + n) + " does not have the same shape"
+								+ " as the first test case.");
+					inputs[n] = c.getInput();
+					expected[n] = c.getExpected();
+					c = cases.hasNext() ? cases.next() : null;
+				}
+				List<TestReport.Failure> batch = new ArrayList<>(
+						CaseRunner.runBatch(pool, p, timeouts, invoker, inputs,
+								expected, n, total, first.isSpread(),
+								comparator));
+				if (options.isOrdered()) batch.sort(Comparator
+						.comparingInt(TestReport.Failure::getIndex));
+				failed += batch.size();
+				if (kept.size() < max) kept.addAll(
+						batch.subList(0, Math.min(batch.size(),
+								max - kept.size())));
+				total += n;
+			}
+		} finally {
+			if (pool != null) pool.shutdown();
+			if (timeouts != null) timeouts.close();
+		}
+		return new TestReport(total, failed, kept);
+	}
+
+	private static MethodInvoker resolve(String className, String methodName,
+			TestCase first) {
+		Object input = first.getInput();
+		Class<?>[] types = first.isSpread()
+				? ReflectionTest.typesOf((Object[]) input)
+				: new Class<?>[] { input == null ? null : input.getClass() };
+		return ReflectionTest.resolveOrThrow(className, methodName, types);
+	}
+}
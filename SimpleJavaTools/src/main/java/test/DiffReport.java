@@ -0,0 +1,62 @@
+package test;
+
+/**
+ * The result of running a reference and a candidate implementation on the
+ * same generated cases: the cases where they disagree and the time each one
+ * took.
+ */
+public class DiffReport {
+
+	private final TestReport mismatches;
+	private final long referenceNanos;
+	private final long candidateNanos;
+
+	DiffReport(TestReport mismatches, long referenceNanos,
+			long candidateNanos) {
+		this.mismatches = mismatches;
+		this.referenceNanos = referenceNanos;
+		this.candidateNanos = candidateNanos;
+	}
+
+	/**
+	 * @return the cases where the candidate's output, or the class of what it
+	 *         threw, differs from the reference, with the reference's result
+	 *         as the expected value
+	 */
+	public TestReport getMismatches() {
+		return mismatches;
+	}
+
+	/** @return time spent in the reference, summed over all threads */
+	public long getReferenceNanos() {
+		return referenceNanos;
+	}
+
+	/** @return time spent in the candidate, summed over all threads */
+	public long getCandidateNanos() {
+		return candidateNanos;
+	}
+
+	/** @return reference calls per second of thread time */
+	public double getReferenceOpsPerSec() {
+		return 1e9 * mismatches.getTotal() / Math.max(1, referenceNanos);
+	}
+
+	/** @return candidate calls per second of thread time */
+	public double getCandidateOpsPerSec() {
+		return 1e9 * mismatches.getTotal() / Math.max(1, candidateNanos);
+	}
+
+	/** @return how many times faster the candidate is than the reference */
+	public double getSpeedup() {
+		return (double) referenceNanos / Math.max(1, candidateNanos);
+	}
+
+	@Override
+	public String toString() {
+		return mismatches + String.format(
+				"%nreference %.0f ops/s, candidate %.0f ops/s, speedup %.2fx",
+				getReferenceOpsPerSec(), getCandidateOpsPerSec(),
+				getSpeedup());
+	}
+}
@@ -0,0 +1,198 @@
+package test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs a reference and a candidate implementation on generated cases across a
+ * {@link ForkJoinPool}. Cases are generated in fixed size chunks, each from
+ * its own random generator derived from the seed and the chunk index, so the
+ * cases do not depend on the parallelism. Within a chunk, all cases are
+ * generated first, then each implementation runs over the whole chunk under a
+ * single timer.
+ */
+final class Differential extends RecursiveAction {
+
+	private static final long serialVersionUID = 1L;
+
+	/** Cases per chunk. */
+	private static final int CHUNK = 1024;
+	private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+	/** State shared by all subtasks of one run. */
+	private static final class Run {
+		final MethodInvoker reference, candidate;
+		final CaseGenerator generator;
+		final long seed;
+		final int cases;
+		final double tolerance;
+		final int maxFailures;
+		final boolean ordered;
+		/**
+		 * At most {@link #maxFailures} failures: the first to be added, or if
+		 * ordered, those of the lowest indexes in a heap with the highest on
+		 * top, guarded by itself.
+		 */
+		final Queue<TestReport.Failure> failures;
+		final AtomicInteger failed = new AtomicInteger();
+		final LongAdder referenceNanos = new LongAdder();
+		final LongAdder candidateNanos = new LongAdder();
+
+		Run(MethodInvoker reference, MethodInvoker candidate,
+				CaseGenerator generator, long seed, int cases,
+				RunOptions options) {
+			this.reference = reference;
+			this.candidate = candidate;
+			this.generator = generator;
+			this.seed = seed;
+			this.cases = cases;
+			this.tolerance = options.getTolerance();
+			this.maxFailures = options.getMaxFailures();
+			this.ordered = options.isOrdered();
+			failures = ordered
+					? new PriorityQueue<>(Comparator.comparingInt(
+							TestReport.Failure::getIndex).reversed())
+					: new ConcurrentLinkedQueue<TestReport.Failure>();
+		}
+
+		/** Count a failure and keep it if it is among the reported ones. */
+		void fail(TestReport.Failure failure) {
+			int n = failed.getAndIncrement();
+			if (!ordered) {
+				if (n < maxFailures) failures.add(failure);
+				return;
+			}
+			synchronized (failures) {
+				failures.add(failure);
+				if (failures.size() > maxFailures) failures.poll();
+			}
+		}
+	}
+
+	private final Run run;
+	private final int loChunk, hiChunk;
+
+	private Differential(Run run, int loChunk, int hiChunk) {
+		this.run = run;
+		this.loChunk = loChunk;
+		this.hiChunk = hiChunk;
+	}
+
+	static DiffReport run(String refClass, String refMethod,
+			String candidateClass, String candidateMethod,
+			CaseGenerator generator, int cases, long seed,
+			RunOptions options) {
+		if (cases < 1) throw new IllegalArgumentException("no test cases.");
+		Class<?>[] types = ReflectionTest
+				.typesOf(generator.next(new SplittableRandom(seed)));
+		Run run = new Run(
+				ReflectionTest.resolveOrThrow(refClass, refMethod, types),
+				ReflectionTest.resolveOrThrow(candidateClass,
+						candidateMethod, types),
+				generator, seed, cases, options);
+		int chunks = (cases + CHUNK - 1) / CHUNK;
+		int p = options.getParallelism();
+		if (p == 1) {
+			// chunk by chunk in order, nothing is forked to the common pool
+			for (int c = 0; c < chunks; c++)
+				new Differential(run, c, c + 1).compute();
+		} else {
+			ForkJoinPool pool = new ForkJoinPool(p);
+			try {
+				pool.invoke(new Differential(run, 0, chunks));
+			} finally {
+				pool.shutdown();
+			}
+		}
+		List<TestReport.Failure> failures = new ArrayList<>(run.failures);
+		if (options.isOrdered()) failures.sort(
+				Comparator.comparingInt(TestReport.Failure::getIndex));
+		return new DiffReport(
+				new TestReport(cases, run.failed.get(), failures),
+				run.referenceNanos.sum(), run.candidateNanos.sum());
+	}
+
+	@Override
+	protected void compute() {
+		if (hiChunk - loChunk > 1) {
+			int mid = (loChunk + hiChunk) >>> 1;
+			invokeAll(new Differential(run, loChunk, mid),
+					new Differential(run, mid, hiChunk));
+			return;
+		}
+		int base = loChunk * CHUNK, n = Math.min(CHUNK, run.cases - base);
+		SplittableRandom random = new SplittableRandom(
+				run.seed + (loChunk + 1) * GOLDEN_GAMMA);
+		Object[][] args = new Object[n][];
+		for (int i = 0; i < n; i++)
+			args[i] = run.generator.next(random);
+		Object[] expected = new Object[n], output = new Object[n];
+		// alternate which implementation runs first to even out cache effects
+		if ((loChunk & 1) == 0) {
+			run.referenceNanos.add(time(run.reference, args, expected));
+			run.candidateNanos.add(time(run.candidate, args, output));
+		} else {
+			run.candidateNanos.add(time(run.candidate, args, output));
+			run.referenceNanos.add(time(run.reference, args, expected));
+		}
+		ResultComparator comparator = null;
+		for (int i = 0; i < n; i++) {
+			Object e = expected[i], o = output[i];
+			if (e instanceof Thrown || o instanceof Thrown) {
+				if (e instanceof Thrown && o instanceof Thrown
+						&& ((Thrown) e).sameAs((Thrown) o))
+					continue;
+				run.fail(new TestReport.Failure(base + i, args[i],
+						unwrap(e), o instanceof Thrown ? null : o,
+						o instanceof Thrown ? ((Thrown) o).error : null, -1));
+				continue;
+			}
+			if (comparator == null) comparator = ResultComparator.of(
+					e == null ? null : e.getClass(), run.tolerance);
+			int mismatch = comparator.mismatch(e, o);
+			if (mismatch != ResultComparator.EQUAL)
+				run.fail(new TestReport.Failure(base + i, args[i], e, o,
+						null, mismatch));
+		}
+	}
+
+	private static long time(MethodInvoker invoker, Object[][] args,
+			Object[] results) {
+		long start = System.nanoTime();
+		for (int i = 0; i < args.length; i++) {
+			try {
+				results[i] = invoker.invokeAll(args[i]);
+			} catch (InvocationTargetException e) {
+				results[i] = new Thrown(e.getCause());
+			}
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static Object unwrap(Object result) {
+		return result instanceof Thrown ? ((Thrown) result).error : result;
+	}
+
+	/** Marks a result that is an exception thrown by the implementation. */
+	private static final class Thrown {
+		final Throwable error;
+
+		Thrown(Throwable error) {
+			this.error = error;
+		}
+
+		boolean sameAs(Thrown other) {
+			return error.getClass() == other.error.getClass();
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package test;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+/**
+ * Invokes a tested method through a {@link MethodHandle} resolved once,
+ * instead of going through {@link Method#invoke} for every test case.
+ * <p>
+ * The handle is bound to the target instance (ignored for static methods) and
+ * adapted to the erased shape {@code (Object)Object} for single parameter
+ * methods or {@code (Object[])Object} otherwise, so the per call cost is an
+ * {@code invokeExact} without access checks or a varargs array.
+ */
+final class MethodInvoker {
+
+	private static final MethodType SINGLE = MethodType
+			.methodType(Object.class, Object.class);
+	private static final MethodType SPREAD = MethodType
+			.methodType(Object.class, Object[].class);
+
+	private final MethodHandle handle;
+	private final boolean spread;
+
+	/**
+	 * @param m
+	 *            the public method to be invoked
+	 * @param target
+	 *            the instance to invoke {@code m} on, ignored if {@code m} is
+	 *            static
+	 * @throws IllegalAccessException
+	 *             if {@code m} is not accessible
+	 */
+	MethodInvoker(Method m, Object target) throws IllegalAccessException {
+		MethodHandle mh = MethodHandles.publicLookup().unreflect(m)
+				.asFixedArity();
+		if (!Modifier.isStatic(m.getModifiers())) mh = mh.bindTo(target);
+		int n = m.getParameterTypes().length;
+		spread = n != 1;
+		if (spread) handle = mh.asSpreader(Object[].class, n).asType(SPREAD);
+		else handle = mh.asType(SINGLE);
+	}
+
+	/**
+	 * Invoke a method that takes one parameter.
+	 *
+	 * @param arg
+	 *            the only argument
+	 * @return the method's return value, {@code null} for void methods
+	 * @throws InvocationTargetException
+	 *             wrapping anything thrown by the method or while adapting the
+	 *             argument to the parameter type
+	 */
+	Object invoke(Object arg) throws InvocationTargetException {
+		if (spread) return invokeAll(new Object[] { arg });
+		try {
+			return (Object) handle.invokeExact(arg);
+		} catch (Throwable t) {
+			throw new InvocationTargetException(t);
+		}
+	}
+
+	/**
+	 * Invoke a method with all of its arguments given in an array.
+	 *
+	 * @param args
+	 *            the arguments, one per parameter
+	 * @return the method's return value, {@code null} for void methods
+	 * @throws InvocationTargetException
+	 *             wrapping anything thrown by the method or while adapting the
+	 *             arguments to the parameter types
+	 */
+	Object invokeAll(Object[] args) throws InvocationTargetException {
+		try {
+			if (spread) return (Object) handle.invokeExact(args);
+			return (Object) handle.invokeExact(args[0]);
+		} catch (Throwable t) {
+			throw new InvocationTargetException(t);
+		}
+	}
+}
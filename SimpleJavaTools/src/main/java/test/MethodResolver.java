@@ -0,0 +1,171 @@
+package test;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Resolves {@code className.methodName} for a list of argument types to a
+ * {@link MethodInvoker} and caches the result, so repeated assertions on the
+ * same method skip {@code Class.forName}, the method lookup and the target
+ * instantiation.
+ * <p>
+ * Argument types are the runtime classes of the test inputs, which are always
+ * boxed. A parameter declared as a primitive matches its wrapper class, so
+ * methods taking {@code int}, {@code long} or {@code double} are found too.
+ * Among overloads that all accept the arguments, the most specific one wins,
+ * as javac would choose it, and if none is more specific than all the others
+ * the call is rejected as ambiguous.
+ */
+final class MethodResolver {
+
+	private static final ConcurrentMap<Key, MethodInvoker> INVOKERS = new ConcurrentHashMap<>();
+	private static final ConcurrentMap<Class<?>, Object> INSTANCES = new ConcurrentHashMap<>();
+
+	private MethodResolver() {
+	}
+
+	/**
+	 * @param className
+	 *            the class to be tested, including its package name
+	 * @param methodName
+	 *            the method to be tested
+	 * @param argTypes
+	 *            the classes of the arguments, {@code null} for a null argument
+	 * @return an invoker for the most specific public method
+	 * @throws NoSuchMethodException
+	 *             if no method accepts the arguments, or several do and none
+	 *             is more specific than the others
+	 */
+	static MethodInvoker resolve(String className, String methodName,
+			Class<?>... argTypes) throws ClassNotFoundException,
+			NoSuchMethodException, InstantiationException,
+			IllegalAccessException {
+		Key key = new Key(className, methodName, argTypes);
+		MethodInvoker invoker = INVOKERS.get(key);
+		if (invoker == null) {
+			Class<?> c = Class.forName(className);
+			Method m = findMethod(c, methodName, argTypes);
+			Object o = Modifier.isStatic(m.getModifiers()) ? null
+					: instanceOf(c);
+			invoker = new MethodInvoker(m, o);
+			MethodInvoker prev = INVOKERS.putIfAbsent(key, invoker);
+			if (prev != null) invoker = prev;
+		}
+		return invoker;
+	}
+
+	private static Object instanceOf(Class<?> c)
+			throws InstantiationException, IllegalAccessException {
+		Object o = INSTANCES.get(c);
+		if (o == null) {
+			o = c.newInstance();
+			Object prev = INSTANCES.putIfAbsent(c, o);
+			if (prev != null) o = prev;
+		}
+		return o;
+	}
+
+	private static Method findMethod(Class<?> c, String methodName,
+			Class<?>[] argTypes) throws NoSuchMethodException {
+		List<Method> candidates = new ArrayList<>();
+		for (Method m : c.getMethods())
+			if (m.getName().equals(methodName) && !m.isBridge()
+					&& accepts(m.getParameterTypes(), argTypes))
+				candidates.add(m);
+		if (candidates.isEmpty()) throw new NoSuchMethodException(
+				c.getName() + "." + methodName + Arrays.toString(argTypes));
+		Method best = candidates.get(0);
+		for (Method m : candidates)
+			if (moreSpecific(m, best)) best = m;
+		for (Method m : candidates)
+			if (m != best && !moreSpecific(best, m))
+				throw new NoSuchMethodException(c.getName() + "."
+						+ methodName + Arrays.toString(argTypes)
+						+ " is ambiguous: " + best + " and " + m);
+		return best;
+	}
+
+	/** @return whether the arguments can be passed to the parameters */
+	private static boolean accepts(Class<?>[] params, Class<?>[] argTypes) {
+		if (params.length != argTypes.length) return false;
+		for (int i = 0; i < params.length; i++) {
+			Class<?> p = params[i], a = argTypes[i];
+			if (a == null ? p.isPrimitive()
+					: p.isPrimitive() ? wrap(p) != a : !p.isAssignableFrom(a))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Like javac, {@code m1} is more specific than {@code m2} if every
+	 * parameter type of {@code m1} can be passed as the one of {@code m2},
+	 * and not the other way round. A primitive counts as its wrapper, and
+	 * between the two the wrapper is more specific, as the arguments are
+	 * boxed and javac would prefer the overload without unboxing.
+	 */
+	private static boolean moreSpecific(Method m1, Method m2) {
+		Class<?>[] p1 = m1.getParameterTypes(), p2 = m2.getParameterTypes();
+		boolean narrower = true, wider = true;
+		int unboxed = 0;
+		for (int i = 0; i < p1.length; i++) {
+			Class<?> b1 = box(p1[i]), b2 = box(p2[i]);
+			narrower &= b2.isAssignableFrom(b1);
+			wider &= b1.isAssignableFrom(b2);
+			unboxed += (p1[i].isPrimitive() ? 1 : 0)
+					- (p2[i].isPrimitive() ? 1 : 0);
+		}
+		if (narrower != wider) return narrower;
+		return narrower && unboxed < 0;
+	}
+
+	private static Class<?> box(Class<?> c) {
+		return c.isPrimitive() ? wrap(c) : c;
+	}
+
+	private static Class<?> wrap(Class<?> primitive) {
+		if (primitive == int.class) return Integer.class;
+		if (primitive == long.class) return Long.class;
+		if (primitive == double.class) return Double.class;
+		if (primitive == boolean.class) return Boolean.class;
+		if (primitive == char.class) return Character.class;
+		if (primitive == byte.class) return Byte.class;
+		if (primitive == short.class) return Short.class;
+		if (primitive == float.class) return Float.class;
+		return Void.class;
+	}
+
+	private static final class Key {
+		private final String className;
+		private final String methodName;
+		private final Class<?>[] argTypes;
+		private final int hash;
+
+		Key(String className, String methodName, Class<?>[] argTypes) {
+			this.className = className;
+			this.methodName = methodName;
+			this.argTypes = argTypes;
+			hash = (className.hashCode() * 31 + methodName.hashCode()) * 31
+					+ Arrays.hashCode(argTypes);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) return false;
+			Key k = (Key) obj;
+			return hash == k.hash && className.equals(k.className)
+					&& methodName.equals(k.methodName)
+					&& Arrays.equals(argTypes, k.argTypes);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+}
@@ -1,243 +1,505 @@
-package test;
-
-import java.lang.reflect.Array;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Map;
-
-/**
- * Uses reflection to test a class's method with provided inputs and expected
- * results. The names of the class and method are specified as String
- * parameters. The {@code className} parameter should include its package name.
- * <p>
- * If one of the test cases fail, the program will print out the failed test and
- * exit.
- */
-@SuppressWarnings("unchecked")
-public class ReflectionTest {
-
-	private final static String SUCCESS = "Congrats! All tests passed.";
-
-	/**
-	 * Test method as if calling {@code className.methodName()} assuming only
-	 * one parameter for the tested method.
-	 * 
-	 * @param <T>
-	 *            method input type
-	 * @param <R>
-	 *            method return type
-	 * @param className
-	 *            the class to be tested
-	 * @param methodName
-	 *            the method to be tested
-	 * @param inputs
-	 *            an array containing all test cases' inputs
-	 * @param expected
-	 *            an array containing all expected results
-	 */
-	public static <T, R> void assertEqual(String className, String methodName,
-			T[] inputs, R[] expected) {
-		validateLengths(inputs, expected);
-		try {
-			// use reflection to get the type of class indicated by "className"
-			Class<?> c = Class.forName(className);
-			Class<T> inputType = (Class<T>) inputs[0].getClass();
-			Method m = c.getMethod(methodName, inputType);
-			// static methods will ignore this instance
-			Object o = c.newInstance();
-			for (int i = 0; i < inputs.length; i++) {
-				R e = expected[i];
-				R output = (R) m.invoke(o, inputs[i]);
-				if (e.getClass().isArray()) {
-					int n = Array.getLength(e);
-					for (int j = 0; j < n; j++) {
-						if (!Array.get(e, j).equals(Array.get(output, j))) {
-							System.out.println("test failed for "
-									+ Arrays.asList(inputs[i]) + " expected "
-									+ Arrays.asList(e) + ", output "
-									+ Arrays.asList(output));
-							System.exit(-1);
-						}
-					}
-				} else if (!e.equals(output)) {
-					System.out.println("test:\n " + inputs[i] + "failed, "
-							+ " expected " + expected + ", output " + output);
-					System.exit(-1);
-				}
-
-			}
-			System.out.println(SUCCESS);
-		} catch (ClassNotFoundException | IllegalAccessException
-				| IllegalArgumentException | InvocationTargetException
-				| NoSuchMethodException | SecurityException
-				| InstantiationException e) {
-			e.printStackTrace();
-		}
-	}
-
-	/**
-	 * Test method as if calling {@code className.methodName()} assuming the
-	 * tested method has only one parameter.
-	 * 
-	 * @param <T>
-	 *            method input type
-	 * @param <R>
-	 *            method return type
-	 * @param className
-	 *            the class to be tested
-	 * @param methodName
-	 *            the method to be tested
-	 * @param tests
-	 *            a map containing the test inputs and expected results
-	 */
-	public static <T, R> void assertEqual(String className, String methodName,
-			Map<T, R> tests) {
-		T[] inputs = (T[]) tests.keySet().toArray();
-		R[] expected = (R[]) tests.values().toArray();
-		assertEqual(className, methodName, inputs, expected);
-	}
-
-	/**
-	 * Test method as if calling {@code className.methodName()} assuming the
-	 * tested method has only one parameter.
-	 * 
-	 * @param <T>
-	 *            method input type
-	 * @param <R>
-	 *            method return type
-	 * @param className
-	 *            the class to be tested
-	 * @param methodName
-	 *            the method to be tested
-	 * @param inputs
-	 *            a list containing all test cases' inputs
-	 * @param expected
-	 *            a list containing all expected results
-	 */
-	public static <T, R> void assertEqual(String className, String methodName,
-			List<T> inputs, List<R> expected) {
-		T[] inputs1 = (T[]) inputs.toArray();
-		R[] expected1 = (R[]) expected.toArray();
-		assertEqual(className, methodName, inputs1, expected1);
-
-	}
-
-	/**
-	 * Test method as if calling {@code className.methodName()}, the method can
-	 * have multiple parameters.
-	 * 
-	 * @param <T>
-	 *            method input type
-	 * @param <R>
-	 *            method return type
-	 * @param className
-	 *            the class to be tested
-	 * @param methodName
-	 *            the method to be tested
-	 * @param inputs
-	 *            a list containing all test cases' inputs
-	 * @param expected
-	 *            a list containing all expected results
-	 */
-	public static <R> void assertMPEqual(String className, String methodName,
-			List<Object[]> inputs, List<R> expected) {
-		Object[][] inputs1 = (Object[][]) inputs.toArray();
-		R[] expected1 = (R[]) expected.toArray();
-		assertMPEqual(className, methodName, inputs1, expected1);
-	}
-
-	/**
-	 * Test method as if calling {@code className.methodName()}, the method can
-	 * have multiple parameters.
-	 * 
-	 * @param <T>
-	 *            method input type
-	 * @param <R>
-	 *            method return type
-	 * @param className
-	 *            the class to be tested
-	 * @param methodName
-	 *            the method to be tested
-	 * @param inputs
-	 *            an array containing all test cases' inputs
-	 * @param expected
-	 *            an array containing all expected results
-	 */
-	public static <R> void assertMPEqual(String className, String methodName,
-			Object[][] inputs, R[] expected) {
-		validateLengths(inputs, expected);
-		try {
-			Class<?> c = Class.forName(className);
-			int n = inputs[0].length;
-			Class<?>[] inputTypes = new Class<?>[n];
-			for (int i = 0; i < n; i++) {
-				inputTypes[i] = inputs[0][i].getClass();
-			}
-			Method m = c.getMethod(methodName, inputTypes);
-			Object o = c.newInstance();
-			for (int i = 0; i < inputs.length; i++) {
-				R e = expected[i];
-				R output = (R) m.invoke(o, inputs[i]);
-				if (e.getClass().isArray()) {
-					int n1 = Array.getLength(e);
-					for (int j = 0; j < n1; j++) {
-						if (!Array.get(e, j).equals(Array.get(output, j))) {
-							System.out.println("test failed for "
-									+ Arrays.asList(inputs[i]) + " expected "
-									+ Arrays.asList(e) + ", output "
-									+ Arrays.asList(output));
-							System.exit(-1);
-						}
-					}
-				} else if (!e.equals(output)) {
-					System.out.println("test:\n " + inputs[i] + "failed, "
-							+ " expected " + expected + ", output " + output);
-					System.exit(-1);
-				}
-
-			}
-			System.out.println(SUCCESS);
-
-		} catch (ClassNotFoundException | IllegalAccessException
-				| IllegalArgumentException | InvocationTargetException
-				| NoSuchMethodException | SecurityException
-				| InstantiationException e) {
-			e.printStackTrace();
-		}
-	}
-
-	/**
-	 * Test method as if calling {@code className.methodName()} assuming the
-	 * tested method has multiple input parameters.
-	 * 
-	 * @param <T>
-	 *            method input type
-	 * @param <R>
-	 *            method return type
-	 * @param className
-	 *            the class to be tested
-	 * @param methodName
-	 *            the method to be tested
-	 * @param tests
-	 *            a map containing the test inputs and expected results
-	 */
-	public static <T, R> void assertMPEqual(String className, String methodName,
-			Map<T, R> tests) {
-		Object[][] inputs = (Object[][]) tests.keySet().toArray();
-		R[] expected = (R[]) tests.values().toArray();
-		assertMPEqual(className, methodName, inputs, expected);
-	}
-
-	private static <T, R> void validateLengths(T[] inputs, R[] expected) {
-		if (inputs.length != expected.length) {
-			System.out.println("inputs and expected lengths do not match.");
-			System.exit(-1);
-		}
-	}
-
-	public static void main(String[] args) {
-		System.out.println("Hello World.");
-	}
-}
+package test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+
+/**
+ * Uses reflection to test a class's method with provided inputs and expected
+ * results. The names of the class and method are specified as String
+ * parameters. The {@code className} parameter should include its package name.
+ * Methods with primitive parameters are matched by the wrapper classes of the
+ * inputs, and resolved methods are cached across calls.
+ * <p>
+ * If one of the test cases fail, the {@code assert*} methods will print out the
+ * failed test and exit. The {@code check*} methods instead run every test case,
+ * in parallel if configured by {@link RunOptions}, and return a
+ * {@link TestReport} with all failures.
+ */
+@SuppressWarnings("unchecked")
+public class ReflectionTest {
+
+	private final static String SUCCESS = "Congrats! All tests passed.";
+	private final static int FILE_BUFFER = 1 << 16;
+
+	/**
+	 * Test method as if calling {@code className.methodName()} assuming only
+	 * one parameter for the tested method.
+	 * 
+	 * @param <T>
+	 *            method input type
+	 * @param <R>
+	 *            method return type
+	 * @param className
+	 *            the class to be tested
+	 * @param methodName
+	 *            the method to be tested
+	 * @param inputs
+	 *            an array containing all test cases' inputs
+	 * @param expected
+	 *            an array containing all expected results
+	 */
+	public static <T, R> void assertEqual(String className, String methodName,
+			T[] inputs, R[] expected) {
+		validateLengths(inputs, expected);
+		try {
+			// resolved once per class, method and input type, then cached
+			MethodInvoker invoker = MethodResolver.resolve(className,
+					methodName, inputs[0].getClass());
+			ResultComparator comparator = ResultComparator
+					.of(expected[0].getClass(), 0);
+			for (int i = 0; i < inputs.length; i++) {
+				R e = expected[i];
+				R output = (R) invoker.invoke(inputs[i]);
+				int j = comparator.mismatch(e, output);
+				if (j != ResultComparator.EQUAL) {
+					System.out.println(new TestReport.Failure(i, inputs[i], e,
+							output, null, j));
+					System.exit(-1);
+				}
+			}
+			System.out.println(SUCCESS);
+		} catch (ClassNotFoundException | IllegalAccessException
+				| IllegalArgumentException | InvocationTargetException
+				| NoSuchMethodException | SecurityException
+				| InstantiationException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Test method as if calling {@code className.methodName()} assuming the
+	 * tested method has only one parameter.
+	 * 
+	 * @param <T>
+	 *            method input type
+	 * @param <R>
+	 *            method return type
+	 * @param className
+	 *            the class to be tested
+	 * @param methodName
+	 *            the method to be tested
+	 * @param tests
+	 *            a map containing the test inputs and expected results
+	 */
+	public static <T, R> void assertEqual(String className, String methodName,
+			Map<T, R> tests) {
+		T[] inputs = (T[]) tests.keySet().toArray();
+		R[] expected = (R[]) tests.values().toArray();
+		assertEqual(className, methodName, inputs, expected);
+	}
+
+	/**
+	 * Test method as if calling {@code className.methodName()} assuming the
+	 * tested method has only one parameter.
+	 * 
+	 * @param <T>
+	 *            method input type
+	 * @param <R>
+	 *            method return type
+	 * @param className
+	 *            the class to be tested
+	 * @param methodName
+	 *            the method to be tested
+	 * @param inputs
+	 *            a list containing all test cases' inputs
+	 * @param expected
+	 *            a list containing all expected results
+	 */
+	public static <T, R> void assertEqual(String className, String methodName,
+			List<T> inputs, List<R> expected) {
+		T[] inputs1 = (T[]) inputs.toArray();
+		R[] expected1 = (R[]) expected.toArray();
+		assertEqual(className, methodName, inputs1, expected1);
+
+	}
+
+	/**
+	 * Test method as if calling {@code className.methodName()}, the method can
+	 * have multiple parameters.
+	 * 
+	 * @param <T>
+	 *            method input type
+	 * @param <R>
+	 *            method return type
+	 * @param className
+	 *            the class to be tested
+	 * @param methodName
+	 *            the method to be tested
+	 * @param inputs
+	 *            a list containing all test cases' inputs
+	 * @param expected
+	 *            a list containing all expected results
+	 */
+	public static <R> void assertMPEqual(String className, String methodName,
+			List<Object[]> inputs, List<R> expected) {
+		Object[][] inputs1 = (Object[][]) inputs.toArray();
+		R[] expected1 = (R[]) expected.toArray();
+		assertMPEqual(className, methodName, inputs1, expected1);
+	}
+
+	/**
+	 * Test method as if calling {@code className.methodName()}, the method can
+	 * have multiple parameters.
+	 * 
+	 * @param <T>
+	 *            method input type
+	 * @param <R>
+	 *            method return type
+	 * @param className
+	 *            the class to be tested
+	 * @param methodName
+	 *            the method to be tested
+	 * @param inputs
+	 *            an array containing all test cases' inputs
+	 * @param expected
+	 *            an array containing all expected results
+	 */
+	public static <R> void assertMPEqual(String className, String methodName,
+			Object[][] inputs, R[] expected) {
+		validateLengths(inputs, expected);
+		try {
+			MethodInvoker invoker = MethodResolver.resolve(className,
+					methodName, typesOf(inputs[0]));
+			ResultComparator comparator = ResultComparator
+					.of(expected[0].getClass(), 0);
+			for (int i = 0; i < inputs.length; i++) {
+				R e = expected[i];
+				R output = (R) invoker.invokeAll(inputs[i]);
+				int j = comparator.mismatch(e, output);
+				if (j != ResultComparator.EQUAL) {
+					System.out.println(new TestReport.Failure(i, inputs[i], e,
+							output, null, j));
+					System.exit(-1);
+				}
+			}
+			System.out.println(SUCCESS);
+
+		} catch (ClassNotFoundException | IllegalAccessException
+				| IllegalArgumentException | InvocationTargetException
+				| NoSuchMethodException | SecurityException
+				| InstantiationException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Test method as if calling {@code className.methodName()} assuming the
+	 * tested method has multiple input parameters.
+	 * 
+	 * @param <T>
+	 *            method input type
+	 * @param <R>
+	 *            method return type
+	 * @param className
+	 *            the class to be tested
+	 * @param methodName
+	 *            the method to be tested
+	 * @param tests
+	 *            a map containing the test inputs and expected results
+	 */
+	public static <T, R> void assertMPEqual(String className, String methodName,
+			Map<T, R> tests) {
+		Object[][] inputs = (Object[][]) tests.keySet().toArray();
+		R[] expected = (R[]) tests.values().toArray();
+		assertMPEqual(className, methodName, inputs, expected);
+	}
+
+	/**
+	 * Test method as if calling {@code className.methodName()} assuming only
+	 * one parameter for the tested method. Unlike {@code assertEqual}, all
+	 * test cases are run, possibly in parallel, and every failure is reported.
+	 * 
+	 * @param <T>
+	 *            method input type
+	 * @param <R>
+	 *            method return type
+	 * @param className
+	 *            the class to be tested
+	 * @param methodName
+	 *            the method to be tested
+	 * @param inputs
+	 *            an array containing all test cases' inputs
+	 * @param expected
+	 *            an array containing all expected results
+	 * @param options
+	 *            parallelism, report ordering, float tolerance and time budgets
+	 * @return the failed test cases
+	 * @throws IllegalArgumentException
+	 *             if the lengths differ or the method cannot be resolved
+	 */
+	public static <T, R> TestReport checkEqual(String className,
+			String methodName, T[] inputs, R[] expected, RunOptions options) {
+		checkLengths(inputs, expected);
+		MethodInvoker invoker = resolveOrThrow(className, methodName,
+				inputs[0].getClass());
+		return CaseRunner.run(invoker, inputs, expected, false,
+				comparatorFor(expected, options), options);
+	}
+
+	/**
+	 * Test method as if calling {@code className.methodName()}, the method can
+	 * have multiple parameters. Unlike {@code assertMPEqual}, all test cases
+	 * are run, possibly in parallel, and every failure is reported.
+	 * 
+	 * @param <R>
+	 *            method return type
+	 * @param className
+	 *            the class to be tested
+	 * @param methodName
+	 *            the method to be tested
+	 * @param inputs
+	 *            an array containing all test cases' inputs
+	 * @param expected
+	 *            an array containing all expected results
+	 * @param options
+	 *            parallelism, report ordering, float tolerance and time budgets
+	 * @return the failed test cases
+	 * @throws IllegalArgumentException
+	 *             if the lengths differ or the method cannot be resolved
+	 */
+	public static <R> TestReport checkMPEqual(String className,
+			String methodName, Object[][] inputs, R[] expected,
+			RunOptions options) {
+		checkLengths(inputs, expected);
+		MethodInvoker invoker = resolveOrThrow(className, methodName,
+				typesOf(inputs[0]));
+		return CaseRunner.run(invoker, inputs, expected, true,
+				comparatorFor(expected, options), options);
+	}
+
+	/**
+	 * Test method as if calling {@code className.methodName()} for test cases
+	 * pulled lazily from {@code cases}, so the whole suite never has to be in
+	 * memory. The method is resolved from the first test case and every case
+	 * must have the same shape, one argument or spread arguments.
+	 * 
+	 * @param className
+	 *            the class to be tested
+	 * @param methodName
+	 *            the method to be tested
+	 * @param cases
+	 *            the test cases
+	 * @param options
+	 *            parallelism, report ordering, float tolerance and the number
+	 *            of failures kept
+	 * @return the failed test cases
+	 * @throws IllegalArgumentException
+	 *             if there are no cases or the method cannot be resolved
+	 */
+	public static TestReport checkStream(String className, String methodName,
+			Iterator<TestCase> cases, RunOptions options) {
+		return CaseStream.run(className, methodName, cases, options);
+	}
+
+	/**
+	 * Same as {@link #checkStream(String, String, Iterator, RunOptions)} for a
+	 * {@link Spliterator}, e.g. from {@code Stream.spliterator()}.
+	 * 
+	 * @param className
+	 *            the class to be tested
+	 * @param methodName
+	 *            the method to be tested
+	 * @param cases
+	 *            the test cases
+	 * @param options
+	 *            parallelism, report ordering, float tolerance and the number
+	 *            of failures kept
+	 * @return the failed test cases
+	 */
+	public static TestReport checkStream(String className, String methodName,
+			Spliterator<TestCase> cases, RunOptions options) {
+		return CaseStream.run(className, methodName,
+				Spliterators.iterator(cases), options);
+	}
+
+	/**
+	 * Test method as if calling {@code className.methodName()} for test cases
+	 * read one line at a time from a UTF-8 text file.
+	 * 
+	 * @param className
+	 *            the class to be tested
+	 * @param methodName
+	 *            the method to be tested
+	 * @param file
+	 *            a file with one test case per line
+	 * @param parser
+	 *            parses a line into a test case, or returns {@code null} to
+	 *            skip the line, e.g. for blank or comment lines
+	 * @param options
+	 *            parallelism, report ordering, float tolerance and the number
+	 *            of failures kept
+	 * @return the failed test cases
+	 * @throws IOException
+	 *             if the file cannot be read
+	 */
+	public static TestReport checkFile(String className, String methodName,
+			Path file, Function<String, TestCase> parser, RunOptions options)
+			throws IOException {
+		try (BufferedReader in = new BufferedReader(
+				new InputStreamReader(Files.newInputStream(file),
+						StandardCharsets.UTF_8),
+				FILE_BUFFER)) {
+			Iterator<TestCase> cases = in.lines().map(parser)
+					.filter(Objects::nonNull).iterator();
+			return CaseStream.run(className, methodName, cases, options);
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Measure method as if calling {@code className.methodName()} assuming
+	 * only one parameter for the tested method. Every case is checked once,
+	 * then timed after warming up, see {@link RunOptions} for time budgets.
+	 * 
+	 * @param <T>
+	 *            method input type
+	 * @param <R>
+	 *            method return type
+	 * @param className
+	 *            the class to be tested
+	 * @param methodName
+	 *            the method to be tested
+	 * @param inputs
+	 *            an array containing all test cases' inputs
+	 * @param expected
+	 *            an array containing all expected results
+	 * @param options
+	 *            warmup and measured iterations, and the options of the
+	 *            correctness check
+	 * @return p50, p99 and max latency of batch means and ops/sec per
+	 *         case, cases that fail or time out are skipped
+	 */
+	public static <T, R> BenchmarkReport benchmark(String className,
+			String methodName, T[] inputs, R[] expected,
+			RunOptions options) {
+		checkLengths(inputs, expected);
+		MethodInvoker invoker = resolveOrThrow(className, methodName,
+				inputs[0].getClass());
+		return Benchmark.run(invoker, inputs, expected, false,
+				comparatorFor(expected, options), options);
+	}
+
+	/**
+	 * Measure method as if calling {@code className.methodName()}, the method
+	 * can have multiple parameters. Every case is checked once, then timed
+	 * after warming up, see {@link RunOptions} for time budgets.
+	 * 
+	 * @param <R>
+	 *            method return type
+	 * @param className
+	 *            the class to be tested
+	 * @param methodName
+	 *            the method to be tested
+	 * @param inputs
+	 *            an array containing all test cases' inputs
+	 * @param expected
+	 *            an array containing all expected results
+	 * @param options
+	 *            warmup and measured iterations, and the options of the
+	 *            correctness check
+	 * @return p50, p99 and max latency of batch means and ops/sec per
+	 *         case, cases that fail or time out are skipped
+	 */
+	public static <R> BenchmarkReport benchmarkMP(String className,
+			String methodName, Object[][] inputs, R[] expected,
+			RunOptions options) {
+		checkLengths(inputs, expected);
+		MethodInvoker invoker = resolveOrThrow(className, methodName,
+				typesOf(inputs[0]));
+		return Benchmark.run(invoker, inputs, expected, true,
+				comparatorFor(expected, options), options);
+	}
+
+	/**
+	 * Differential test: run a reference implementation and a candidate, for
+	 * example an optimized rewrite, on the same generated cases and report
+	 * every case where they disagree, along with the throughput of each.
+	 * Both methods are resolved from the argument types of the first
+	 * generated case.
+	 * 
+	 * @param refClass
+	 *            the class of the reference implementation
+	 * @param refMethod
+	 *            the reference method
+	 * @param candidateClass
+	 *            the class of the candidate implementation
+	 * @param candidateMethod
+	 *            the candidate method
+	 * @param generator
+	 *            generates the arguments of each case
+	 * @param cases
+	 *            number of cases to generate
+	 * @param seed
+	 *            seed of the generated cases, the same seed generates the same
+	 *            cases
+	 * @param options
+	 *            parallelism, report ordering, float tolerance and the number
+	 *            of mismatches kept
+	 * @return the mismatches and the time spent in each implementation
+	 * @throws IllegalArgumentException
+	 *             if a method cannot be resolved
+	 */
+	public static DiffReport diff(String refClass, String refMethod,
+			String candidateClass, String candidateMethod,
+			CaseGenerator generator, int cases, long seed,
+			RunOptions options) {
+		return Differential.run(refClass, refMethod, candidateClass,
+				candidateMethod, generator, cases, seed, options);
+	}
+
+	private static ResultComparator comparatorFor(Object[] expected,
+			RunOptions options) {
+		Class<?> type = expected[0] == null ? null : expected[0].getClass();
+		return ResultComparator.of(type, options.getTolerance());
+	}
+
+	static Class<?>[] typesOf(Object[] args) {
+		Class<?>[] types = new Class<?>[args.length];
+		for (int i = 0; i < args.length; i++) {
+			types[i] = args[i] == null ? null : args[i].getClass();
+		}
+		return types;
+	}
+
+	static MethodInvoker resolveOrThrow(String className,
+			String methodName, Class<?>... argTypes) {
+		try {
+			return MethodResolver.resolve(className, methodName, argTypes);
+		} catch (ClassNotFoundException | IllegalAccessException
+				| NoSuchMethodException | InstantiationException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+
+	private static <T, R> void checkLengths(T[] inputs, R[] expected) {
+		if (inputs.length != expected.length) throw new IllegalArgumentException(
+				"inputs and expected lengths do not match.");
+		if (inputs.length == 0)
+			throw new IllegalArgumentException("no test cases.");
+	}
+
+	private static <T, R> void validateLengths(T[] inputs, R[] expected) {
+		if (inputs.length != expected.length) {
+			System.out.println("inputs and expected lengths do not match.");
+			System.exit(-1);
+		}
+	}
+
+	public static void main(String[] args) {
+		System.out.println("Hello World.");
+	}
+}
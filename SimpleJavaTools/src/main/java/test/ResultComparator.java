@@ -0,0 +1,239 @@
+package test;
+
+/**
+ * Compares a tested method's output with the expected result. A comparator is
+ * picked once per suite from the type of the expected results, so primitive
+ * arrays are compared with a plain loop over the specialized array type
+ * instead of boxing every element through {@code java.lang.reflect.Array}.
+ * Nested arrays such as {@code double[][]} are compared deeply, dispatching
+ * once per row type.
+ */
+abstract class ResultComparator {
+
+	/** Returned by {@link #mismatch} if the output equals the expected. */
+	static final int EQUAL = -1;
+
+	/**
+	 * @param e
+	 *            the expected result
+	 * @param output
+	 *            the output of the tested method
+	 * @return {@link #EQUAL}, or the first index at which two arrays differ
+	 *         (the shorter length if one is a prefix of the other), or 0 if
+	 *         the results are not arrays or not arrays of the same type
+	 */
+	abstract int mismatch(Object e, Object output);
+
+	/**
+	 * @param type
+	 *            the class of the expected results
+	 * @param tolerance
+	 *            maximum absolute difference for {@code float} and
+	 *            {@code double} values to be equal, 0 for exact comparison
+	 * @return a comparator specialized for {@code type}
+	 */
+	static ResultComparator of(Class<?> type, double tolerance) {
+		if (type == int[].class) return INTS;
+		if (type == long[].class) return LONGS;
+		if (type == double[].class) return new Doubles(tolerance);
+		if (type == float[].class) return new Floats(tolerance);
+		if (type == char[].class) return CHARS;
+		if (type == byte[].class) return BYTES;
+		if (type == short[].class) return SHORTS;
+		if (type == boolean[].class) return BOOLEANS;
+		if (type != null && type.isArray()) return new Deep(tolerance);
+		if (tolerance > 0
+				&& (type == Double.class || type == Float.class))
+			return new Scalar(tolerance);
+		return new Generic(tolerance);
+	}
+
+	private static int lengthMismatch(int n1, int n2) {
+		return n1 == n2 ? EQUAL : Math.min(n1, n2);
+	}
+
+	private static boolean equal(double a, double b, double tolerance) {
+		if (Double.doubleToLongBits(a) == Double.doubleToLongBits(b))
+			return true;
+		return Math.abs(a - b) <= tolerance;
+	}
+
+	private static final ResultComparator INTS = new ResultComparator() {
+		@Override
+		int mismatch(Object e, Object output) {
+			if (!(e instanceof int[] && output instanceof int[])) return 0;
+			int[] a = (int[]) e, b = (int[]) output;
+			int n = Math.min(a.length, b.length);
+			for (int i = 0; i < n; i++)
+				if (a[i] != b[i]) return i;
+			return lengthMismatch(a.length, b.length);
+		}
+	};
+
+	private static final ResultComparator LONGS = new ResultComparator() {
+		@Override
+		int mismatch(Object e, Object output) {
+			if (!(e instanceof long[] && output instanceof long[])) return 0;
+			long[] a = (long[]) e, b = (long[]) output;
+			int n = Math.min(a.length, b.length);
+			for (int i = 0; i < n; i++)
+				if (a[i] != b[i]) return i;
+			return lengthMismatch(a.length, b.length);
+		}
+	};
+
+	private static final ResultComparator CHARS = new ResultComparator() {
+		@Override
+		int mismatch(Object e, Object output) {
+			if (!(e instanceof char[] && output instanceof char[])) return 0;
+			char[] a = (char[]) e, b = (char[]) output;
+			int n = Math.min(a.length, b.length);
+			for (int i = 0; i < n; i++)
+				if (a[i] != b[i]) return i;
+			return lengthMismatch(a.length, b.length);
+		}
+	};
+
+	private static final ResultComparator BYTES = new ResultComparator() {
+		@Override
+		int mismatch(Object e, Object output) {
+			if (!(e instanceof byte[] && output instanceof byte[])) return 0;
+			byte[] a = (byte[]) e, b = (byte[]) output;
+			int n = Math.min(a.length, b.length);
+			for (int i = 0; i < n; i++)
+				if (a[i] != b[i]) return i;
+			return lengthMismatch(a.length, b.length);
+		}
+	};
+
+	private static final ResultComparator SHORTS = new ResultComparator() {
+		@Override
+		int mismatch(Object e, Object output) {
+			if (!(e instanceof short[] && output instanceof short[])) return 0;
+			short[] a = (short[]) e, b = (short[]) output;
+			int n = Math.min(a.length, b.length);
+			for (int i = 0; i < n; i++)
+				if (a[i] != b[i]) return i;
+			return lengthMismatch(a.length, b.length);
+		}
+	};
+
+	private static final ResultComparator BOOLEANS = new ResultComparator() {
+		@Override
+		int mismatch(Object e, Object output) {
+			if (!(e instanceof boolean[] && output instanceof boolean[]))
+				return 0;
+			boolean[] a = (boolean[]) e, b = (boolean[]) output;
+			int n = Math.min(a.length, b.length);
+			for (int i = 0; i < n; i++)
+				if (a[i] != b[i]) return i;
+			return lengthMismatch(a.length, b.length);
+		}
+	};
+
+	private static final class Doubles extends ResultComparator {
+		private final double tolerance;
+
+		Doubles(double tolerance) {
+			this.tolerance = tolerance;
+		}
+
+		@Override
+		int mismatch(Object e, Object output) {
+			if (!(e instanceof double[] && output instanceof double[]))
+				return 0;
+			double[] a = (double[]) e, b = (double[]) output;
+			int n = Math.min(a.length, b.length);
+			for (int i = 0; i < n; i++)
+				if (!equal(a[i], b[i], tolerance)) return i;
+			return lengthMismatch(a.length, b.length);
+		}
+	}
+
+	private static final class Floats extends ResultComparator {
+		private final double tolerance;
+
+		Floats(double tolerance) {
+			this.tolerance = tolerance;
+		}
+
+		@Override
+		int mismatch(Object e, Object output) {
+			if (!(e instanceof float[] && output instanceof float[])) return 0;
+			float[] a = (float[]) e, b = (float[]) output;
+			int n = Math.min(a.length, b.length);
+			for (int i = 0; i < n; i++)
+				if (!equal(a[i], b[i], tolerance)) return i;
+			return lengthMismatch(a.length, b.length);
+		}
+	}
+
+	/** Object arrays, including arrays of arrays. */
+	private static final class Deep extends ResultComparator {
+		private final double tolerance;
+
+		Deep(double tolerance) {
+			this.tolerance = tolerance;
+		}
+
+		@Override
+		int mismatch(Object e, Object output) {
+			if (!(e instanceof Object[] && output instanceof Object[]))
+				return 0;
+			Object[] a = (Object[]) e, b = (Object[]) output;
+			int n = Math.min(a.length, b.length);
+			ResultComparator row = null;
+			Class<?> rowType = null;
+			for (int i = 0; i < n; i++) {
+				Object x = a[i];
+				if (x == null || b[i] == null) {
+					if (x != b[i]) return i;
+					continue;
+				}
+				if (x.getClass() != rowType) {
+					rowType = x.getClass();
+					row = of(rowType, tolerance);
+				}
+				if (row.mismatch(x, b[i]) != EQUAL) return i;
+			}
+			return lengthMismatch(a.length, b.length);
+		}
+	}
+
+	/** {@code Double} and {@code Float} results compared with a tolerance. */
+	private static final class Scalar extends ResultComparator {
+		private final double tolerance;
+
+		Scalar(double tolerance) {
+			this.tolerance = tolerance;
+		}
+
+		@Override
+		int mismatch(Object e, Object output) {
+			if (!(e instanceof Number && output instanceof Number)) return 0;
+			return equal(((Number) e).doubleValue(),
+					((Number) output).doubleValue(), tolerance) ? EQUAL : 0;
+		}
+	}
+
+	/**
+	 * Used when the expected type is not known to be an array, so the type is
+	 * checked for every result.
+	 */
+	private static final class Generic extends ResultComparator {
+		private final double tolerance;
+
+		Generic(double tolerance) {
+			this.tolerance = tolerance;
+		}
+
+		@Override
+		int mismatch(Object e, Object output) {
+			if (e == null) return output == null ? EQUAL : 0;
+			if (e.getClass().isArray() || tolerance > 0
+					&& (e instanceof Double || e instanceof Float))
+				return of(e.getClass(), tolerance).mismatch(e, output);
+			return e.equals(output) ? EQUAL : 0;
+		}
+	}
+}
@@ -0,0 +1,154 @@
+package test;
+
+/**
+ * Options for the {@code check*} and {@code benchmark*} methods of
+ * {@link ReflectionTest}, which run all test cases and return a report
+ * instead of exiting on the first failure. Setters return this object so
+ * options can be chained.
+ */
+public class RunOptions {
+
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+	private boolean ordered = true;
+	private double tolerance;
+	private int maxFailures = 1000;
+	private int warmupIterations = 10;
+	private int iterations = 50;
+	private long caseTimeoutMillis;
+	private long suiteTimeoutMillis;
+
+	/**
+	 * @param parallelism
+	 *            number of threads the test cases are split across, 1 runs
+	 *            them on the calling thread
+	 * @return this
+	 */
+	public RunOptions parallelism(int parallelism) {
+		if (parallelism < 1) throw new IllegalArgumentException(
+				"parallelism must be positive: " + parallelism);
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	/**
+	 * @param ordered
+	 *            whether the failures in the report are sorted by test case
+	 *            index, otherwise they are in completion order
+	 * @return this
+	 */
+	public RunOptions ordered(boolean ordered) {
+		this.ordered = ordered;
+		return this;
+	}
+
+	/**
+	 * @param tolerance
+	 *            maximum absolute difference for {@code float} and
+	 *            {@code double} results, or elements of such arrays, to be
+	 *            considered equal
+	 * @return this
+	 */
+	public RunOptions tolerance(double tolerance) {
+		if (!(tolerance >= 0)) throw new IllegalArgumentException(
+				"tolerance must not be negative: " + tolerance);
+		this.tolerance = tolerance;
+		return this;
+	}
+
+	/**
+	 * @param maxFailures
+	 *            maximum number of failures kept in the report of a streamed
+	 *            suite or a differential test, the rest are only counted
+	 * @return this
+	 */
+	public RunOptions maxFailures(int maxFailures) {
+		if (maxFailures < 0) throw new IllegalArgumentException(
+				"maxFailures must not be negative: " + maxFailures);
+		this.maxFailures = maxFailures;
+		return this;
+	}
+
+	/**
+	 * @param warmupIterations
+	 *            number of untimed samples run per case before measuring
+	 * @return this
+	 */
+	public RunOptions warmupIterations(int warmupIterations) {
+		if (warmupIterations < 0) throw new IllegalArgumentException(
+				"warmupIterations must not be negative: " + warmupIterations);
+		this.warmupIterations = warmupIterations;
+		return this;
+	}
+
+	/**
+	 * @param iterations
+	 *            number of timed samples per case
+	 * @return this
+	 */
+	public RunOptions iterations(int iterations) {
+		if (iterations < 1) throw new IllegalArgumentException(
+				"iterations must be positive: " + iterations);
+		this.iterations = iterations;
+		return this;
+	}
+
+	/**
+	 * @param caseTimeoutMillis
+	 *            time budget of each test case, a case running longer is
+	 *            reported as timed out, or not measured by a benchmark, 0
+	 *            for no limit
+	 * @return this
+	 */
+	public RunOptions caseTimeoutMillis(long caseTimeoutMillis) {
+		if (caseTimeoutMillis < 0) throw new IllegalArgumentException(
+				"caseTimeoutMillis must not be negative: " + caseTimeoutMillis);
+		this.caseTimeoutMillis = caseTimeoutMillis;
+		return this;
+	}
+
+	/**
+	 * @param suiteTimeoutMillis
+	 *            time budget of the whole suite, cases not finished by then
+	 *            are reported as timed out, 0 for no limit
+	 * @return this
+	 */
+	public RunOptions suiteTimeoutMillis(long suiteTimeoutMillis) {
+		if (suiteTimeoutMillis < 0) throw new IllegalArgumentException(
+				"suiteTimeoutMillis must not be negative: "
+						+ suiteTimeoutMillis);
+		this.suiteTimeoutMillis = suiteTimeoutMillis;
+		return this;
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	public boolean isOrdered() {
+		return ordered;
+	}
+
+	public double getTolerance() {
+		return tolerance;
+	}
+
+	public int getMaxFailures() {
+		return maxFailures;
+	}
+
+	public int getWarmupIterations() {
+		return warmupIterations;
+	}
+
+	public int getIterations() {
+		return iterations;
+	}
+
+	public long getCaseTimeoutMillis() {
+		return caseTimeoutMillis;
+	}
+
+	public long getSuiteTimeoutMillis() {
+		return suiteTimeoutMillis;
+	}
+}
@@ -0,0 +1,59 @@
+package test;
+
+/**
+ * One test case: the arguments to call the tested method with and the
+ * expected result. Used by the streaming {@code check} methods of
+ * {@link ReflectionTest}, where cases are pulled one at a time instead of
+ * being held in arrays, so duplicate inputs and their order are kept.
+ */
+public class TestCase {
+
+	private final Object input;
+	private final Object expected;
+	private final boolean spread;
+
+	private TestCase(Object input, Object expected, boolean spread) {
+		this.input = input;
+		this.expected = expected;
+		this.spread = spread;
+	}
+
+	/**
+	 * @param input
+	 *            the only argument of the tested method
+	 * @param expected
+	 *            the expected result
+	 * @return a test case for a method with one parameter
+	 */
+	public static TestCase of(Object input, Object expected) {
+		return new TestCase(input, expected, false);
+	}
+
+	/**
+	 * @param args
+	 *            all arguments of the tested method
+	 * @param expected
+	 *            the expected result
+	 * @return a test case for a method with any number of parameters
+	 */
+	public static TestCase ofArgs(Object[] args, Object expected) {
+		return new TestCase(args, expected, true);
+	}
+
+	/**
+	 * @return the only argument, or an {@code Object[]} of all arguments if
+	 *         {@link #isSpread()}
+	 */
+	public Object getInput() {
+		return input;
+	}
+
+	public Object getExpected() {
+		return expected;
+	}
+
+	/** @return whether the input holds all arguments in an array */
+	public boolean isSpread() {
+		return spread;
+	}
+}
@@ -0,0 +1,129 @@
+package test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of running a suite of test cases: the number of cases run and
+ * every failed case.
+ */
+public class TestReport {
+
+	/**
+	 * A failed test case: either the output did not equal the expected result
+	 * or the tested method threw.
+	 */
+	public static class Failure {
+		private final int index;
+		private final Object input;
+		private final Object expected;
+		private final Object output;
+		private final Throwable error;
+		private final int mismatch;
+
+		Failure(int index, Object input, Object expected, Object output,
+				Throwable error, int mismatch) {
+			this.index = index;
+			this.input = input;
+			this.expected = expected;
+			this.output = output;
+			this.error = error;
+			this.mismatch = mismatch;
+		}
+
+		/** @return the index of the test case in the inputs */
+		public int getIndex() {
+			return index;
+		}
+
+		public Object getInput() {
+			return input;
+		}
+
+		public Object getExpected() {
+			return expected;
+		}
+
+		/** @return the output, {@code null} if the method threw */
+		public Object getOutput() {
+			return output;
+		}
+
+		/** @return what the method threw, {@code null} if it returned */
+		public Throwable getError() {
+			return error;
+		}
+
+		/**
+		 * @return the first index at which an array output differs from the
+		 *         expected array, -1 if the results are not arrays or the
+		 *         method threw
+		 */
+		public int getMismatchIndex() {
+			return expected != null && expected.getClass().isArray() ? mismatch
+					: -1;
+		}
+
+		@Override
+		public String toString() {
+			String s = "test " + index + " failed for " + format(input)
+					+ " expected " + format(expected);
+			if (error != null) return s + ", threw " + error;
+			s += ", output " + format(output);
+			if (getMismatchIndex() >= 0)
+				s += ", first difference at " + mismatch;
+			return s;
+		}
+	}
+
+	private final int total;
+	private final int failed;
+	private final List<Failure> failures;
+
+	TestReport(int total, int failed, List<Failure> failures) {
+		this.total = total;
+		this.failed = failed;
+		this.failures = Collections.unmodifiableList(failures);
+	}
+
+	/** @return the number of test cases run */
+	public int getTotal() {
+		return total;
+	}
+
+	/**
+	 * @return the number of failed test cases, which can be more than the
+	 *         failures kept if {@link RunOptions#getMaxFailures()} was reached
+	 */
+	public int getFailed() {
+		return failed;
+	}
+
+	public List<Failure> getFailures() {
+		return failures;
+	}
+
+	public boolean passed() {
+		return failed == 0;
+	}
+
+	@Override
+	public String toString() {
+		if (passed()) return "All " + total + " tests passed.";
+		StringBuilder sb = new StringBuilder();
+		sb.append(failed).append(" of ").append(total)
+				.append(" tests failed");
+		if (failed > failures.size())
+			sb.append(", first ").append(failures.size()).append(" shown");
+		sb.append(':');
+		for (Failure f : failures)
+			sb.append('\n').append(f);
+		return sb.toString();
+	}
+
+	static String format(Object o) {
+		String s = Arrays.deepToString(new Object[] { o });
+		return s.substring(1, s.length() - 1);
+	}
+}
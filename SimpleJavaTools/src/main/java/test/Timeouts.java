@@ -0,0 +1,152 @@
+package test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs test cases on separate threads with a per case and a whole suite time
+ * budget, so a case that loops forever is reported as a timeout instead of
+ * hanging the run.
+ * <p>
+ * A thread running a Java method cannot be stopped safely, so a timed out
+ * case is only interrupted and its thread abandoned. Virtual threads are used
+ * if the JVM has them (Java 21+), found by reflection since the build
+ * targets Java 8. Otherwise a fixed pool of daemon threads, one per unit of
+ * parallelism, is used, so cases that ignore the interrupt hold at most that
+ * many threads. Once they all do, the remaining cases time out waiting for a
+ * thread.
+ */
+final class Timeouts {
+
+	private final ExecutorService executor;
+	/** The budgets, {@code Long.MAX_VALUE} for no limit. */
+	final long caseNanos, suiteNanos;
+	private final long started = System.nanoTime();
+
+	private Timeouts(int parallelism, long caseNanos, long suiteNanos) {
+		this.executor = newExecutor(parallelism);
+		this.caseNanos = caseNanos;
+		this.suiteNanos = suiteNanos;
+	}
+
+	/**
+	 * @return timeouts starting now, {@code null} if {@code options} sets no
+	 *         time budget
+	 */
+	static Timeouts start(RunOptions options) {
+		long c = options.getCaseTimeoutMillis(),
+				s = options.getSuiteTimeoutMillis();
+		if (c == 0 && s == 0) return null;
+		// toNanos saturates at Long.MAX_VALUE, which also means no limit
+		return new Timeouts(options.getParallelism(),
+				c == 0 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(c),
+				s == 0 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(s));
+	}
+
+	/**
+	 * Invoke a test case on another thread and wait for it within the time
+	 * budgets.
+	 * 
+	 * @param spread
+	 *            whether {@code input} is an {@code Object[]} holding all
+	 *            arguments
+	 * @throws TimeoutException
+	 *             if the case did not finish in time, or was not started
+	 *             because the suite budget was used up
+	 */
+	Object call(final MethodInvoker invoker, final Object input,
+			final boolean spread)
+			throws InvocationTargetException, TimeoutException {
+		return call(new Callable<Object>() {
+			@Override
+			public Object call() throws InvocationTargetException {
+				return spread ? invoker.invokeAll((Object[]) input)
+						: invoker.invoke(input);
+			}
+		});
+	}
+
+	/**
+	 * Run a task, such as a batch of invocations of a test case, on another
+	 * thread and wait for it within the time budgets, like a single case.
+	 * 
+	 * @param task
+	 *            may throw {@link InvocationTargetException}
+	 * @throws TimeoutException
+	 *             if the task did not finish in time, or was not started
+	 *             because the suite budget was used up
+	 */
+	<T> T call(final Callable<T> task)
+			throws InvocationTargetException, TimeoutException {
+		long start = System.nanoTime();
+		// elapsed time is a difference of nanoTime values and cannot
+		// overflow, unlike a deadline of start plus a budget
+		long wait = suiteNanos == Long.MAX_VALUE ? caseNanos
+				: Math.min(caseNanos, suiteNanos - (start - started));
+		if (wait <= 0) throw new TimeoutException(
+				"not run, suite time budget used up");
+		final AtomicBoolean running = new AtomicBoolean();
+		Future<T> f = executor.submit(new Callable<T>() {
+			@Override
+			public T call() throws Exception {
+				running.set(true);
+				return task.call();
+			}
+		});
+		try {
+			return f.get(wait, TimeUnit.NANOSECONDS);
+		} catch (TimeoutException e) {
+			f.cancel(true);
+			if (!running.get()) throw new TimeoutException(
+					"not run, every case thread is held by a timed out case");
+			throw new TimeoutException("timed out after "
+					+ (System.nanoTime() - start) / 1_000_000 + " ms");
+		} catch (InterruptedException e) {
+			f.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new TimeoutException("interrupted after "
+					+ (System.nanoTime() - start) / 1_000_000 + " ms");
+		} catch (ExecutionException e) {
+			Throwable t = e.getCause();
+			if (t instanceof InvocationTargetException)
+				throw (InvocationTargetException) t;
+			throw new InvocationTargetException(t);
+		}
+	}
+
+	/** Interrupt the threads of cases that are still running. */
+	void close() {
+		executor.shutdownNow();
+	}
+
+	private static ExecutorService newExecutor(int parallelism) {
+		try {
+			Method m = Executors.class
+					.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) m.invoke(null);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return Executors.newFixedThreadPool(parallelism,
+					new ThreadFactory() {
+						private final AtomicInteger count = new AtomicInteger();
+
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread t = new Thread(r,
+									"test-case-" + count.incrementAndGet());
+							t.setDaemon(true);
+							return t;
+						}
+					});
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package google;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.google.api.client.util.DateTime;
+import com.google.api.services.calendar.Calendar;
+import com.google.api.services.calendar.model.Events;
+
+/**
+ * Compares the time and the round trips of reading 20 calendars one request
+ * after the other, on the thread pool of {@link ReadGcal#fetchEvents} and in
+ * batches, from a {@link FakeCalendarServer} that takes 100 ms per round
+ * trip. Then the same for syncing their caches.
+ * <p>
+ * Run with {@code gradle benchmark -Pbench=google.BatchBenchmark}.
+ */
+public class BatchBenchmark {
+
+	private static final long HOUR = 3600000;
+	private static final int MAX_RESULTS = 15;
+
+	private static FakeCalendarServer server;
+	private static long started;
+
+	public static void main(String[] args) throws IOException {
+		server = new FakeCalendarServer(100);
+		Calendar service = server.service();
+		DateTime timeMin = new DateTime(System.currentTimeMillis());
+		Random random = new Random(3);
+		List<String> ids = new ArrayList<>();
+		for (int c = 0; c < 20; c++) {
+			String id = "cal" + c;
+			ids.add(id);
+			for (int i = 0; i < (c == 0 ? 250 : 40); i++)
+				server.add(id, id + "-" + i, "Event " + c + "/" + i,
+						timeMin.getValue()
+								+ (random.nextInt(200) - 60) * 12 * HOUR,
+						random.nextInt(6) == 0);
+		}
+
+		start();
+		for (String id : ids) {
+			int listed = 0;
+			String token = null;
+			do {
+				Events page = service.events().list(id)
+						.setMaxResults(MAX_RESULTS - listed).setTimeMin(timeMin)
+						.setOrderBy("startTime").setSingleEvents(true)
+						.setPageToken(token).execute();
+				listed += page.getItems().size();
+				token = listed < MAX_RESULTS ? page.getNextPageToken() : null;
+			} while (token != null);
+		}
+		report("list one after the other");
+		start();
+		ReadGcal.fetchEvents(service, ids, timeMin, MAX_RESULTS);
+		report("list on the pool, first pages");
+		start();
+		ReadGcal.fetchEventsBatched(service, ids, timeMin, MAX_RESULTS, null);
+		report("list in batches");
+
+		File sequential = Files.createTempDirectory("calendar-").toFile();
+		File batched = Files.createTempDirectory("calendar-").toFile();
+		try {
+			String[] steps = { "first", "unchanged", "expired" };
+			for (String step : steps) {
+				if (step.equals("expired")) server.expireTokens();
+				start();
+				for (String id : ids) {
+					EventCache cache = EventCache.load(sequential, id);
+					cache.sync(service);
+					cache.save();
+				}
+				report("sync one after the other, " + step);
+				start();
+				ReadGcal.fetchEventsBatched(service, ids, timeMin, MAX_RESULTS,
+						batched);
+				report("sync in batches, " + step);
+			}
+		} finally {
+			for (File dir : new File[] { sequential, batched }) {
+				for (File file : dir.listFiles())
+					file.delete();
+				dir.delete();
+			}
+		}
+	}
+
+	private static void start() {
+		server.roundTrips.set(0);
+		started = System.nanoTime();
+	}
+
+	private static void report(String name) {
+		System.out.printf("%-38s %3d round trips %5d ms%n", name,
+				server.roundTrips.get(),
+				(System.nanoTime() - started) / 1000000);
+	}
+}
@@ -0,0 +1,87 @@
+package google;
+
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Refreshes the event files from a {@link FakeCalendarServer}. */
+public class CalendarDaemonTest {
+
+	private static final long HOUR = 3600000;
+
+	@Rule
+	public final TemporaryFolder tmp = new TemporaryFolder();
+
+	private final FakeCalendarServer server = new FakeCalendarServer(0);
+	private File text;
+	private CalendarDaemon daemon;
+
+	private void start(List<String> calendarIds, long intervalMillis)
+			throws IOException {
+		text = new File(tmp.getRoot(), "events.txt");
+		long[] intervals = new long[calendarIds.size()];
+		Arrays.fill(intervals, intervalMillis);
+		daemon = new CalendarDaemon(server.service(), calendarIds, intervals,
+				tmp.newFolder(), 10, new EventWriter(text.getPath(),
+						new File(tmp.getRoot(), "events.html").getPath()));
+		daemon.start();
+	}
+
+	@After
+	public void stop() throws InterruptedException {
+		if (daemon != null) daemon.stop();
+	}
+
+	/** Wait up to 10 s for the text file to contain {@code s}. */
+	private void awaitText(String s) throws Exception {
+		long deadline = System.currentTimeMillis() + 10000;
+		String content = "";
+		while (System.currentTimeMillis() < deadline) {
+			try {
+				content = new String(Files.readAllBytes(text.toPath()),
+						StandardCharsets.UTF_8);
+			} catch (NoSuchFileException e) {
+				// not written yet
+			}
+			if (content.contains(s)) return;
+			Thread.sleep(10);
+		}
+		throw new AssertionError("no " + s + " in " + content);
+	}
+
+	@Test
+	public void refreshWritesTheChangedEvents() throws Exception {
+		long now = System.currentTimeMillis();
+		server.add("cal0", "a", "First", now + 2 * HOUR, false);
+		server.add("cal1", "b", "Second", now + 3 * HOUR, false);
+		start(Arrays.asList("cal0", "cal1"), 20);
+		awaitText("Second");
+		String first = new String(Files.readAllBytes(text.toPath()),
+				StandardCharsets.UTF_8);
+		assertTrue(first, first.indexOf("First") < first.indexOf("Second"));
+
+		server.rename("cal1", "b", "Renamed");
+		server.add("cal0", "c", "Third", now + 4 * HOUR, false);
+		awaitText("Third");
+		awaitText("Renamed");
+	}
+
+	@Test
+	public void failingCalendarKeepsTheOthers() throws Exception {
+		server.add("cal0", "a", "First", System.currentTimeMillis() + HOUR,
+				false);
+		start(Arrays.asList("missing", "cal0"), 20);
+		awaitText("First");
+	}
+}
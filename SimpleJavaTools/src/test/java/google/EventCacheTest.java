@@ -0,0 +1,172 @@
+package google;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.api.client.util.DateTime;
+import com.google.api.services.calendar.model.Event;
+import com.google.api.services.calendar.model.EventDateTime;
+import com.google.api.services.calendar.model.Events;
+
+/** Syncs a calendar of a {@link FakeCalendarServer} into an EventCache. */
+public class EventCacheTest {
+
+	private static final long HOUR = 3600000;
+	private static final long DAY = 24 * HOUR;
+
+	@Rule
+	public final TemporaryFolder tmp = new TemporaryFolder();
+
+	private final FakeCalendarServer server = new FakeCalendarServer(0);
+	private final long now = System.currentTimeMillis();
+	private File dir;
+
+	/** 250 events, so a full sync takes 3 pages. */
+	@Before
+	public void addEvents() {
+		dir = tmp.getRoot();
+		for (int i = 0; i < 250; i++)
+			server.add("cal", "e" + i, "Event " + i, now + i * HOUR,
+					i % 7 == 0);
+	}
+
+	private static List<String> summaries(List<Event> events) {
+		List<String> summaries = new ArrayList<>();
+		for (Event event : events)
+			summaries.add(event.getId() + " " + event.getSummary());
+		return summaries;
+	}
+
+	private List<String> all(EventCache cache) {
+		return summaries(cache.upcoming(new DateTime(0), Integer.MAX_VALUE));
+	}
+
+	/** @return the round trips of a sync */
+	private int sync(EventCache cache, int changed) throws IOException {
+		server.roundTrips.set(0);
+		assertEquals(changed, cache.sync(server.service()));
+		return server.roundTrips.get();
+	}
+
+	@Test
+	public void syncsEverythingThenTheChanges() throws IOException {
+		EventCache cache = EventCache.load(dir, "cal");
+		assertEquals(3, sync(cache, 250));
+		assertEquals(250, cache.size());
+
+		server.rename("cal", "e3", "Renamed");
+		server.cancel("cal", "e5");
+		server.add("cal", "new", "New", now + HOUR / 2, false);
+		assertEquals(1, sync(cache, 3));
+		List<String> events = all(cache);
+		assertEquals(250, events.size());
+		assertTrue(events.contains("e3 Renamed"));
+		assertTrue(!events.contains("e5 Event 5"));
+		assertTrue(events.indexOf("new New") < events.indexOf("e1 Event 1"));
+	}
+
+	@Test
+	public void unchangedCalendarAnswers304() throws IOException {
+		EventCache cache = EventCache.load(dir, "cal");
+		sync(cache, 250);
+		assertEquals(1, sync(cache, 0));
+		assertEquals(1, server.notModified.get());
+
+		// a change gives a new ETag, so the next sync has a body again
+		server.rename("cal", "e0", "Renamed");
+		assertEquals(1, sync(cache, 1));
+		assertEquals(1, server.notModified.get());
+		assertEquals(1, sync(cache, 0));
+		assertEquals(2, server.notModified.get());
+	}
+
+	@Test
+	public void expiredTokenListsEverythingAgain() throws IOException {
+		EventCache cache = EventCache.load(dir, "cal");
+		sync(cache, 250);
+		server.cancel("cal", "e0");
+		server.expireTokens();
+		// 410, then a full sync of the 249 events left in 3 pages
+		assertEquals(4, sync(cache, 249));
+		assertEquals(249, cache.size());
+		assertTrue(!all(cache).contains("e0 Event 0"));
+		assertEquals(1, sync(cache, 0));
+	}
+
+	@Test
+	public void saveDropsEventsEndedLongerAgoThanTheTtl() throws IOException {
+		long ttlDays = EventCache.TTL_MILLIS / DAY;
+		server.add("cal", "old", "Old", now - (ttlDays + 1) * DAY, false);
+		server.add("cal", "recent", "Recent", now - (ttlDays - 1) * DAY,
+				false);
+		server.add("cal", "oldDay", "Old day", now - (ttlDays + 2) * DAY,
+				true);
+		EventCache cache = EventCache.load(dir, "cal");
+		sync(cache, 253);
+		cache.save();
+
+		List<String> events = all(EventCache.load(dir, "cal"));
+		assertEquals(251, events.size());
+		assertEquals("recent Recent", events.get(0));
+	}
+
+	@Test
+	public void loadReadsWhatSaveWrote() throws IOException {
+		EventCache cache = EventCache.load(dir, "cal");
+		sync(cache, 250);
+		Event located = new Event().setId("at").setSummary("Located")
+				.setLocation("Room 1")
+				.setStart(new EventDateTime().setDateTime(
+						new DateTime(now + DAY, 120)))
+				.setEnd(new EventDateTime().setDateTime(
+						new DateTime(now + DAY + HOUR, 120)));
+		// a page in the middle keeps the sync token and the ETag
+		cache.apply(new Events().setItems(Arrays.asList(located))
+				.setNextPageToken("1"));
+		cache.save();
+
+		EventCache loaded = EventCache.load(dir, "cal");
+		List<Event> saved = cache.upcoming(new DateTime(0), 1000);
+		List<Event> read = loaded.upcoming(new DateTime(0), 1000);
+		assertEquals(saved.size(), read.size());
+		for (int i = 0; i < saved.size(); i++) {
+			Event s = saved.get(i), r = read.get(i);
+			assertEquals(s.getId(), r.getId());
+			assertEquals(s.getSummary(), r.getSummary());
+			assertEquals(s.getLocation(), r.getLocation());
+			assertEquals(s.getStart().getDate(), r.getStart().getDate());
+			assertEquals(s.getStart().getDateTime(),
+					r.getStart().getDateTime());
+			assertEquals(s.getEnd().getDate(), r.getEnd().getDate());
+			assertEquals(s.getEnd().getDateTime(), r.getEnd().getDateTime());
+		}
+		// the sync token and the ETag were saved too
+		assertEquals(1, sync(loaded, 0));
+		assertEquals(1, server.notModified.get());
+	}
+
+	@Test
+	public void loadIgnoresAnotherFormat() throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new FileOutputStream(
+				new File(dir, "cal.events")))) {
+			out.writeInt(0x47434543);
+			out.writeInt(0);
+		}
+		EventCache cache = EventCache.load(dir, "cal");
+		assertEquals(0, cache.size());
+		assertEquals(3, sync(cache, 250));
+	}
+}
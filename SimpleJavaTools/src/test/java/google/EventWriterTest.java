@@ -0,0 +1,114 @@
+package google;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.api.client.util.DateTime;
+import com.google.api.services.calendar.model.Event;
+import com.google.api.services.calendar.model.EventDateTime;
+
+/** Writes the event files to a temporary folder. */
+public class EventWriterTest {
+
+	private static final long HOUR = 3600000;
+	private static final TimeZone LOS_ANGELES = TimeZone
+			.getTimeZone("America/Los_Angeles");
+
+	@Rule
+	public final TemporaryFolder tmp = new TemporaryFolder();
+
+	private Path text, html;
+	private EventWriter writer;
+
+	@Before
+	public void createWriter() {
+		text = tmp.getRoot().toPath().resolve("events.txt");
+		html = tmp.getRoot().toPath().resolve("events.html");
+		writer = new EventWriter(text.toString(), html.toString());
+	}
+
+	private static Event event(String summary, long start) {
+		return new Event().setSummary(summary)
+				.setStart(new EventDateTime().setDateTime(
+						new DateTime(new Date(start), LOS_ANGELES)))
+				.setEnd(new EventDateTime().setDateTime(
+						new DateTime(new Date(start + HOUR), LOS_ANGELES)));
+	}
+
+	private final List<Event> events = Arrays.asList(
+			event("Lunch", 1700000000000L).setLocation("Cafe"),
+			event("Talk", 1700000000000L + 2 * HOUR));
+
+	private static String read(Path file) throws IOException {
+		return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+	}
+
+	@Test
+	public void writesBothFiles() throws IOException {
+		assertEquals(2, writer.write(events));
+		String lines = read(text);
+		assertTrue(lines, lines.contains(" at Cafe\n")
+				&& lines.indexOf("\nLunch ") < lines.indexOf("\nTalk "));
+		assertTrue(read(html).startsWith("<span class=\"content\">\n"));
+		// only the two files, no temporary files left behind
+		assertEquals(2, tmp.getRoot().list().length);
+	}
+
+	@Test
+	public void skipsUnchangedFiles() throws IOException {
+		writer.write(events);
+		FileTime old = FileTime.fromMillis(0);
+		Files.setLastModifiedTime(text, old);
+		Files.setLastModifiedTime(html, old);
+		byte[] before = Files.readAllBytes(text);
+
+		assertEquals(0, writer.write(events));
+		assertEquals(old, Files.getLastModifiedTime(text));
+		assertEquals(old, Files.getLastModifiedTime(html));
+
+		assertEquals(2, writer.write(Arrays.asList(events.get(0))));
+		assertTrue(Files.getLastModifiedTime(text).toMillis() > 0);
+		assertEquals(2, writer.write(events));
+		assertArrayEquals(before, Files.readAllBytes(text));
+	}
+
+	@Test
+	public void keepsThePermissionsOfTheFiles() throws IOException {
+		assumeTrue(Files.getFileStore(tmp.getRoot().toPath())
+				.supportsFileAttributeView(PosixFileAttributeView.class));
+		writer.write(events);
+		// a new file has the permissions of any file created there
+		Path plain = Files.createFile(text.resolveSibling("plain"));
+		assertEquals(Files.getPosixFilePermissions(plain),
+				Files.getPosixFilePermissions(text));
+
+		Files.setPosixFilePermissions(text,
+				PosixFilePermissions.fromString("rw-r--r--"));
+		Files.setPosixFilePermissions(html,
+				PosixFilePermissions.fromString("rw-rw-r--"));
+		writer.write(Arrays.asList(events.get(1)));
+		assertEquals("rw-r--r--", PosixFilePermissions
+				.toString(Files.getPosixFilePermissions(text)));
+		assertEquals("rw-rw-r--", PosixFilePermissions
+				.toString(Files.getPosixFilePermissions(html)));
+	}
+}
@@ -0,0 +1,260 @@
+package google;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.client.util.DateTime;
+import com.google.api.services.calendar.Calendar;
+import com.google.api.services.calendar.model.Event;
+import com.google.api.services.calendar.model.EventDateTime;
+import com.google.api.services.calendar.model.Events;
+
+/**
+ * Serves events lists of calendars held in memory through a
+ * {@link MockHttpTransport}, alone or as the parts of a multipart batch, and
+ * counts the HTTP round trips.
+ * <p>
+ * A list with {@code timeMin} returns the events that end after it by
+ * starting time, at most 10 per page to force follow-up pages. Any other
+ * list is a sync: every event, 100 per page, or with a {@code syncToken} the
+ * events changed since, and a new sync token and the ETag of the calendar
+ * after the last page. A sync sent alone with {@code If-None-Match} of the
+ * current ETag answers 304. Unknown calendars answer 404, and sync tokens
+ * older than {@link #expireTokens} answer 410.
+ */
+class FakeCalendarServer {
+
+	private static final long HOUR = 3600000;
+	private static final TimeZone ZONE = TimeZone
+			.getTimeZone("America/Los_Angeles");
+
+	private static class Entry {
+		final String id;
+		String summary;
+		final long start;
+		final boolean allDay;
+		boolean cancelled;
+		int changed;
+
+		Entry(String id, String summary, long start, boolean allDay,
+				int changed) {
+			this.id = id;
+			this.summary = summary;
+			this.start = start;
+			this.allDay = allDay;
+			this.changed = changed;
+		}
+
+		long end() {
+			return start + (allDay ? 24 * HOUR : HOUR);
+		}
+	}
+
+	private final Map<String, Map<String, Entry>> calendars = new HashMap<>();
+	private final long roundTripMillis;
+	private int clock = 1, expiredBelow;
+	final AtomicInteger roundTrips = new AtomicInteger();
+	final AtomicInteger notModified = new AtomicInteger();
+
+	/** @param roundTripMillis how long every HTTP request takes */
+	FakeCalendarServer(long roundTripMillis) {
+		this.roundTripMillis = roundTripMillis;
+	}
+
+	/** @param start the start, rounded down to a day for all day events */
+	synchronized void add(String calendarId, String eventId, String summary,
+			long start, boolean allDay) {
+		Map<String, Entry> events = calendars.get(calendarId);
+		if (events == null)
+			calendars.put(calendarId, events = new LinkedHashMap<>());
+		events.put(eventId, new Entry(eventId, summary,
+				allDay ? start - start % (24 * HOUR) : start, allDay, ++clock));
+	}
+
+	synchronized void rename(String calendarId, String eventId,
+			String summary) {
+		Entry entry = calendars.get(calendarId).get(eventId);
+		entry.summary = summary;
+		entry.changed = ++clock;
+	}
+
+	synchronized void cancel(String calendarId, String eventId) {
+		Entry entry = calendars.get(calendarId).get(eventId);
+		entry.cancelled = true;
+		entry.changed = ++clock;
+	}
+
+	/** Make every sync token given out so far answer 410. */
+	synchronized void expireTokens() {
+		expiredBelow = ++clock;
+	}
+
+	Calendar service() {
+		return new Calendar.Builder(new MockHttpTransport() {
+			@Override
+			public LowLevelHttpRequest buildRequest(String method,
+					final String url) {
+				return new MockLowLevelHttpRequest(url) {
+					@Override
+					public LowLevelHttpResponse execute() throws IOException {
+						roundTrips.incrementAndGet();
+						try {
+							Thread.sleep(roundTripMillis);
+						} catch (InterruptedException e) {
+							throw new IOException(e);
+						}
+						if (url.contains("/batch/"))
+							return batch(url, getContentAsString());
+						Response r = respond(url,
+								getFirstHeaderValue("If-None-Match"));
+						if (r.status == 304)
+							return new MockLowLevelHttpResponse()
+									.setStatusCode(304);
+						return new MockLowLevelHttpResponse()
+								.setStatusCode(r.status)
+								.setContentType("application/json")
+								.setContent(r.body);
+					}
+				};
+			}
+		}, JacksonFactory.getDefaultInstance(), null)
+				.setApplicationName("test").build();
+	}
+
+	private static class Response {
+		final int status;
+		final String body;
+
+		Response(int status, String body) {
+			this.status = status;
+			this.body = body;
+		}
+	}
+
+	private LowLevelHttpResponse batch(String url, String body)
+			throws IOException {
+		if (!url.endsWith("/batch/calendar/v3"))
+			throw new IOException("not the calendar batch endpoint: " + url);
+		StringBuilder out = new StringBuilder();
+		int n = 0;
+		for (String line : body.split("\r\n")) {
+			if (!line.startsWith("GET ")) continue;
+			Response r = respond(line.split(" ")[1], null);
+			out.append("--BOUNDARY\r\n")
+					.append("Content-Type: application/http\r\n")
+					.append("Content-ID: <response-").append(++n)
+					.append(">\r\n\r\n").append("HTTP/1.1 ").append(r.status)
+					.append(" X\r\n")
+					.append("Content-Type: application/json; charset=UTF-8\r\n")
+					.append("Content-Length: ")
+					.append(r.body.getBytes(StandardCharsets.UTF_8).length)
+					.append("\r\n\r\n").append(r.body).append("\r\n");
+		}
+		out.append("--BOUNDARY--\r\n");
+		return new MockLowLevelHttpResponse()
+				.setContentType("multipart/mixed; boundary=BOUNDARY")
+				.setContent(out.toString());
+	}
+
+	/** @param ifNoneMatch the ETag the client has, or null */
+	private synchronized Response respond(String url, String ifNoneMatch)
+			throws UnsupportedEncodingException {
+		String id = url.replaceAll(".*/calendars/([^/?]*)/events.*", "$1");
+		Map<String, Entry> events = calendars.get(id);
+		if (events == null) return error(404, "Not Found");
+		Map<String, String> query = new HashMap<>();
+		for (String pair : url.substring(url.indexOf('?') + 1).split("&")) {
+			String[] kv = pair.split("=", 2);
+			query.put(kv[0],
+					kv.length > 1 ? URLDecoder.decode(kv[1], "UTF-8") : "");
+		}
+
+		List<Entry> items = new ArrayList<>();
+		int pageSize = 100;
+		String timeMin = query.get("timeMin"), token = query.get("syncToken");
+		if (timeMin != null) {
+			long min = new DateTime(timeMin).getValue();
+			for (Entry e : events.values())
+				if (!e.cancelled && e.end() > min) items.add(e);
+			Collections.sort(items, new Comparator<Entry>() {
+				@Override
+				public int compare(Entry a, Entry b) {
+					return Long.compare(a.start, b.start);
+				}
+			});
+			pageSize = Math.min(10,
+					Integer.parseInt(query.get("maxResults")));
+		} else if (token != null) {
+			int since = Integer.parseInt(token);
+			if (since < expiredBelow)
+				return error(410, "Sync token is no longer valid");
+			if (etag(events).equals(ifNoneMatch)) {
+				notModified.incrementAndGet();
+				return new Response(304, "");
+			}
+			for (Entry e : events.values())
+				if (e.changed > since) items.add(e);
+		} else for (Entry e : events.values())
+			if (!e.cancelled) items.add(e);
+
+		String pageToken = query.get("pageToken");
+		int from = pageToken == null ? 0 : Integer.parseInt(pageToken);
+		int to = Math.min(items.size(), from + pageSize);
+		List<Event> page = new ArrayList<>();
+		for (Entry e : items.subList(from, to))
+			page.add(e.cancelled
+					? new Event().setId(e.id).setStatus("cancelled")
+					: new Event().setId(e.id).setStatus("confirmed")
+							.setSummary(e.summary).setStart(time(e, e.start))
+							.setEnd(time(e, e.end())));
+		Events list = new Events().setItems(page);
+		if (to < items.size()) list.setNextPageToken(Integer.toString(to));
+		else if (timeMin == null)
+			list.setNextSyncToken(Integer.toString(clock))
+					.setEtag(etag(events));
+		try {
+			return new Response(200,
+					JacksonFactory.getDefaultInstance().toString(list));
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/** @return an ETag that changes with any event of the calendar */
+	private static String etag(Map<String, Entry> events) {
+		int changed = 0;
+		for (Entry e : events.values())
+			changed = Math.max(changed, e.changed);
+		return "\"" + changed + "\"";
+	}
+
+	private static EventDateTime time(Entry e, long millis) {
+		return e.allDay
+				? new EventDateTime().setDate(new DateTime(true, millis, 0))
+				: new EventDateTime().setDateTime(
+						new DateTime(new Date(millis), ZONE));
+	}
+
+	private static Response error(int code, String message) {
+		return new Response(code, "{\"error\":{\"code\":" + code
+				+ ",\"message\":\"" + message + "\"}}");
+	}
+}
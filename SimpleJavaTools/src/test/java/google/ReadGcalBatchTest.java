@@ -0,0 +1,153 @@
+package google;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.api.client.util.DateTime;
+import com.google.api.services.calendar.Calendar;
+import com.google.api.services.calendar.model.Event;
+import com.google.api.services.calendar.model.Events;
+
+/** Reads calendars in batch requests from a {@link FakeCalendarServer}. */
+public class ReadGcalBatchTest {
+
+	private static final long HOUR = 3600000;
+	private static final int MAX_RESULTS = 15;
+
+	@Rule
+	public final TemporaryFolder tmp = new TemporaryFolder();
+
+	private final FakeCalendarServer server = new FakeCalendarServer(0);
+	private final Calendar service = server.service();
+	private final List<String> ids = new ArrayList<>();
+	private final DateTime timeMin = new DateTime(System.currentTimeMillis());
+
+	/** 20 calendars, the first with 250 events, so it needs 3 sync pages. */
+	@Before
+	public void addCalendars() {
+		Random random = new Random(3);
+		for (int c = 0; c < 20; c++) {
+			String id = "cal" + c;
+			ids.add(id);
+			for (int i = 0; i < (c == 0 ? 250 : 40); i++)
+				server.add(id, id + "-" + i, "Event " + c + "/" + i,
+						timeMin.getValue()
+								+ (random.nextInt(200) - 60) * 12 * HOUR,
+						random.nextInt(6) == 0);
+		}
+	}
+
+	/** The events listed one request after the other, merged. */
+	private List<Event> listed(List<String> calendarIds) throws IOException {
+		List<List<Event>> lists = new ArrayList<>();
+		for (String id : calendarIds) {
+			List<Event> events = new ArrayList<>();
+			String token = null;
+			do {
+				Events page = service.events().list(id)
+						.setMaxResults(MAX_RESULTS - events.size())
+						.setTimeMin(timeMin).setOrderBy("startTime")
+						.setSingleEvents(true).setPageToken(token).execute();
+				events.addAll(page.getItems());
+				token = events.size() < MAX_RESULTS ? page.getNextPageToken()
+						: null;
+			} while (token != null);
+			lists.add(events);
+		}
+		return ReadGcal.merge(lists);
+	}
+
+	private static List<String> summaries(List<Event> events) {
+		List<String> summaries = new ArrayList<>();
+		for (Event event : events)
+			summaries.add(event.getId() + " " + event.getSummary());
+		return summaries;
+	}
+
+	/** @return the round trips of the batched read */
+	private int assertBatchedReadsAsListed(File cacheDir) throws IOException {
+		server.roundTrips.set(0);
+		List<Event> batched = ReadGcal.fetchEventsBatched(service, ids,
+				timeMin, MAX_RESULTS, cacheDir);
+		int roundTrips = server.roundTrips.get();
+		assertEquals(summaries(listed(ids)), summaries(batched));
+		return roundTrips;
+	}
+
+	@Test
+	public void batchesFirstAndFollowUpPages() throws IOException {
+		// every calendar needs a second page of 10
+		assertEquals(2, assertBatchedReadsAsListed(null));
+		server.roundTrips.set(0);
+		listed(ids);
+		assertEquals(2 * ids.size(), server.roundTrips.get());
+	}
+
+	@Test
+	public void splitsBatchesOfMoreThan50() throws IOException {
+		for (int c = 20; c < 60; c++) {
+			ids.add("cal" + c);
+			server.add("cal" + c, "only", "Only " + c,
+					timeMin.getValue() + c * HOUR, false);
+		}
+		// 60 first pages in 2 batches, 20 follow-up pages in 1
+		assertEquals(3, assertBatchedReadsAsListed(null));
+	}
+
+	@Test
+	public void syncsCachesInBatches() throws IOException {
+		File cache = tmp.newFolder();
+		// 20 first pages, then pages 2 and 3 of the first calendar
+		assertEquals(3, assertBatchedReadsAsListed(cache));
+		assertEquals(1, assertBatchedReadsAsListed(cache));
+
+		// the first upcoming events, so both changes show in the result
+		server.rename("cal3", listed(Arrays.asList("cal3")).get(0).getId(),
+				"Renamed");
+		server.cancel("cal0", listed(Arrays.asList("cal0")).get(0).getId());
+		assertEquals(1, assertBatchedReadsAsListed(cache));
+
+		// every calendar answers 410, then is listed again in full
+		server.expireTokens();
+		assertEquals(4, assertBatchedReadsAsListed(cache));
+		assertEquals(1, assertBatchedReadsAsListed(cache));
+	}
+
+	@Test
+	public void failedCalendarFailsTheList() throws IOException {
+		ids.add(2, "missing");
+		try {
+			ReadGcal.fetchEventsBatched(service, ids, timeMin, MAX_RESULTS,
+					null);
+			fail();
+		} catch (IOException e) {
+			assertTrue(e.getMessage(),
+					e.getMessage().startsWith("cannot list calendars {2=404"));
+		}
+	}
+
+	@Test
+	public void failedCalendarKeepsTheOthersCached() throws IOException {
+		File cache = tmp.newFolder();
+		List<String> found = new ArrayList<>(ids);
+		ids.add(2, "missing");
+		server.roundTrips.set(0);
+		List<Event> batched = ReadGcal.fetchEventsBatched(service, ids,
+				timeMin, MAX_RESULTS, cache);
+		assertEquals(3, server.roundTrips.get());
+		assertEquals(summaries(listed(found)), summaries(batched));
+	}
+}
@@ -0,0 +1,190 @@
+package google;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.google.api.client.googleapis.json.GoogleJsonResponseException;
+import com.google.api.client.http.LowLevelHttpRequest;
+import com.google.api.client.http.LowLevelHttpResponse;
+import com.google.api.client.json.jackson2.JacksonFactory;
+import com.google.api.client.testing.http.MockHttpTransport;
+import com.google.api.client.testing.http.MockLowLevelHttpRequest;
+import com.google.api.client.testing.http.MockLowLevelHttpResponse;
+import com.google.api.client.util.DateTime;
+import com.google.api.services.calendar.Calendar;
+import com.google.api.services.calendar.model.Event;
+import com.google.api.services.calendar.model.EventDateTime;
+import com.google.api.services.calendar.model.Events;
+
+/** Reads calendars from a {@link MockHttpTransport}. */
+public class ReadGcalTest {
+
+	private static final long HOUR = 3600000;
+	private static final TimeZone LOS_ANGELES = TimeZone
+			.getTimeZone("America/Los_Angeles");
+
+	/** The response bodies of the events lists, by calendar. */
+	private final Map<String, String> bodies = new HashMap<>();
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicInteger mostInFlight = new AtomicInteger();
+
+	/** Answers each events list after 50 ms, 404 for unknown calendars. */
+	private final Calendar service = new Calendar.Builder(
+			new MockHttpTransport() {
+				@Override
+				public LowLevelHttpRequest buildRequest(String method,
+						final String url) {
+					return new MockLowLevelHttpRequest(url) {
+						@Override
+						public LowLevelHttpResponse execute()
+								throws IOException {
+							return respond(url);
+						}
+					};
+				}
+			}, JacksonFactory.getDefaultInstance(), null)
+					.setApplicationName("test").build();
+
+	private LowLevelHttpResponse respond(String url) throws IOException {
+		int n = inFlight.incrementAndGet();
+		while (true) {
+			int most = mostInFlight.get();
+			if (n <= most || mostInFlight.compareAndSet(most, n)) break;
+		}
+		try {
+			Thread.sleep(50);
+		} catch (InterruptedException e) {
+			throw new IOException(e);
+		} finally {
+			inFlight.decrementAndGet();
+		}
+		String id = url.replaceAll(".*/calendars/([^/]*)/events.*", "$1");
+		String body = bodies.get(id);
+		if (body == null) return new MockLowLevelHttpResponse()
+				.setStatusCode(404).setContentType("application/json")
+				.setContent("{\"error\":{\"code\":404}}");
+		return new MockLowLevelHttpResponse()
+				.setContentType("application/json").setContent(body);
+	}
+
+	private void serve(String calendarId, List<Event> events)
+			throws IOException {
+		bodies.put(calendarId, JacksonFactory.getDefaultInstance()
+				.toString(new Events().setItems(events)));
+	}
+
+	private static Event event(String summary, DateTime start) {
+		EventDateTime time = start.isDateOnly()
+				? new EventDateTime().setDate(start)
+				: new EventDateTime().setDateTime(start);
+		return new Event().setSummary(summary).setStart(time).setEnd(time);
+	}
+
+	private static List<String> summaries(List<Event> events) {
+		List<String> summaries = new ArrayList<>();
+		for (Event event : events)
+			summaries.add(event.getSummary());
+		return summaries;
+	}
+
+	/** The sort that writeGcalEvents did before the merge. */
+	private static void sortByLocalStart(List<Event> events) {
+		Collections.sort(events, new Comparator<Event>() {
+			@Override
+			public int compare(Event e1, Event e2) {
+				return local(e1).compareTo(local(e2));
+			}
+		});
+	}
+
+	private static LocalDateTime local(Event event) {
+		DateTime start = event.getStart().getDateTime();
+		if (start == null) start = event.getStart().getDate();
+		return LocalDateTime.ofEpochSecond(start.getValue() / 1000, 0,
+				ZoneOffset.ofTotalSeconds(start.getTimeZoneShift() * 60));
+	}
+
+	@Test
+	public void mergesCalendarsLikeTheStableSort() throws IOException {
+		Random random = new Random(7);
+		List<String> ids = new ArrayList<>();
+		List<Event> all = new ArrayList<>();
+		for (int c = 0; c < 12; c++) {
+			String id = "cal" + c;
+			TimeZone zone = TimeZone.getTimeZone(
+					c % 2 == 0 ? "America/Los_Angeles" : "America/New_York");
+			List<Event> events = new ArrayList<>();
+			long t = 1700000000000L;
+			for (int i = 0; i < 15; i++) {
+				// whole half hours, so calendars share starting times
+				t += random.nextInt(4) * HOUR / 2;
+				events.add(event(id + "-" + i, random.nextInt(5) == 0
+						? new DateTime(true, t - t % (24 * HOUR), 0)
+						: new DateTime(new Date(t), zone)));
+			}
+			ids.add(id);
+			all.addAll(events);
+			serve(id, events);
+		}
+		sortByLocalStart(all);
+
+		List<Event> merged = ReadGcal.fetchEvents(service, ids,
+				new DateTime(0), 15);
+		assertEquals(summaries(all), summaries(merged));
+		int most = mostInFlight.get();
+		assertTrue("most requests at once: " + most,
+				most > 1 && most <= ReadGcal.MAX_PARALLEL_FETCHES);
+	}
+
+	@Test
+	public void ordersAcrossDaylightSavingByWallClock() {
+		// 01:30 PDT is before 01:10 PST, which is an hour later in UTC
+		long fallBack = 1699175400000L; // 2023-11-05T09:10:00Z
+		List<Event> events = Arrays.asList(
+				event("01:30 PDT",
+						new DateTime(new Date(fallBack - 40 * 60000),
+								LOS_ANGELES)),
+				event("01:10 PST",
+						new DateTime(new Date(fallBack), LOS_ANGELES)));
+		assertEquals(Arrays.asList("01:10 PST", "01:30 PDT"), summaries(
+				ReadGcal.merge(Collections.singletonList(events))));
+	}
+
+	@Test
+	public void failedCalendarThrows() throws IOException {
+		serve("cal", Collections.singletonList(
+				event("a", new DateTime(new Date(0), LOS_ANGELES))));
+		try {
+			ReadGcal.fetchEvents(service, Arrays.asList("cal", "missing"),
+					new DateTime(0), 15);
+			fail();
+		} catch (GoogleJsonResponseException e) {
+			assertEquals(404, e.getStatusCode());
+		}
+	}
+
+	@Test
+	public void noCalendarsNoRequests() throws IOException {
+		assertTrue(ReadGcal.fetchEvents(service, new ArrayList<String>(),
+				new DateTime(0), 15).isEmpty());
+		assertEquals(0, mostInFlight.get());
+	}
+}
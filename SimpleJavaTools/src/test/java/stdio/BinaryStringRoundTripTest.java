@@ -0,0 +1,156 @@
+package stdio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Decodes binary files with BinaryStringIn and encodes them back. */
+public class BinaryStringRoundTripTest {
+
+  @Rule
+  public final TemporaryFolder tmp = new TemporaryFolder();
+
+  private static byte[] random(int n, long seed) {
+    byte[] bytes = new byte[n];
+    new Random(seed).nextBytes(bytes);
+    return bytes;
+  }
+
+  /** @return the lines of 0 and 1 that {@code bytes} decode to */
+  private static String digits(byte[] bytes, int bitsPerLine) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < bytes.length; i++) {
+      for (int bit = 7; bit >= 0; bit--)
+        sb.append((char) ('0' + (bytes[i] >>> bit & 1)));
+      if ((i + 1) % (bitsPerLine / 8) == 0 || i == bytes.length - 1)
+        sb.append('\n');
+    }
+    return sb.toString();
+  }
+
+  private byte[] roundTrip(byte[] bytes, int bitsPerLine, int parallelism)
+      throws IOException {
+    Path bin = tmp.newFile().toPath(), text = tmp.newFile().toPath(),
+        back = tmp.newFile().toPath();
+    Files.write(bin, bytes);
+    long chars = BinaryStringIn.decode(bin, text, bitsPerLine, parallelism);
+    String expected = digits(bytes, bitsPerLine);
+    assertEquals(expected.length(), chars);
+    assertEquals(expected,
+        new String(Files.readAllBytes(text), StandardCharsets.US_ASCII));
+    long written = BinaryStringOut.encodeFile(text, back,
+        BitStringEncoder.LinePolicy.STRICT, parallelism);
+    assertEquals(bytes.length, written);
+    return Files.readAllBytes(back);
+  }
+
+  @Test
+  public void roundTripsSeveralWidths() throws IOException {
+    byte[] bytes = random(10007, 1);
+    for (int bitsPerLine : new int[] {8, 16, 24, 64, 1000, 8192})
+      assertArrayEquals("bits per line " + bitsPerLine, bytes,
+          roundTrip(bytes, bitsPerLine, 2));
+  }
+
+  @Test
+  public void roundTripsEmptyInput() throws IOException {
+    assertArrayEquals(new byte[0], roundTrip(new byte[0], 64, 2));
+  }
+
+  @Test
+  public void roundTripsInParallelChunks() throws IOException {
+    // several chunks of both the decoder (1 MiB) and the encoder (8 MiB)
+    byte[] bytes = random((3 << 20) + 5, 2);
+    assertArrayEquals(bytes, roundTrip(bytes, 64, 4));
+    assertArrayEquals(bytes, roundTrip(bytes, 64, 1));
+  }
+
+  @Test
+  public void lastLineNotMultipleOf8Bits() throws IOException {
+    Path text = tmp.newFile().toPath(), bin = tmp.newFile().toPath(),
+        back = tmp.newFile().toPath();
+    Files.write(text, "1111000001010101\n101\n".getBytes(
+        StandardCharsets.US_ASCII));
+    try {
+      BinaryStringOut.encodeFile(text, bin,
+          BitStringEncoder.LinePolicy.STRICT, 2);
+      fail();
+    } catch (BitStringEncoder.FormatException e) {
+      assertEquals("line 2 is not a multiple of 8 bits", e.getMessage());
+    }
+
+    // padded with 0 bits, it decodes to a whole last byte
+    assertEquals(3, BinaryStringOut.encodeFile(text, bin,
+        BitStringEncoder.LinePolicy.PAD, 2));
+    assertArrayEquals(new byte[] {(byte) 0xf0, 0x55, (byte) 0xa0},
+        Files.readAllBytes(bin));
+    BinaryStringIn.decode(bin, back, 16, 2);
+    assertEquals("1111000001010101\n10100000\n",
+        new String(Files.readAllBytes(back), StandardCharsets.US_ASCII));
+  }
+
+  @Test
+  public void badLineInParallelChunksTruncatesTheOutput() throws IOException {
+    // 34 MB of 64 bit lines, bad lines in the 2nd and the 4th 8 MiB chunk
+    byte[] bytes = random(4 << 20, 4);
+    String digits = digits(bytes, 64);
+    int lineChars = 65, first = 150000, second = 450000;
+    String text = digits.substring(0, first * lineChars) + "101\n"
+        + digits.substring(first * lineChars, second * lineChars) + "1\n"
+        + digits.substring(second * lineChars);
+    Path in = tmp.newFile().toPath(), out = tmp.newFile().toPath();
+    Files.write(in, text.getBytes(StandardCharsets.US_ASCII));
+    for (int parallelism : new int[] {4, 1}) {
+      try {
+        BinaryStringOut.encodeFile(in, out,
+            BitStringEncoder.LinePolicy.STRICT, parallelism);
+        fail();
+      } catch (BitStringEncoder.FormatException e) {
+        assertEquals("line " + (first + 1) + " is not a multiple of 8 bits",
+            e.getMessage());
+      }
+      // the lines before the first bad one, as encoded one after the other
+      assertArrayEquals(Arrays.copyOf(bytes, first * 8),
+          Files.readAllBytes(out));
+    }
+  }
+
+  @Test
+  public void roundTripsContinuousLinesOfAnyWidth() throws IOException {
+    byte[] bytes = random(4099, 3);
+    for (int bitsPerLine : new int[] {1, 7, 13, 63, 65, 1001}) {
+      Path bin = tmp.newFile().toPath(), text = tmp.newFile().toPath(),
+          back = tmp.newFile().toPath();
+      Files.write(bin, bytes);
+      String digits = digits(bytes, 8).replace("\n", "");
+      StringBuilder expected = new StringBuilder();
+      for (int i = 0; i < digits.length(); i += bitsPerLine)
+        expected.append(digits, i,
+            Math.min(digits.length(), i + bitsPerLine)).append('\n');
+      assertEquals(expected.length(),
+          BinaryStringIn.decode(bin, text, bitsPerLine, 2));
+      assertEquals("bits per line " + bitsPerLine, expected.toString(),
+          new String(Files.readAllBytes(text), StandardCharsets.US_ASCII));
+      assertEquals(bytes.length, BinaryStringOut.encodeFile(text, back,
+          BitStringEncoder.LinePolicy.CONTINUOUS, 2));
+      assertArrayEquals(bytes, Files.readAllBytes(back));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsWidthNotPositive() throws IOException {
+    BinaryStringIn.decode(tmp.newFile().toPath(), tmp.newFile().toPath(), 0,
+        1);
+  }
+}
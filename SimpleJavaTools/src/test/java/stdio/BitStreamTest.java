@@ -0,0 +1,216 @@
+package stdio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Random;
+
+import org.junit.Test;
+
+/** Writes fields with BitOutputStream and reads them with BitInputStream. */
+public class BitStreamTest {
+
+  /** Returns at most 3 bytes per read, so every field crosses reads. */
+  private static ReadableByteChannel trickle(byte[] bytes) {
+    final ReadableByteChannel in =
+        Channels.newChannel(new ByteArrayInputStream(bytes));
+    return new ReadableByteChannel() {
+      @Override
+      public int read(ByteBuffer dst) throws IOException {
+        ByteBuffer part = dst.duplicate();
+        part.limit(Math.min(dst.limit(), dst.position() + 3));
+        int n = in.read(part);
+        if (n > 0) dst.position(dst.position() + n);
+        return n;
+      }
+
+      @Override
+      public boolean isOpen() {
+        return in.isOpen();
+      }
+
+      @Override
+      public void close() throws IOException {
+        in.close();
+      }
+    };
+  }
+
+  /** @return the bits of {@code bytes} as '0' and '1', first bit first */
+  private static String bits(byte[] bytes) {
+    StringBuilder sb = new StringBuilder();
+    for (byte b : bytes)
+      for (int bit = 7; bit >= 0; bit--)
+        sb.append((char) ('0' + (b >>> bit & 1)));
+    return sb.toString();
+  }
+
+  /** @return the low {@code n} bits of {@code v} as '0' and '1' */
+  private static String bits(long v, int n) {
+    StringBuilder sb = new StringBuilder();
+    for (int bit = n - 1; bit >= 0; bit--)
+      sb.append((char) ('0' + (v >>> bit & 1)));
+    return sb.toString();
+  }
+
+  @Test
+  public void roundTripsFieldsOf1To64Bits() throws IOException {
+    Random random = new Random(1);
+    int[] widths = new int[5000];
+    long[] values = new long[widths.length];
+    StringBuilder expected = new StringBuilder();
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    // a buffer of 16 bytes is drained every few fields
+    try (BitOutputStream out =
+        new BitOutputStream(Channels.newChannel(bytes), 16)) {
+      for (int i = 0; i < widths.length; i++) {
+        widths[i] = i < 64 ? i + 1 : 1 + random.nextInt(64);
+        // high bits above the width must be ignored
+        values[i] = random.nextLong();
+        out.writeBits(values[i], widths[i]);
+        expected.append(bits(values[i], widths[i]));
+      }
+    }
+    while (expected.length() % 8 != 0) expected.append('0');
+    assertEquals(expected.toString(), bits(bytes.toByteArray()));
+
+    try (BitInputStream in =
+        new BitInputStream(trickle(bytes.toByteArray()))) {
+      for (int i = 0; i < widths.length; i++) {
+        long mask = -1L >>> 64 - widths[i];
+        assertEquals("field " + i, values[i] & mask, in.readBits(widths[i]));
+      }
+    }
+  }
+
+  @Test
+  public void bytesAndIntsAlignedOrNot() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (BitOutputStream out =
+        new BitOutputStream(Channels.newChannel(bytes), 6)) {
+      out.writeInt(0x12345678); // aligned, 2 bytes left in the buffer
+      out.writeInt(0x9abcdef0); // does not fit, goes through writeBits
+      out.writeBit(true);
+      out.writeByte(0xff);
+      out.writeInt(0x0f0f0f0f);
+      assertFalse(out.isAligned());
+      out.writeBits(0, 7);
+      assertTrue(out.isAligned());
+      out.writeByte(0xa5);
+      assertEquals(15, out.bytesWritten());
+    }
+    assertEquals(bits(new byte[] {0x12, 0x34, 0x56, 0x78, (byte) 0x9a,
+        (byte) 0xbc, (byte) 0xde, (byte) 0xf0}) + "1" + "11111111"
+        + bits(0x0f0f0f0f, 32) + "0000000" + "10100101",
+        bits(bytes.toByteArray()));
+  }
+
+  private static byte[] padded(BitOutputStream.Padding padding)
+      throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    BitOutputStream out = new BitOutputStream(bytes);
+    out.writeBits(0x5, 3);
+    out.close(padding);
+    return bytes.toByteArray();
+  }
+
+  @Test
+  public void padsTheLastByte() throws IOException {
+    assertArrayEquals(new byte[] {(byte) 0xa0},
+        padded(BitOutputStream.Padding.ZEROS));
+    assertArrayEquals(new byte[] {(byte) 0xbf},
+        padded(BitOutputStream.Padding.ONES));
+    try {
+      padded(BitOutputStream.Padding.REJECT);
+      fail();
+    } catch (IOException e) {
+      assertEquals("last byte has only 3 bits", e.getMessage());
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    BitOutputStream out = new BitOutputStream(bytes);
+    out.writeByte(0x81);
+    out.close(BitOutputStream.Padding.REJECT);
+    assertArrayEquals(new byte[] {(byte) 0x81}, bytes.toByteArray());
+  }
+
+  @Test
+  public void resetDiscardsBytesAcrossDrains() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    BitOutputStream out = new BitOutputStream(Channels.newChannel(bytes), 4);
+    out.writeInt(1);
+    out.writeByte(2);
+    out.mark();
+    // more than the buffer holds, which then grows to keep the marked bytes
+    for (int i = 0; i < 20; i++) out.writeBits(i, 7);
+    out.reset();
+    out.writeByte(3);
+    out.mark();
+    out.writeByte(4);
+    out.close();
+    assertArrayEquals(new byte[] {0, 0, 0, 1, 2, 3, 4}, bytes.toByteArray());
+  }
+
+  @Test
+  public void writesAfterAFlushAndIntoAReusedBuffer() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ByteBuffer buffer = ByteBuffer.allocateDirect(8);
+    BitOutputStream out = new BitOutputStream(Channels.newChannel(bytes),
+        buffer);
+    out.writeByte(1);
+    out.flush();
+    // the whole buffer is free again, not just the flushed byte
+    out.writeInt(0x02030405);
+    out.writeByte(6);
+    out.flush();
+    out = new BitOutputStream(Channels.newChannel(bytes), buffer);
+    out.writeInt(0x0708090a);
+    out.writeInt(0x0b0c0d0e);
+    out.flush();
+    assertArrayEquals(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13,
+        14}, bytes.toByteArray());
+  }
+
+  @Test
+  public void readsBitsAlignsAndStopsAtTheEnd() throws IOException {
+    BitInputStream in = new BitInputStream(
+        trickle(new byte[] {(byte) 0xb4, 0x0f, (byte) 0xf0}));
+    assertEquals(1, in.readBit());
+    assertEquals(0x3, in.readBits(3)); // 011
+    in.align(); // skips 0100
+    assertEquals(0x0, in.readBits(4));
+    in.align(); // skips 1111
+    assertEquals(0xf0, in.readBits(8));
+    in.align(); // aligned, nothing to skip
+    assertEquals(-1, in.readBit());
+    try {
+      in.readBits(1);
+      fail();
+    } catch (EOFException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void readsA64BitFieldAfterAPartialByte() throws IOException {
+    BitInputStream in = new BitInputStream(new ByteArrayInputStream(
+        new byte[] {(byte) 0xff, 0, 0, 0, 0, 0, 0, 0, 1}));
+    assertEquals(0x7f, in.readBits(7));
+    assertEquals(Long.MIN_VALUE, in.readBits(64));
+    assertEquals(1, in.readBits(1));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsFieldsLongerThan64Bits() throws IOException {
+    new BitOutputStream(new ByteArrayOutputStream()).writeBits(0, 65);
+  }
+}
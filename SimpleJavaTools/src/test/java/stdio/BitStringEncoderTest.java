@@ -0,0 +1,98 @@
+package stdio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class BitStringEncoderTest {
+
+  private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+  private byte[] encode(String text, BitStringEncoder.LinePolicy policy)
+      throws IOException {
+    new BitStringEncoder(policy, 1).encode(
+        Channels.newChannel(new ByteArrayInputStream(
+            text.getBytes(StandardCharsets.US_ASCII))),
+        Channels.newChannel(out));
+    return out.toByteArray();
+  }
+
+  private static String digits(int n, char c) {
+    char[] chars = new char[n];
+    Arrays.fill(chars, c);
+    return new String(chars);
+  }
+
+  @Test
+  public void packsEightDigitsPerByte() throws IOException {
+    assertArrayEquals(new byte[] {0x41, 0x42, (byte) 0xff},
+        encode("0100000101000010\r\n11111111\n",
+            BitStringEncoder.LinePolicy.STRICT));
+  }
+
+  @Test
+  public void countsOtherCharactersAsZero() throws IOException {
+    assertArrayEquals(new byte[] {(byte) 0xaa},
+        encode("1x1x1 1-", BitStringEncoder.LinePolicy.STRICT));
+  }
+
+  @Test
+  public void packsLongRunsLikeSingleBytes() throws IOException {
+    String line = new String(new char[8]).replace("\0", "01101001");
+    byte[] bytes = encode(line + "\n" + line,
+        BitStringEncoder.LinePolicy.STRICT);
+    assertEquals(16, bytes.length);
+    for (byte b : bytes)
+      assertEquals(0x69, b);
+  }
+
+  @Test
+  public void strictWritesNothingOfAShortLine() throws IOException {
+    // the short line has whole groups of 8 before its last 3 digits
+    String text = "0100000101000010\n" + digits(40, '1') + "101\n11111111\n";
+    try {
+      encode(text, BitStringEncoder.LinePolicy.STRICT);
+      fail();
+    } catch (BitStringEncoder.FormatException e) {
+      assertEquals("line 2 is not a multiple of 8 bits", e.getMessage());
+    }
+    assertArrayEquals(new byte[] {0x41, 0x42}, out.toByteArray());
+  }
+
+  @Test
+  public void strictKeepsLinesLongerThanTheBuffer() throws IOException {
+    String line = digits(3 << 20, '1');
+    assertEquals(3 << 17,
+        encode(line + "\n", BitStringEncoder.LinePolicy.STRICT).length);
+
+    out.reset();
+    try {
+      encode("00000000\n" + line + "1", BitStringEncoder.LinePolicy.STRICT);
+      fail();
+    } catch (BitStringEncoder.FormatException e) {
+      assertEquals("line 2 is not a multiple of 8 bits", e.getMessage());
+    }
+    assertArrayEquals(new byte[] {0}, out.toByteArray());
+  }
+
+  @Test
+  public void padsEachLine() throws IOException {
+    assertArrayEquals(new byte[] {(byte) 0xa0, (byte) 0xc0},
+        encode("101\n11\n", BitStringEncoder.LinePolicy.PAD));
+  }
+
+  @Test
+  public void continuesAcrossLines() throws IOException {
+    assertArrayEquals(new byte[] {(byte) 0xb8},
+        encode("101\n11\n", BitStringEncoder.LinePolicy.CONTINUOUS));
+  }
+}
@@ -0,0 +1,143 @@
+package stdio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Writes the {@code wechat.txt} fixture in columns and reads it back. */
+public class ChatColumnsTest {
+
+  @Rule
+  public final TemporaryFolder tmp = new TemporaryFolder();
+
+  private static final Pattern TIME = Pattern.compile("(\\d{1,2}):([0-5]\\d)");
+
+  /** @return "user time message" of every message, read line by line */
+  private static List<String> rows(Path history) throws IOException {
+    List<String> rows = new ArrayList<>();
+    try (BufferedReader in = Files.newBufferedReader(history,
+        StandardCharsets.UTF_8)) {
+      String line, user = null;
+      long day = -1, time = -1;
+      while ((line = in.readLine()) != null) {
+        if (line.isEmpty()) continue;
+        if (line.startsWith("—————")) {
+          String[] ymd = line.replaceAll("[^0-9-]", "").split("-");
+          int month = Integer.parseInt(ymd[1]), d = Integer.parseInt(ymd[2]);
+          day = month > 12 || d > 31 ? -1 : LocalDate.of(
+              Integer.parseInt(ymd[0]), month, d).toEpochDay();
+        } else if (user == null) {
+          // messages of several lines put the alternation out of step, as
+          // in skipLines, so a user line may have no time
+          int space = line.indexOf(' ');
+          user = space < 0 ? line : line.substring(0, space);
+          Matcher hhmm = TIME
+              .matcher(line.substring(line.lastIndexOf(' ') + 1));
+          int minute = hhmm.lookingAt() && space >= 0
+              ? Integer.parseInt(hhmm.group(1)) * 60
+                  + Integer.parseInt(hhmm.group(2))
+              : -1;
+          time = day < 0 || minute < 0 || minute >= 24 * 60 ? -1
+              : day * 24 * 60 + minute;
+        } else {
+          rows.add(user + " " + time + " " + line);
+          user = null;
+        }
+      }
+    }
+    return rows;
+  }
+
+  /** @return the rows of [from, to) read from the three columns */
+  private static List<String> read(final ChatColumns columns, int from,
+      int to) {
+    final String[] users = new String[to - from];
+    final long[] times = new long[to - from];
+    final int base = from;
+    columns.scanUsers(from, to, new ChatColumns.Visitor() {
+      @Override
+      public void visit(int row, long user) {
+        users[row - base] = columns.user((int) user);
+      }
+    });
+    columns.scanTimes(from, to, new ChatColumns.Visitor() {
+      @Override
+      public void visit(int row, long time) {
+        times[row - base] = time;
+      }
+    });
+    List<String> rows = new ArrayList<>();
+    for (int row = from; row < to; row++)
+      rows.add(users[row - base] + " " + times[row - base] + " "
+          + columns.message(row));
+    return rows;
+  }
+
+  private ChatColumns write(Path history, int parallelism)
+      throws IOException {
+    Path file = tmp.newFile().toPath();
+    WechatMsgProcess.writeColumns(history, file, parallelism);
+    return ChatColumns.open(file);
+  }
+
+  @Test
+  public void roundTripsTheFixture() throws IOException {
+    Path history = WechatMsgProcessTest.fixture(tmp);
+    List<String> expected = rows(history);
+    for (int parallelism : new int[] {1, 3}) {
+      ChatColumns columns = write(history, parallelism);
+      assertEquals(expected.size(), columns.size());
+      assertEquals(expected, read(columns, 0, columns.size()));
+    }
+  }
+
+  @Test
+  public void scansFromAnyBlock() throws IOException {
+    // 20 copies of the fixture, more than two blocks of rows
+    byte[] fixture = Files.readAllBytes(WechatMsgProcessTest.fixture(tmp));
+    Path history = tmp.newFile().toPath();
+    try (OutputStream out = Files.newOutputStream(history)) {
+      for (int i = 0; i < 20; i++) out.write(fixture);
+    }
+    List<String> expected = rows(history);
+    ChatColumns columns = write(history, 2);
+    int n = columns.size(), block = ChatColumns.BLOCK_ROWS;
+    assertTrue(n > 2 * block);
+    assertEquals(expected, read(columns, 0, n));
+    int[][] ranges = {{block - 1, block + 1}, {block, 2 * block},
+        {block + 17, n}, {n - 1, n}, {5, 5}};
+    for (int[] r : ranges)
+      assertEquals(r[0] + ".." + r[1], expected.subList(r[0], r[1]),
+          read(columns, r[0], r[1]));
+  }
+
+  @Test
+  public void invalidDateLeavesTimesUnknown() throws IOException {
+    Path history = tmp.newFile().toPath();
+    Files.write(history, ("————— 2016-13-45 —————\n\n"
+        + "a 10:00\n\nfirst\n\n"
+        + "————— 2016-07-23 —————\n\n"
+        + "b 15:51\n\nsecond\n").getBytes(StandardCharsets.UTF_8));
+    long day = LocalDate.of(2016, 7, 23).toEpochDay();
+    List<String> expected = new ArrayList<>();
+    expected.add("a -1 first");
+    expected.add("b " + (day * 24 * 60 + 15 * 60 + 51) + " second");
+    assertEquals(expected, rows(history));
+    assertEquals(expected, read(write(history, 1), 0, 2));
+  }
+}
@@ -0,0 +1,152 @@
+package stdio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Counts the terms and tags of the {@code wechat.txt} fixture. */
+public class ChatStatsTest {
+
+  private static final int K = 10;
+
+  @Rule
+  public final TemporaryFolder tmp = new TemporaryFolder();
+
+  private Path history;
+  private int messages;
+  /** Exact counts of the terms and tags, counted one message at a time. */
+  private final Map<String, Integer> terms = new HashMap<>();
+  private final Map<String, Integer> tags = new HashMap<>();
+
+  @Before
+  public void countExactly() throws IOException {
+    history = WechatMsgProcessTest.fixture(tmp);
+    // the alternating user and message lines of skipLines
+    try (BufferedReader in = Files.newBufferedReader(history,
+        StandardCharsets.UTF_8)) {
+      String line;
+      boolean isUserLine = true;
+      while ((line = in.readLine()) != null) {
+        if (line.isEmpty() || line.startsWith("—————")) continue;
+        if (!isUserLine) {
+          messages++;
+          count(line);
+        }
+        isUserLine = !isUserLine;
+      }
+    }
+  }
+
+  /** Adjacent CJK pairs, ASCII words of 2 or more and bracketed tags. */
+  private void count(String message) {
+    char prev = 0;
+    for (int i = 0; i < message.length();) {
+      char c = message.charAt(i);
+      int close = message.indexOf(']', i);
+      if (c == '[' && close > i + 1 && isTag(message.substring(i + 1, close))) {
+        add(tags, message.substring(i, close + 1));
+        i = close + 1;
+        prev = 0;
+      } else if (isWordChar(c)) {
+        int end = i;
+        while (end < message.length() && isWordChar(message.charAt(end)))
+          end++;
+        if (end - i >= 2) add(terms, message.substring(i, end).toLowerCase());
+        i = end;
+        prev = 0;
+      } else {
+        boolean cjk = c >= 0x4e00 && c <= 0x9fff;
+        if (cjk && prev != 0) add(terms, "" + prev + c);
+        prev = cjk ? c : 0;
+        i++;
+      }
+    }
+  }
+
+  private static boolean isTag(String name) {
+    if (name.getBytes(StandardCharsets.UTF_8).length > 32) return false;
+    for (char c : name.toCharArray())
+      if (c != ' ' && !isWordChar(c) && c < 0x80) return false;
+    return true;
+  }
+
+  private static boolean isWordChar(char c) {
+    return c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z'
+        || c >= '0' && c <= '9';
+  }
+
+  private static void add(Map<String, Integer> counts, String term) {
+    Integer n = counts.get(term);
+    counts.put(term, n == null ? 1 : n + 1);
+  }
+
+  /** @return the rows of a metric of the CSV output, in output order */
+  private static Map<String, Integer> rows(String csv, String metric) {
+    Map<String, Integer> rows = new LinkedHashMap<>();
+    for (String row : csv.split("\n")) {
+      if (!row.startsWith(metric + ",")) continue;
+      int comma = row.lastIndexOf(',');
+      rows.put(row.substring(metric.length() + 1, comma),
+          Integer.parseInt(row.substring(comma + 1).trim()));
+    }
+    return rows;
+  }
+
+  private String analyze(int parallelism) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (PrintStream out = new PrintStream(bytes, true, "UTF-8")) {
+      WechatMsgProcess.analyze(history, out, false, K, parallelism);
+    }
+    return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * The sketch is far wider than the fixture has terms, so the estimates are
+   * exact and the top k are the k most frequent terms, ties in any order.
+   */
+  private static void assertTopK(Map<String, Integer> exact,
+      Map<String, Integer> top) {
+    assertEquals(Math.min(K, exact.size()), top.size());
+    int last = Integer.MAX_VALUE;
+    for (Map.Entry<String, Integer> e : top.entrySet()) {
+      assertEquals(e.getKey(), exact.get(e.getKey()), e.getValue());
+      assertTrue(e.getKey() + " after a lower count", e.getValue() <= last);
+      last = e.getValue();
+    }
+    for (Map.Entry<String, Integer> e : exact.entrySet())
+      if (!top.containsKey(e.getKey()))
+        assertTrue(e.getKey() + " is missing", e.getValue() <= last);
+  }
+
+  @Test
+  public void keepsTheMostFrequentTermsAndTags() throws IOException {
+    String csv = analyze(1);
+    assertEquals(messages, (int) rows(csv, "messages").get(""));
+    assertTopK(terms, rows(csv, "term"));
+    assertTopK(tags, rows(csv, "tag"));
+    assertTrue(tags.size() > 1 && terms.size() > K);
+  }
+
+  @Test
+  public void parallelScanCountsTheSame() throws IOException {
+    String csv = analyze(3);
+    assertEquals(messages, (int) rows(csv, "messages").get(""));
+    assertTopK(terms, rows(csv, "term"));
+    assertTopK(tags, rows(csv, "tag"));
+  }
+}
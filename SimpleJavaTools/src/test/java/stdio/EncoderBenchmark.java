@@ -0,0 +1,100 @@
+package stdio;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the throughput of {@link BitStringEncoder} with the
+ * {@code readLine()} loop it replaced in {@link BinaryStringOut}, on a
+ * temporary file of random lines, and checks that both write the same bytes.
+ * <p>
+ * Run with {@code gradle benchmark -Pbench=stdio.EncoderBenchmark
+ * -PbenchArgs='megabytes digitsPerLine'}, by default 256 MB of 2048 digit
+ * lines.
+ */
+public class EncoderBenchmark {
+
+  private static final int ROUNDS = 5;
+
+  public static void main(String[] args) throws IOException {
+    long megabytes = args.length > 0 ? Long.parseLong(args[0]) : 256;
+    int digits = args.length > 1 ? Integer.parseInt(args[1]) : 2048;
+    Path text = Files.createTempFile("bits-", ".txt");
+    Path expected = Files.createTempFile("bits-", ".old");
+    Path actual = Files.createTempFile("bits-", ".new");
+    try {
+      write(text, megabytes << 20, digits);
+      long size = Files.size(text);
+      for (int round = 1; round <= ROUNDS; round++) {
+        long start = System.nanoTime();
+        readLineLoop(text, expected);
+        long old = System.nanoTime() - start;
+        start = System.nanoTime();
+        encode(text, actual);
+        long now = System.nanoTime() - start;
+        System.out.printf("round %d: readLine %.0f MB/s, encoder %.0f MB/s%n",
+            round, size / 1e3 / (old / 1e6), size / 1e3 / (now / 1e6));
+      }
+      if (!Arrays.equals(Files.readAllBytes(expected),
+          Files.readAllBytes(actual)))
+        throw new AssertionError("the outputs differ");
+    } finally {
+      Files.delete(text);
+      Files.delete(expected);
+      Files.delete(actual);
+    }
+  }
+
+  private static void write(Path text, long bytes, int digits)
+      throws IOException {
+    Random random = new Random(1);
+    byte[] line = new byte[digits + 1];
+    line[digits] = '\n';
+    try (OutputStream out = Files.newOutputStream(text)) {
+      for (long n = 0; n < bytes; n += line.length) {
+        for (int i = 0; i < digits; i++)
+          line[i] = (byte) ('0' + random.nextInt(2));
+        out.write(line);
+      }
+    }
+  }
+
+  /** The loop of {@code BinaryStringOut.writeBits} before the encoder. */
+  private static void readLineLoop(Path text, Path binary)
+      throws IOException {
+    try (BufferedReader in = new BufferedReader(
+        new InputStreamReader(Files.newInputStream(text)));
+        DataOutputStream out = new DataOutputStream(
+            Files.newOutputStream(binary))) {
+      String sbuf;
+      while ((sbuf = in.readLine()) != null) {
+        if (sbuf.length() % 8 != 0)
+          throw new IOException("this line is not a multiple of 8 bits");
+        char[] cbuf = sbuf.toCharArray();
+        byte[] bbuf = new byte[cbuf.length / 8];
+        for (int i = 0; i < cbuf.length; i++) {
+          bbuf[i / 8] <<= 1;
+          if (cbuf[i] == '1') bbuf[i / 8] += 1;
+        }
+        out.write(bbuf);
+      }
+    }
+  }
+
+  private static void encode(Path text, Path binary) throws IOException {
+    try (FileChannel in = FileChannel.open(text, StandardOpenOption.READ);
+        FileChannel out = FileChannel.open(binary, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+      new BitStringEncoder().encode(in, out);
+    }
+  }
+}
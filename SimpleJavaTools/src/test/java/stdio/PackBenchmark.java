@@ -0,0 +1,109 @@
+package stdio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the packing step of {@link BitStringEncoder}, which takes 32
+ * digits per step, with the 8 digit step alone, on random lines in a direct
+ * buffer so that no file access is timed. Both write through a
+ * {@link BitOutputStream} to a channel that drops the bytes, after a first
+ * pass that checks they write the same bytes.
+ * <p>
+ * Run with {@code gradle benchmark -Pbench=stdio.PackBenchmark
+ * -PbenchArgs='megabytes digitsPerLine'}, by default 100 MB of 2048 digit
+ * lines. The 8 digit loop here skips line breaks without the per line work
+ * of {@code pack}, so only long lines compare the steps themselves.
+ */
+public class PackBenchmark {
+
+  private static final int ROUNDS = 8;
+  private static final long DIGIT_MASK = 0xfefefefefefefefeL;
+  private static final long ZEROS = 0x3030303030303030L;
+  private static final long LOW_BITS = 0x0101010101010101L;
+  private static final long GATHER = 0x0102040810204080L;
+
+  public static void main(String[] args) throws IOException {
+    int megabytes = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+    int digits = args.length > 1 ? Integer.parseInt(args[1]) : 2048;
+    if (digits % 8 != 0)
+      throw new IllegalArgumentException("digits per line: " + digits);
+    ByteBuffer src = lines(megabytes << 20, digits);
+
+    ByteArrayOutputStream wide = new ByteArrayOutputStream();
+    ByteArrayOutputStream narrow = new ByteArrayOutputStream();
+    time(src, Channels.newChannel(wide), true);
+    time(src, Channels.newChannel(narrow), false);
+    if (!Arrays.equals(wide.toByteArray(), narrow.toByteArray()))
+      throw new AssertionError("the outputs differ");
+
+    WritableByteChannel sink = new WritableByteChannel() {
+      @Override
+      public int write(ByteBuffer b) {
+        int n = b.remaining();
+        b.position(b.limit());
+        return n;
+      }
+
+      @Override
+      public boolean isOpen() {
+        return true;
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+    for (int round = 1; round <= ROUNDS; round++) {
+      double gb = src.limit() / 1e9;
+      System.out.printf("round %d: 8 digits %.2f GB/s, 32 digits %.2f GB/s%n",
+          round, gb / time(src, sink, false), gb / time(src, sink, true));
+    }
+  }
+
+  private static ByteBuffer lines(int bytes, int digits) {
+    Random random = new Random(1);
+    ByteBuffer src = ByteBuffer.allocateDirect(bytes);
+    while (src.remaining() > digits) {
+      for (int i = 0; i < digits; i++)
+        src.put((byte) ('0' + random.nextInt(2)));
+      src.put((byte) '\n');
+    }
+    src.flip();
+    return src;
+  }
+
+  /** @return seconds to pack all of {@code src} */
+  private static double time(ByteBuffer src, WritableByteChannel out,
+      boolean wide) throws IOException {
+    ByteBuffer in = src.duplicate();
+    BitOutputStream bits = new BitOutputStream(out, 1 << 17);
+    long start = System.nanoTime();
+    if (wide) new BitStringEncoder().pack(in, bits, true);
+    else packBytes(in, bits);
+    bits.flush();
+    return (System.nanoTime() - start) / 1e9;
+  }
+
+  /**
+   * The 8 digit step of {@link BitStringEncoder#pack} without the 32 digit
+   * one. Only handles lines of whole bytes, like the ones generated here.
+   */
+  private static void packBytes(ByteBuffer src, BitOutputStream out)
+      throws IOException {
+    int p = src.position(), lim = src.limit();
+    while (lim - p >= 8) {
+      long w = src.getLong(p);
+      if ((w & DIGIT_MASK) == ZEROS) {
+        out.writeByte((int) (((w & LOW_BITS) * GATHER) >>> 56));
+        p += 8;
+      } else p++; // a line break
+    }
+    src.position(lim);
+  }
+}
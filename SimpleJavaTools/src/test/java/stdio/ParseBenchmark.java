@@ -0,0 +1,87 @@
+package stdio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Compares {@link WechatMsgProcess#process(Path, Path)} with the
+ * {@code BufferedReader} loop of {@link WechatMsgProcess#skipLines} on a
+ * temporary copy of {@code wechat.txt} repeated many times, and checks that
+ * both write the same output. Each runs once, as skipLines keeps its groups
+ * in a static map.
+ * <p>
+ * skipLines always writes {@code wechat-out.txt} in the working directory,
+ * so that file must not exist. Run with
+ * {@code gradle benchmark -Pbench=stdio.ParseBenchmark -PbenchArgs=copies},
+ * by default 8000 copies (284 MB).
+ */
+public class ParseBenchmark {
+
+  public static void main(String[] args) throws IOException {
+    int copies = args.length > 0 ? Integer.parseInt(args[0]) : 8000;
+    Path old = Paths.get("wechat-out.txt");
+    if (Files.exists(old))
+      throw new IllegalStateException(old.toAbsolutePath() + " exists");
+    Path history = Files.createTempFile("wechat-", ".txt");
+    Path out = Files.createTempFile("wechat-", ".out");
+    try {
+      byte[] sample = sample();
+      try (OutputStream o = Files.newOutputStream(history)) {
+        for (int i = 0; i < copies; i++)
+          o.write(sample);
+      }
+      System.out.printf("%d MB%n", Files.size(history) / 1000000);
+
+      long start = System.nanoTime();
+      WechatMsgProcess.skipLines(history.toString());
+      System.out.printf("BufferedReader loop %d ms%n",
+          (System.nanoTime() - start) / 1000000);
+      start = System.nanoTime();
+      WechatMsgProcess.process(history, out);
+      System.out.printf("mapped parser %d ms%n",
+          (System.nanoTime() - start) / 1000000);
+
+      if (!sameBytes(old, out))
+        throw new AssertionError("the outputs differ");
+    } finally {
+      Files.deleteIfExists(old);
+      Files.delete(history);
+      Files.delete(out);
+    }
+  }
+
+  /** Compares block by block, the heap is full of skipLines' groups. */
+  private static boolean sameBytes(Path a, Path b) throws IOException {
+    if (Files.size(a) != Files.size(b)) return false;
+    try (InputStream x = Files.newInputStream(a);
+        InputStream y = Files.newInputStream(b)) {
+      byte[] bx = new byte[1 << 16], by = new byte[1 << 16];
+      for (int n; (n = x.read(bx)) > 0;) {
+        for (int m = 0; m < n;) {
+          int k = y.read(by, m, n - m);
+          if (k < 0) return false;
+          m += k;
+        }
+        if (!Arrays.equals(bx, by)) return false;
+      }
+      return true;
+    }
+  }
+
+  private static byte[] sample() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (InputStream in = ParseBenchmark.class
+        .getResourceAsStream("/wechat.txt")) {
+      byte[] buf = new byte[8192];
+      for (int n; (n = in.read(buf)) > 0;)
+        bytes.write(buf, 0, n);
+    }
+    return bytes.toByteArray();
+  }
+}
@@ -0,0 +1,100 @@
+package stdio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Searches an index of the {@code wechat.txt} fixture. */
+public class WechatIndexTest {
+
+  @Rule
+  public final TemporaryFolder tmp = new TemporaryFolder();
+
+  /** "user yyyyMMdd message" of every message, read line by line. */
+  private final List<String> lines = new ArrayList<>();
+  private WechatIndex index;
+
+  @Before
+  public void buildIndex() throws IOException {
+    Path history = WechatMsgProcessTest.fixture(tmp);
+    // the alternating user and message lines of skipLines
+    try (BufferedReader in = Files.newBufferedReader(history,
+        StandardCharsets.UTF_8)) {
+      String line, user = null;
+      int date = 0;
+      while ((line = in.readLine()) != null) {
+        if (line.isEmpty()) continue;
+        if (line.startsWith("—————")) {
+          date = Integer.parseInt(line.replaceAll("[^0-9]", ""));
+        } else if (user == null) {
+          user = line.substring(0, line.indexOf(' '));
+        } else {
+          lines.add(user + " " + date + " " + line);
+          user = null;
+        }
+      }
+    }
+    Path file = tmp.newFile().toPath();
+    WechatIndex.build(history, file, 2);
+    index = WechatIndex.open(file);
+  }
+
+  /** @return the messages grep would find, in history order */
+  private List<String> grep(String term, String user, int from, int to) {
+    List<String> hits = new ArrayList<>();
+    for (String line : lines) {
+      String[] f = line.split(" ", 3);
+      int date = Integer.parseInt(f[1]);
+      if (user != null && !user.equals(f[0]) || date < from
+          || to > 0 && date > to)
+        continue;
+      if (term == null || f[2].toLowerCase().contains(term.toLowerCase()))
+        hits.add(line);
+    }
+    return hits;
+  }
+
+  private List<String> search(String term, String user, int from, int to) {
+    List<String> hits = new ArrayList<>();
+    for (int id : index.search(term, user, from, to))
+      hits.add(index.user(id) + " " + index.date(id) + " "
+          + index.message(id));
+    return hits;
+  }
+
+  @Test
+  public void findsWhatGrepFinds() {
+    String[] terms = {"数据", "据", "java", "JAVA", "Hadoop也是java",
+        "data science", "[ThumbsUp]", "。。", "?", "没有这个词"};
+    for (String term : terms)
+      assertEquals(term, grep(term, null, 0, 0), search(term, null, 0, 0));
+    assertTrue(!grep("数据", null, 0, 0).isEmpty());
+    assertTrue(grep("没有这个词", null, 0, 0).isEmpty());
+  }
+
+  @Test
+  public void filtersBySenderAndDate() {
+    assertEquals(grep(null, null, 0, 0), search(null, null, 0, 0));
+    String user = lines.get(0).split(" ")[0];
+    for (String term : new String[] {null, "数据", "java"}) {
+      assertEquals(grep(term, user, 0, 0), search(term, user, 0, 0));
+      assertEquals(grep(term, null, 20160724, 20160726),
+          search(term, null, 20160724, 20160726));
+      assertEquals(grep(term, user, 20160725, 0),
+          search(term, user, 20160725, 0));
+    }
+    assertTrue(search(null, "nobody", 0, 0).isEmpty());
+  }
+}
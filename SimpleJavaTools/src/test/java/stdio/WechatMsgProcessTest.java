@@ -0,0 +1,60 @@
+package stdio;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assume.assumeFalse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Parses the {@code wechat.txt} fixture like {@link WechatMsgProcess}. */
+public class WechatMsgProcessTest {
+
+  @Rule
+  public final TemporaryFolder tmp = new TemporaryFolder();
+
+  /** @return a copy of the fixture in the temporary folder */
+  static Path fixture(TemporaryFolder tmp) throws IOException {
+    Path history = tmp.newFile("wechat.txt").toPath();
+    try (InputStream in = WechatMsgProcessTest.class
+        .getResourceAsStream("/wechat.txt")) {
+      Files.copy(in, history, StandardCopyOption.REPLACE_EXISTING);
+    }
+    return history;
+  }
+
+  /**
+   * skipLines keeps its groups in a static map, so it runs once, and it
+   * writes {@code wechat-out.txt} in the working directory, which must not
+   * exist.
+   */
+  @Test
+  public void mappedParserWritesWhatSkipLinesWrites() throws IOException {
+    Path old = Paths.get("wechat-out.txt");
+    assumeFalse(old.toAbsolutePath() + " exists", Files.exists(old));
+    Path history = fixture(tmp);
+    byte[] expected;
+    try {
+      WechatMsgProcess.skipLines(history.toString());
+      expected = Files.readAllBytes(old);
+    } finally {
+      Files.deleteIfExists(old);
+    }
+
+    Path out = tmp.newFile().toPath();
+    WechatMsgProcess.process(history, out);
+    assertArrayEquals(expected, Files.readAllBytes(out));
+    for (int parallelism : new int[] {2, 3, 8}) {
+      WechatMsgProcess.process(history, out, parallelism);
+      assertArrayEquals("parallelism " + parallelism, expected,
+          Files.readAllBytes(out));
+    }
+  }
+}
@@ -0,0 +1,74 @@
+package test;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Compares the per call cost of {@link Method#invoke} with a
+ * {@link MethodInvoker} on a one and a two parameter method. Each round times
+ * both on the same inputs, so the later rounds show the compiled code.
+ * <p>
+ * Run with {@code gradle benchmark -Pbench=test.InvokeBenchmark}.
+ */
+public class InvokeBenchmark {
+
+	private static final int CALLS = 20_000_000;
+	private static final int ROUNDS = 5;
+
+	public static int square(Integer x) {
+		return x * x;
+	}
+
+	public static int add(Integer x, Integer y) {
+		return x + y;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Integer[] inputs = new Integer[1024];
+		for (int i = 0; i < inputs.length; i++)
+			inputs[i] = i;
+		Method square = InvokeBenchmark.class.getMethod("square",
+				Integer.class);
+		Method add = InvokeBenchmark.class.getMethod("add", Integer.class,
+				Integer.class);
+		MethodInvoker squareInvoker = new MethodInvoker(square, null);
+		MethodInvoker addInvoker = new MethodInvoker(add, null);
+		Blackhole blackhole = new Blackhole();
+		for (int round = 1; round <= ROUNDS; round++) {
+			System.out.printf(
+					"round %d: 1 arg %.1f -> %.1f ns, 2 args %.1f -> %.1f ns%n",
+					round, reflect(square, inputs, 1, blackhole),
+					handle(squareInvoker, inputs, 1, blackhole),
+					reflect(add, inputs, 2, blackhole),
+					handle(addInvoker, inputs, 2, blackhole));
+		}
+	}
+
+	/** @return nanoseconds per call of {@code m.invoke} */
+	private static double reflect(Method m, Integer[] inputs, int arity,
+			Blackhole blackhole) throws IllegalAccessException,
+			InvocationTargetException {
+		int mask = inputs.length - 1;
+		long start = System.nanoTime();
+		for (int i = 0; i < CALLS; i++) {
+			Integer x = inputs[i & mask];
+			blackhole.consume(arity == 1 ? m.invoke(null, x)
+					: m.invoke(null, x, inputs[i + 1 & mask]));
+		}
+		return (double) (System.nanoTime() - start) / CALLS;
+	}
+
+	/** @return nanoseconds per call of the invoker */
+	private static double handle(MethodInvoker invoker, Integer[] inputs,
+			int arity, Blackhole blackhole) throws InvocationTargetException {
+		int mask = inputs.length - 1;
+		long start = System.nanoTime();
+		for (int i = 0; i < CALLS; i++) {
+			Integer x = inputs[i & mask];
+			blackhole.consume(arity == 1 ? invoker.invoke(x)
+					: invoker.invokeAll(
+							new Object[] { x, inputs[i + 1 & mask] }));
+		}
+		return (double) (System.nanoTime() - start) / CALLS;
+	}
+}